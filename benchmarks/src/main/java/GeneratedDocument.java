@@ -0,0 +1,169 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Документы для бенчмарков: предложения из слов выбранного алфавита, абзацы по нескольку
+// предложений. Текст одинаков при каждом запуске (фиксированное зерно). В оформленном
+// документе каждые несколько слов меняется шрифт, размер, начертание или цвет, а абзацы
+// различаются выравниванием и отступами; документ собирается через FormattedDocument.load,
+// как при открытии файла собственного формата.
+final class GeneratedDocument {
+    static final String[] LATIN = {
+            "editor", "paragraph", "search", "replace", "format", "window", "document", "layout",
+            "status", "printer", "font", "style", "number", "list", "value", "text", "line", "page",
+            "caret", "selection", "history", "undo", "file", "save"
+    };
+    static final String[] CYRILLIC = {
+            "редактор", "абзац", "поиск", "замена", "шрифт", "страница", "документ", "строка",
+            "слово", "печать", "список", "формат", "окно", "размер", "цвет", "файл", "правка",
+            "история", "курсор", "выделение", "отмена", "текст", "номер", "стиль"
+    };
+
+    private static final String[] FAMILIES = {"Serif", "SansSerif", "Monospaced"};
+    private static final int[] SIZES = {11, 12, 14, 16, 18, 24};
+    private static final Color[] COLORS = {Color.BLACK, Color.DARK_GRAY, Color.BLUE, Color.RED, new Color(0, 100, 0)};
+    private static final int CHARACTER_STYLES = 48;
+    private static final int PARAGRAPH_STYLES = 8;
+
+    private GeneratedDocument() {
+    }
+
+    // "1KB", "1MB", "100MB" - число символов документа
+    static int parseSize(String size) {
+        if (size.endsWith("MB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        }
+        if (size.endsWith("KB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+        }
+        return Integer.parseInt(size);
+    }
+
+    // Слово, которое есть в документе этого алфавита, и слово, которого в нём нет
+    static String presentWord(String script) {
+        return "latin".equals(script) ? "editor" : "редактор";
+    }
+
+    static String absentWord(String script) {
+        return "latin".equals(script) ? "writer" : "писатель";
+    }
+
+    static FormattedDocument create(int length, String script, boolean styled) throws BadLocationException {
+        FormattedDocument document = new FormattedDocument();
+        document.load(specs(text(length, script), styled));
+        return document;
+    }
+
+    static char[] text(int length, String script) {
+        // В смешанном тексте каждое слово берётся из любого из двух словарей
+        String[] first = "cyrillic".equals(script) ? CYRILLIC : LATIN;
+        String[] second = "latin".equals(script) ? LATIN : CYRILLIC;
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length + 128);
+        while (text.length() < length) {
+            int sentences = 2 + random.nextInt(5);
+            for (int s = 0; s < sentences; s++) {
+                int words = 4 + random.nextInt(11);
+                for (int w = 0; w < words; w++) {
+                    String[] alphabet = random.nextBoolean() ? first : second;
+                    String word = alphabet[random.nextInt(alphabet.length)];
+                    if (w == 0) {
+                        text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                    } else {
+                        text.append(' ').append(word);
+                    }
+                    if ("mixed".equals(script) && random.nextInt(12) == 0) {
+                        text.append(' ').append(random.nextInt(1000));
+                    }
+                    if (w + 1 < words && random.nextInt(8) == 0) {
+                        text.append(',');
+                    }
+                }
+                text.append(s + 1 < sentences ? ". " : ".");
+            }
+            text.append('\n');
+        }
+        text.setLength(length);
+        char[] chars = new char[length];
+        text.getChars(0, length, chars, 0);
+        return chars;
+    }
+
+    // Описание элементов для FormattedDocument.load: участок на абзац или на каждые несколько слов.
+    // Участки ссылаются на общий массив текста, как при чтении файла
+    static ElementSpec[] specs(char[] text, boolean styled) {
+        AttributePool pool = AttributePool.SHARED;
+        AttributeSet base = pool.getStyle(StyleContext.DEFAULT_STYLE);
+        Random random = new Random(7);
+        AttributeSet[] characterStyles = new AttributeSet[styled ? CHARACTER_STYLES : 1];
+        characterStyles[0] = pool.getEmptySet();
+        for (int i = styled ? 0 : 1; i < characterStyles.length; i++) {
+            SimpleAttributeSet attributes = new SimpleAttributeSet();
+            StyleConstants.setFontFamily(attributes, FAMILIES[random.nextInt(FAMILIES.length)]);
+            StyleConstants.setFontSize(attributes, SIZES[random.nextInt(SIZES.length)]);
+            StyleConstants.setBold(attributes, random.nextInt(3) == 0);
+            StyleConstants.setItalic(attributes, random.nextInt(4) == 0);
+            StyleConstants.setUnderline(attributes, random.nextInt(6) == 0);
+            StyleConstants.setForeground(attributes, COLORS[random.nextInt(COLORS.length)]);
+            characterStyles[i] = pool.intern(attributes);
+        }
+        AttributeSet[] paragraphStyles = new AttributeSet[styled ? PARAGRAPH_STYLES : 1];
+        paragraphStyles[0] = pool.addAttribute(pool.getEmptySet(), StyleConstants.ResolveAttribute, base);
+        for (int i = 1; i < paragraphStyles.length; i++) {
+            SimpleAttributeSet attributes = new SimpleAttributeSet();
+            StyleConstants.setAlignment(attributes, random.nextInt(4));
+            StyleConstants.setFirstLineIndent(attributes, random.nextInt(3) * 12);
+            StyleConstants.setSpaceBelow(attributes, random.nextInt(2) * 6);
+            attributes.setResolveParent(base);
+            paragraphStyles[i] = pool.intern(attributes);
+        }
+
+        List<ElementSpec> specs = new ArrayList<>();
+        specs.add(new ElementSpec(null, ElementSpec.StartTagType));
+        int offset = 0;
+        while (true) {
+            specs.add(new ElementSpec(paragraphStyles[random.nextInt(paragraphStyles.length)], ElementSpec.StartTagType));
+            int end = offset;
+            while (end < text.length && text[end] != '\n') {
+                end++;
+            }
+            boolean closed = end < text.length;
+            if (closed) {
+                end++;
+            }
+            if (styled) {
+                // Участки по 1-6 слов; перевод строки остаётся в последнем участке абзаца
+                int start = offset;
+                while (start < end) {
+                    int runEnd = start;
+                    for (int words = 1 + random.nextInt(6); words > 0 && runEnd < end; ) {
+                        if (text[runEnd++] == ' ') {
+                            words--;
+                        }
+                    }
+                    if (end - runEnd == 1 && closed) {
+                        runEnd = end;
+                    }
+                    AttributeSet attributes = characterStyles[random.nextInt(characterStyles.length)];
+                    specs.add(new StyledFileFormat.TextSpec(attributes, text, start, runEnd - start));
+                    start = runEnd;
+                }
+            } else if (end > offset) {
+                specs.add(new StyledFileFormat.TextSpec(characterStyles[0], text, offset, end - offset));
+            }
+            offset = end;
+            if (!closed) {
+                break;
+            }
+            specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+        }
+        return specs.toArray(new ElementSpec[0]);
+    }
+}
@@ -0,0 +1,345 @@
+import benchmarks.Workload;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import java.awt.*;
+import java.awt.print.PageFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+// Операции редактора для EditorBenchmarks. Каждая повторяет обработчик Main над теми же
+// объектами, с которыми работает редактор: статистикой, индексами строк и поиска,
+// разбиением на страницы, историей отмены, движками замены и списков, загрузчиками и
+// AutoSaver. Окна нет, поэтому прокрутка к найденному и перерисовка в замер не входят.
+public final class Workloads {
+    private static final int EDITOR_WIDTH = 800;
+    private static final long UNDO_LIMIT = 32L * 1024 * 1024; // Как в настройках редактора по умолчанию
+
+    private Workloads() {
+    }
+
+    public static Workload create(String operation, String size, String script, String styling) throws Exception {
+        int length = GeneratedDocument.parseSize(size);
+        boolean styled = "styled".equals(styling);
+        FormattedDocument document = GeneratedDocument.create(length, script, styled);
+        switch (operation) {
+            case "status":
+                return new Status(document);
+            case "findNext":
+                return new FindNext(document, new SearchQuery(GeneratedDocument.presentWord(script), false, true, false));
+            case "highlight":
+                return new Highlight(document, new SearchQuery(GeneratedDocument.presentWord(script), false, true, false));
+            case "replace":
+                return new Replace(document, GeneratedDocument.presentWord(script), GeneratedDocument.absentWord(script));
+            case "lists":
+                return new Lists(document);
+            case "fontSync":
+                return () -> SelectionFont.of(document, 0, document.getLength()).family;
+            case "open":
+                return new Open(document, styled);
+            case "save":
+                return new Save(document, styled);
+            default:
+                throw new IllegalArgumentException("Неизвестная операция: " + operation);
+        }
+    }
+
+    private static JTextPane createEditor(FormattedDocument document) {
+        JTextPane editor = new JTextPane();
+        editor.setEditorKit(new FormattedDocument.Kit());
+        editor.setDocument(document);
+        editor.setSize(EDITOR_WIDTH, 600);
+        return editor;
+    }
+
+    // Символ под кареткой в середине документа, затем строка состояния, как в Main.updateStatus.
+    // Символ по очереди вставляется и удаляется, так что документ не растёт. Документ показан
+    // в редакторе с видами и разбиением на страницы, поэтому правка и строка состояния, как и
+    // в редакторе, выполняются на EDT
+    private static final class Status implements Workload {
+        private final FormattedDocument document;
+        private final DocumentStatistics statistics = new DocumentStatistics();
+        private final BoundedUndoManager undoManager = new BoundedUndoManager(UNDO_LIMIT);
+        private final LineIndex lineIndex;
+        private final Paginator paginator;
+        private final int caret;
+        private boolean typed = false;
+
+        Status(FormattedDocument document) throws Exception {
+            this.document = document;
+            JTextPane editor = createEditor(document);
+            // Вёрстка доводится до конца заранее, чтобы замер не зависел от фоновой очереди
+            editor.getUI().modelToView2D(editor, 0, Position.Bias.Forward);
+            View section = editor.getUI().getRootView(editor).getView(0);
+            if (section instanceof AsyncSectionView) {
+                for (int i = 0; i < section.getViewCount(); i++) {
+                    ((AsyncSectionView) section).layout(i);
+                }
+            }
+            // События изменения размера уже доставлены и не сбросят разрывы во время замера
+            SwingUtilities.invokeAndWait(() -> {
+            });
+
+            statistics.rebuild(document);
+            document.addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    statistics.update(e);
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    statistics.update(e);
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                    statistics.update(e);
+                }
+            });
+            document.addUndoableEditListener(undoManager);
+            lineIndex = new LineIndex(document);
+            paginator = new Paginator(editor, new PageFormat());
+            paginator.getPageCount();
+            caret = document.getLength() / 2;
+        }
+
+        @Override
+        public Object run() throws Exception {
+            String[][] shown = new String[1][];
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    shown[0] = typeAndShow();
+                } catch (BadLocationException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            return shown[0];
+        }
+
+        private String[] typeAndShow() throws BadLocationException {
+            if (typed) {
+                document.remove(caret, 1);
+            } else {
+                document.insertString(caret, "x", null);
+            }
+            typed = !typed;
+
+            String status = StatusLine.summary(statistics, undoManager, AttributePool.SHARED,
+                    TextEncoding.of(document, Charset.defaultCharset()));
+            String page = StatusLine.page(paginator.getPageOfOffset(caret) + 1, paginator.getPageCount());
+            int line = lineIndex.getLineOfOffset(caret);
+            String position = StatusLine.position(line + 1, caret - lineIndex.getLineStart(line) + 1);
+            return new String[]{status, page, position};
+        }
+    }
+
+    // Переход к следующему вхождению по уже построенному индексу, с возвратом к началу в конце
+    private static final class FindNext implements Workload {
+        private final SearchIndex index;
+        private int position = -1;
+
+        FindNext(FormattedDocument document, SearchQuery query) {
+            index = new SearchIndex(document, query);
+        }
+
+        @Override
+        public Object run() {
+            position = index.next(position);
+            if (position == -1) {
+                position = index.next(-1);
+            }
+            return index.endOf(position);
+        }
+    }
+
+    // Новый запрос: индекс вхождений строится заново и передаётся в подсветку
+    private static final class Highlight implements Workload {
+        private final FormattedDocument document;
+        private final SearchQuery query;
+        private final MatchHighlighter highlighter = new MatchHighlighter(Color.YELLOW);
+        private SearchIndex current;
+
+        Highlight(FormattedDocument document, SearchQuery query) {
+            this.document = document;
+            this.query = query;
+        }
+
+        @Override
+        public Object run() {
+            SearchIndex index = new SearchIndex(document, query);
+            highlighter.setMatches(index);
+            if (current != null) {
+                current.dispose();
+            }
+            current = index;
+            return index.size();
+        }
+    }
+
+    // Заменить всё одной правкой в истории отмены; слово и замена меняются местами на каждом
+    // вызове, так что документ возвращается к исходному
+    private static final class Replace implements Workload {
+        private final FormattedDocument document;
+        private final BoundedUndoManager undoManager = new BoundedUndoManager(UNDO_LIMIT);
+        private String find;
+        private String replacement;
+
+        Replace(FormattedDocument document, String find, String replacement) {
+            this.document = document;
+            this.find = find;
+            this.replacement = replacement;
+            document.addUndoableEditListener(undoManager);
+        }
+
+        @Override
+        public Object run() throws BadLocationException {
+            ReplaceEngine.Matches matches = ReplaceEngine.findMatches(document, new SearchQuery(find, false, true, false), replacement);
+            BoundedUndoManager.Batch edit = new BoundedUndoManager.Batch("Заменить", Runnable::run);
+            undoManager.addEdit(edit);
+            try {
+                ReplaceEngine.replaceAll(document, matches, replacement);
+            } finally {
+                edit.end();
+            }
+            String swap = find;
+            find = replacement;
+            replacement = swap;
+            return matches.size();
+        }
+    }
+
+    // Маркеры, нумерация и многоуровневая нумерация для всего документа: каждый вид
+    // по очереди добавляется и снимается
+    private static final class Lists implements Workload {
+        private static final Pattern[] MARKERS = {ListFormatter.BULLET, ListFormatter.NUMBER, ListFormatter.MULTILEVEL_NUMBER};
+
+        private final FormattedDocument document;
+        private final BoundedUndoManager undoManager = new BoundedUndoManager(UNDO_LIMIT);
+        private int step = 0;
+
+        Lists(FormattedDocument document) {
+            this.document = document;
+            document.addUndoableEditListener(undoManager);
+        }
+
+        @Override
+        public Object run() throws BadLocationException {
+            int kind = step / 2 % MARKERS.length;
+            step++;
+            int end = document.getLength();
+            boolean marked = ListFormatter.allMarked(document, 0, end, MARKERS[kind]);
+            BoundedUndoManager.Batch edit = new BoundedUndoManager.Batch("Список", Runnable::run);
+            undoManager.addEdit(edit);
+            try {
+                if (marked) {
+                    ListFormatter.removeMarkers(document, 0, end, MARKERS[kind]);
+                } else if (kind == 0) {
+                    ListFormatter.addBullets(document, 0, end);
+                } else if (kind == 1) {
+                    ListFormatter.addNumbers(document, 0, end);
+                } else {
+                    ListFormatter.addMultilevelNumbers(document, 0, end);
+                }
+            } finally {
+                edit.end();
+            }
+            return document.getLength();
+        }
+    }
+
+    // Открытие файла: текст - через FileLoader с показом по частям, собственный формат -
+    // разбор вне EDT и заполнение документа на EDT, как в StyledFileFormat.Loader
+    private static final class Open implements Workload {
+        private final File directory;
+        private final File file;
+        private final boolean styled;
+
+        Open(FormattedDocument source, boolean styled) throws IOException, BadLocationException {
+            this.styled = styled;
+            directory = Files.createTempDirectory("editor-benchmark").toFile();
+            file = new File(directory, styled ? "document." + StyledFileFormat.EXTENSION : "document.txt");
+            String text = source.getText(0, source.getLength());
+            if (styled) {
+                StyledFileFormat.write(file, text, StyledFileFormat.captureStyles(source));
+            } else {
+                AtomicFileWriter.write(file, text, "\n", new TextEncoding(StandardCharsets.UTF_8, false));
+            }
+        }
+
+        @Override
+        public Object run() throws Exception {
+            FormattedDocument document = new FormattedDocument();
+            if (styled) {
+                DefaultStyledDocument.ElementSpec[] specs = StyledFileFormat.read(file);
+                SwingUtilities.invokeAndWait(() -> {
+                    try {
+                        document.load(specs);
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            } else {
+                CountDownLatch finished = new CountDownLatch(1);
+                FileLoader loader = new FileLoader(file, document, StandardCharsets.UTF_8) {
+                    @Override
+                    protected void done() {
+                        super.done();
+                        finished.countDown();
+                    }
+                };
+                loader.execute();
+                finished.await();
+                loader.get();
+            }
+            return document;
+        }
+
+        @Override
+        public void close() {
+            file.delete();
+            directory.delete();
+        }
+    }
+
+    // Сохранение, как "Сохранить" в меню: снимок на EDT и ожидание конца записи
+    private static final class Save implements Workload {
+        private final File directory;
+        private final File file;
+        private final AutoSaver saver;
+
+        Save(FormattedDocument document, boolean styled) throws IOException {
+            directory = Files.createTempDirectory("editor-benchmark").toFile();
+            file = new File(directory, styled ? "document." + StyledFileFormat.EXTENSION : "document.txt");
+            saver = new AutoSaver(createEditor(document), () -> null, StandardCharsets.UTF_8, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public Object run() throws Exception {
+            CompletableFuture<IOException> written = new CompletableFuture<>();
+            SwingUtilities.invokeAndWait(() -> saver.saveNow(file, written::complete));
+            IOException error = written.get();
+            if (error != null) {
+                throw error;
+            }
+            return file.length();
+        }
+
+        @Override
+        public void close() {
+            file.delete();
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Горячие пути редактора на сгенерированных документах. Throughput даёт операции в
+// секунду, SampleTime - распределение задержек с p0.99; распределение памяти печатает
+// профилировщик gc, который задача jmh включает всегда. Каждая операция повторяет
+// обработчик Main над теми же классами, что и редактор, но без окна: статический JFrame
+// Main не создаётся в headless-режиме.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dfile.encoding=UTF-8", "-Xmx4g"})
+public class EditorBenchmarks {
+
+    // Документ задаётся размером в символах, алфавитом и форматированием
+    @State(Scope.Thread)
+    public abstract static class Fixture {
+        @Param({"1KB", "1MB", "100MB"})
+        public String size;
+        @Param({"latin", "cyrillic", "mixed"})
+        public String script;
+        @Param({"plain", "styled"})
+        public String styling;
+
+        Workload workload;
+
+        abstract String operation();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            // Единственный вызов через отражение, в замер он не входит
+            workload = (Workload) Class.forName("Workloads")
+                    .getMethod("create", String.class, String.class, String.class, String.class)
+                    .invoke(null, operation(), size, script, styling);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            workload.close();
+        }
+    }
+
+    public static class Status extends Fixture {
+        @Override
+        String operation() {
+            return "status";
+        }
+    }
+
+    public static class FindNext extends Fixture {
+        @Override
+        String operation() {
+            return "findNext";
+        }
+    }
+
+    public static class Highlight extends Fixture {
+        @Override
+        String operation() {
+            return "highlight";
+        }
+    }
+
+    public static class Replace extends Fixture {
+        @Override
+        String operation() {
+            return "replace";
+        }
+    }
+
+    public static class Lists extends Fixture {
+        @Override
+        String operation() {
+            return "lists";
+        }
+    }
+
+    public static class FontSync extends Fixture {
+        @Override
+        String operation() {
+            return "fontSync";
+        }
+    }
+
+    public static class Open extends Fixture {
+        @Override
+        String operation() {
+            return "open";
+        }
+    }
+
+    public static class Save extends Fixture {
+        @Override
+        String operation() {
+            return "save";
+        }
+    }
+
+    // Символ под кареткой и строка состояния, как после каждого нажатия клавиши
+    @Benchmark
+    public Object updateStatus(Status state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object findNext(FindNext state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object highlightSearchResults(Highlight state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object replaceText(Replace state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object toggleLists(Lists state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object syncSelectionFont(FontSync state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object open(Open state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object save(Save state) throws Exception {
+        return state.workload.run();
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Время до первого символа: редактор запускается отдельным процессом, как пользователем,
+// с замером StartupProbe (-Deditor.startupProbe) - без архива AppCDS и с ним, если архив
+// собран. Первый запуск каждого варианта не учитывается: он прогревает файловый кэш ОС.
+// Печатаются минимум, медиана и максимум; если медиана лучшего варианта больше цели,
+// код выхода 1 и задача startup падает. JMH здесь не подходит: замер включает старт JVM.
+public final class StartupBenchmark {
+    private static final String PROBE = "editor.startupProbe";
+    private static final long PROCESS_TIMEOUT = 60; // Секунд на один запуск
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Использование: StartupBenchmark <jar редактора> <архив AppCDS> <запусков> <цель, мс>");
+            System.exit(2);
+        }
+        File jar = new File(args[0]);
+        File archive = new File(args[1]);
+        int runs = Integer.parseInt(args[2]);
+        long target = Long.parseLong(args[3]);
+
+        long best = measure("Без AppCDS", jar, null, runs);
+        if (archive.isFile()) {
+            best = Math.min(best, measure("С AppCDS", jar, archive, runs));
+        } else {
+            System.out.println("Архив AppCDS не собран (gradle cdsArchive), замер только без него");
+        }
+        System.out.printf("Цель: %d мс, лучшая медиана: %d мс%n", target, best);
+        if (best > target) {
+            System.out.println("Цель не достигнута");
+            System.exit(1);
+        }
+    }
+
+    private static long measure(String name, File jar, File archive, int runs) throws Exception {
+        launch(jar, archive);
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            times[i] = launch(jar, archive);
+        }
+        Arrays.sort(times);
+        long median = times[runs / 2];
+        System.out.printf("%s: мин. %d мс, медиана %d мс, макс. %d мс (%d запусков)%n",
+                name, times[0], median, times[runs - 1], runs);
+        return median;
+    }
+
+    // Один запуск редактора; результат - время до первого символа в миллисекундах
+    private static long launch(File jar, File archive) throws IOException, InterruptedException {
+        File result = File.createTempFile("startup", ".txt");
+        File log = File.createTempFile("startup", ".log");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            if (archive != null) {
+                command.add("-XX:SharedArchiveFile=" + archive.getPath());
+            }
+            command.add("-D" + PROBE + "=" + result.getPath());
+            command.addAll(Arrays.asList("-cp", jar.getPath(), "Main"));
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(log)
+                    .start();
+            if (!process.waitFor(PROCESS_TIMEOUT, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IllegalStateException("Редактор не набрал символ за " + PROCESS_TIMEOUT + " с");
+            }
+            if (process.exitValue() != 0 || result.length() == 0) {
+                throw new IllegalStateException("Редактор завершился с кодом " + process.exitValue() + ":\n"
+                        + new String(Files.readAllBytes(log.toPath()), Charset.defaultCharset()));
+            }
+            return Long.parseLong(new String(Files.readAllBytes(result.toPath()), StandardCharsets.US_ASCII).trim());
+        } finally {
+            result.delete();
+            log.delete();
+        }
+    }
+}
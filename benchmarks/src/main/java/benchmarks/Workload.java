@@ -0,0 +1,11 @@
+package benchmarks;
+
+// Одна операция редактора над подготовленным документом. Реализации лежат в пакете по
+// умолчанию рядом с классами редактора (см. Workloads), потому что JMH не принимает
+// бенчмарки без пакета, а из именованного пакета классы редактора не видны.
+public interface Workload {
+    Object run() throws Exception;
+
+    default void close() throws Exception {
+    }
+}
@@ -0,0 +1,75 @@
+import jdk.jfr.FlightRecorder;
+
+import javax.swing.event.CaretListener;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Время обработчиков в потоке EDT по действиям: распределение длительностей для строки
+// показателей и событие JFR на каждый вызов. Обработчики кнопок и пунктов меню
+// оборачиваются при создании, имя действия - текст кнопки. Если действие открывает
+// модальный диалог, время, пока диалог ждал пользователя, не учитывается.
+final class ActionMetrics {
+    private static final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private static volatile String current = null; // Выполняющееся действие, для отчёта о зависании
+
+    private ActionMetrics() {
+    }
+
+    static ActionListener action(String name, ActionListener listener) {
+        return e -> measure(name, () -> listener.actionPerformed(e));
+    }
+
+    static CaretListener caret(String name, CaretListener listener) {
+        return e -> measure(name, () -> listener.caretUpdate(e));
+    }
+
+    static Runnable task(String name, Runnable task) {
+        return () -> measure(name, task);
+    }
+
+    static String current() {
+        return current;
+    }
+
+    // Копия, чтобы таблицу можно было строить, пока действия продолжают записываться
+    static Map<String, LatencyHistogram> snapshot() {
+        synchronized (histograms) {
+            return new LinkedHashMap<>(histograms);
+        }
+    }
+
+    private static void measure(String name, Runnable body) {
+        // Первое событие регистрирует класс в JFR, на EDT это сотни миллисекунд; пока запись
+        // не включалась (-XX:StartFlightRecording или jcmd JFR.start), события не создаются
+        EditorEvents.Action event = FlightRecorder.isInitialized() ? new EditorEvents.Action() : null;
+        String outer = current;
+        current = name;
+        long excluded = EdtMonitor.getExcludedNanos();
+        long start = System.nanoTime();
+        if (event != null) {
+            event.begin();
+        }
+        try {
+            body.run();
+        } finally {
+            long busy = System.nanoTime() - start - (EdtMonitor.getExcludedNanos() - excluded);
+            current = outer;
+            histogram(name).record(busy);
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.action = name;
+                    event.busy = busy;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private static LatencyHistogram histogram(String name) {
+        synchronized (histograms) {
+            return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import javax.swing.text.AsyncBoxView;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import java.awt.*;
+
+// Вид документа из абзацев с вёрсткой в фоне. AsyncBoxView верстает абзацы в потоке
+// LayoutQueue, так что изменение ширины или шрифта не держит EDT. Здесь добавлено:
+// абзацы, которые ещё ни разу не верстались, занимают оценочную высоту (по числу
+// символов, ширине и шрифту), а не ноль, так что полоса прокрутки сразу близка к
+// правде; видимые абзацы и абзацы под кареткой верстаются сразу на EDT, не дожидаясь
+// своей очереди.
+final class AsyncSectionView extends AsyncBoxView {
+    private float width = 0;      // Ширина, под которую считаются оценки
+    private float lineHeight = 0;
+    private float charWidth = 0;
+    private View creating;        // Абзац, состояние которого сейчас создаётся
+
+    AsyncSectionView(Element element) {
+        super(element, View.Y_AXIS);
+    }
+
+    // Состояние абзаца с оценочной высотой до первой вёрстки
+    private final class EstimatedState extends ChildState {
+        private boolean measured = false;
+        private float estimate = 0;               // Оценка, учтённая в высоте всего вида
+        private volatile float laidOutWidth = -1; // Ширина, под которую абзац верстался
+
+        EstimatedState(View view) {
+            super(view);
+        }
+
+        @Override
+        public void run() {
+            float target = width;
+            super.run();
+            laidOutWidth = target;
+        }
+
+        @Override
+        public float getMajorSpan() {
+            return measured ? super.getMajorSpan() : estimate;
+        }
+    }
+
+    // ChildState подключает абзац к виду ещё в конструкторе, и ParagraphView сразу сообщает
+    // об изменении размеров, когда его состояния ещё нет в списке. Такое сообщение не
+    // нужно: новое состояние и так встаёт в очередь вёрстки
+    @Override
+    protected ChildState createChildState(View view) {
+        creating = view;
+        try {
+            return new EstimatedState(view);
+        } finally {
+            creating = null;
+        }
+    }
+
+    @Override
+    public synchronized void preferenceChanged(View child, boolean width, boolean height) {
+        if (child == null || child != creating) {
+            super.preferenceChanged(child, width, height);
+        }
+    }
+
+    // Истинно, если абзац уже верстался под текущую ширину. После правки или обращения к
+    // строкам он может снова стоять в очереди, но layout доделает его быстро
+    boolean isLaidOut(int index) {
+        return ((EstimatedState) getChildState(index)).laidOutWidth == width;
+    }
+
+    // Ширина, под которую сейчас верстаются абзацы
+    float getLayoutWidth() {
+        return width;
+    }
+
+    // Верстает абзац сразу, если он ещё ждёт в очереди
+    void layout(int index) {
+        ChildState state = getChildState(index);
+        if (!state.isLayoutValid()) {
+            state.run();
+            getLayoutQueue().addTask(this::flushRequirementChanges);
+        }
+    }
+
+    @Override
+    public synchronized void replace(int offset, int length, View[] views) {
+        super.replace(offset, length, views);
+        if (views != null && views.length > 0) {
+            for (int i = 0; i < views.length; i++) {
+                EstimatedState state = (EstimatedState) getChildState(offset + i);
+                if (!state.measured) {
+                    state.estimate = estimate(state.getChildView());
+                    super.majorRequirementChange(state, state.estimate);
+                }
+            }
+            locator.childChanged(getChildState(offset));
+        }
+    }
+
+    // При первой вёрстке абзаца его оценка в высоте вида заменяется настоящей высотой
+    @Override
+    protected synchronized void majorRequirementChange(ChildState state, float delta) {
+        if (state instanceof EstimatedState && !((EstimatedState) state).measured
+                && state.getChildView().getParent() == this) {
+            EstimatedState estimated = (EstimatedState) state;
+            estimated.measured = true;
+            delta -= estimated.estimate;
+        }
+        super.majorRequirementChange(state, delta);
+    }
+
+    @Override
+    public void setSize(float width, float height) {
+        float newWidth = width - getLeftInset() - getRightInset();
+        if (newWidth != this.width) {
+            this.width = newWidth;
+            updateEstimates();
+        }
+        super.setSize(width, height);
+    }
+
+    // Оценки ещё не свёрстанных абзацев зависят от ширины и шрифта
+    private synchronized void updateEstimates() {
+        Container container = getContainer();
+        if (container != null) {
+            FontMetrics metrics = container.getFontMetrics(container.getFont());
+            lineHeight = metrics.getHeight();
+            charWidth = metrics.charWidth('o');
+        }
+        for (int i = 0; i < getViewCount(); i++) {
+            EstimatedState state = (EstimatedState) getChildState(i);
+            if (!state.measured) {
+                float estimate = estimate(state.getChildView());
+                super.majorRequirementChange(state, estimate - state.estimate);
+                state.estimate = estimate;
+            }
+        }
+        if (getViewCount() > 0) {
+            locator.childChanged(getChildState(0));
+        }
+        getLayoutQueue().addTask(this::flushRequirementChanges);
+    }
+
+    private float estimate(View paragraph) {
+        if (lineHeight == 0) {
+            Container container = getContainer();
+            if (container == null) {
+                return 0;
+            }
+            FontMetrics metrics = container.getFontMetrics(container.getFont());
+            lineHeight = metrics.getHeight();
+            charWidth = metrics.charWidth('o');
+        }
+        int chars = paragraph.getEndOffset() - paragraph.getStartOffset();
+        int rows = width > charWidth ? (int) Math.ceil(chars * charWidth / width) : 1;
+        return Math.max(1, rows) * lineHeight;
+    }
+
+    // Видимые абзацы верстаются перед отрисовкой, остальные ждут фоновой очереди
+    @Override
+    public void paint(Graphics g, Shape alloc) {
+        Rectangle clip = g.getClipBounds();
+        if (clip != null && getViewCount() > 0) {
+            Rectangle bounds = alloc.getBounds();
+            int index = locator.getViewIndexAtPoint(bounds.x, clip.y, alloc);
+            for (int i = Math.max(0, index); i < getViewCount(); i++) {
+                layout(i);
+                Rectangle child = locator.getChildAllocation(i, alloc).getBounds();
+                if (child.y + child.height >= clip.y + clip.height) {
+                    break;
+                }
+            }
+        }
+        super.paint(g, alloc);
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        layout(getViewIndex(pos, b));
+        return super.modelToView(pos, a, b);
+    }
+
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] biasReturn) {
+        layout(locator.getViewIndexAtPoint(x, y, a));
+        return super.viewToModel(x, y, a, biasReturn);
+    }
+
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+                                         Position.Bias[] biasRet) throws BadLocationException {
+        if (pos >= 0) {
+            int index = getViewIndex(pos, b);
+            layout(index);
+            // Вверх и вниз каретка может уйти в соседний абзац
+            if (index > 0) {
+                layout(index - 1);
+            }
+            if (index + 1 < getViewCount()) {
+                layout(index + 1);
+            }
+        }
+        return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+    }
+}
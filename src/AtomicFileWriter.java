@@ -0,0 +1,144 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+// Запись файла без риска испортить его при сбое: текст пишется во временный файл
+// рядом с целевым, сбрасывается на диск и только затем атомарно переименовывается
+// поверх целевого. Прерванная запись оставляет прежнюю версию файла целой.
+final class AtomicFileWriter {
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    // Содержимое файла, записываемое в канал временного файла
+    interface Body {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    private AtomicFileWriter() {
+    }
+
+    // Записывает text, заменяя '\n' на lineSeparator, с BOM в начале, если он был у файла
+    static void write(File target, CharSequence text, String lineSeparator, TextEncoding encoding) throws IOException {
+        write(target, channel -> {
+            if (encoding.bom) {
+                encode(channel, "\uFEFF", lineSeparator, encoding.charset);
+            }
+            encode(channel, text, lineSeparator, encoding.charset);
+        });
+    }
+
+    static void write(File target, Body body) throws IOException {
+        Path path = realPath(target);
+        Path temp = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".tmp");
+        boolean moved = false;
+        try {
+            copyAttributes(path, temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                body.writeTo(channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // Настоящий путь файла: по символической ссылке пишется файл, на который она указывает,
+    // а сама ссылка остаётся ссылкой. Нового файла ещё нет - разрешается путь к его папке
+    private static Path realPath(File target) throws IOException {
+        Path path = target.toPath().toAbsolutePath();
+        if (Files.exists(path)) {
+            return path.toRealPath();
+        }
+        Path parent = path.getParent();
+        return parent != null && Files.exists(parent) ? parent.toRealPath().resolve(path.getFileName()) : path;
+    }
+
+    // Временный файл создаётся с правами 0600; переносим на него права, владельца и группу
+    // заменяемого файла. Владельца может сменить только root, чужую группу - только её член,
+    // поэтому отказ здесь не ошибка. Права ставятся последними: смена владельца сбрасывает setuid
+    private static void copyAttributes(Path source, Path temp) throws IOException {
+        PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        if (sourceView == null || tempView == null || !Files.exists(source)) {
+            return; // Не POSIX (Windows) или новый файл - остаются права по умолчанию
+        }
+        PosixFileAttributes attributes = sourceView.readAttributes();
+        try {
+            tempView.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // Не root - владельцем остаётся тот, кто сохраняет
+        }
+        try {
+            tempView.setGroup(attributes.group());
+        } catch (IOException e) {
+            // Пользователь не состоит в группе файла
+        }
+        tempView.setPermissions(attributes.permissions());
+    }
+
+    // Кодирует text в канал с его текущей позиции
+    static void encode(FileChannel channel, CharSequence text, String lineSeparator, Charset charset) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_CHARS + lineSeparator.length());
+        ByteBuffer bytes = ByteBuffer.allocate((int) (chars.capacity() * encoder.maxBytesPerChar()) + 16);
+
+        int length = text.length();
+        int pos = 0;
+        // Хотя бы один проход с признаком конца ввода нужен и для пустого текста, иначе flush() недопустим
+        while (true) {
+            // Заполняем буфер символами, на ходу подставляя разделитель строк
+            while (pos < length && chars.position() < BUFFER_CHARS) {
+                char c = text.charAt(pos++);
+                if (c == '\n') {
+                    chars.put(lineSeparator);
+                } else {
+                    chars.put(c);
+                }
+            }
+            chars.flip();
+            CoderResult result = encoder.encode(chars, bytes, pos == length);
+            if (result.isError()) {
+                result.throwException();
+            }
+            chars.compact();
+            writeBytes(channel, bytes);
+            if (pos == length && chars.position() == 0) {
+                break;
+            }
+        }
+        while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+            writeBytes(channel, bytes);
+        }
+        writeBytes(channel, bytes);
+    }
+
+    private static void writeBytes(FileChannel channel, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
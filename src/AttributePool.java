@@ -0,0 +1,123 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleContext;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Общий пул наборов атрибутов для документов редактора и действий форматирования.
+// StyleContext уже хранит неизменяемые наборы в кэше со слабыми ссылками и отдаёт один
+// объект на одинаковое форматирование, но только пока в наборе не больше 9 атрибутов:
+// более крупные наборы копируются в каждый участок. Здесь порог поднят, так что
+// одинаковое форматирование любого размера хранится один раз, а для строки состояния
+// считаются попадания в пул и объём живых наборов. SHARED - пул редактора; пакетная
+// обработка заводит отдельный пул на каждый документ.
+final class AttributePool extends StyleContext {
+    private static final long serialVersionUID = 1L;
+    static final AttributePool SHARED = new AttributePool();
+
+    private static final int COMPRESSION_THRESHOLD = 64;
+    private static final int SET_OVERHEAD = 96;    // Набор, массив и запись в кэше пула, байт
+    private static final int ATTRIBUTE_BYTES = 16; // Пара ключ-значение в массиве набора
+
+    private final Set<AttributeSet> live = Collections.newSetFromMap(new WeakHashMap<>());
+    private SmallAttributeSet lastCreated;
+    private long lookups = 0;
+    private long misses = 0;
+
+    AttributePool() {
+    }
+
+    // Набор из одного атрибута, общий для всех участков с ним
+    AttributeSet of(Object name, Object value) {
+        return addAttribute(getEmptySet(), name, value);
+    }
+
+    // Разделяемая неизменяемая копия набора
+    AttributeSet intern(AttributeSet attributes) {
+        return addAttributes(getEmptySet(), attributes);
+    }
+
+    synchronized double getHitRate() {
+        return lookups == 0 ? 1.0 : 1.0 - (double) misses / lookups;
+    }
+
+    synchronized int getSetCount() {
+        return live.size();
+    }
+
+    // Оценка памяти, занятой наборами пула
+    synchronized long getRetainedBytes() {
+        long bytes = 0;
+        for (AttributeSet set : live) {
+            bytes += SET_OVERHEAD + (long) ATTRIBUTE_BYTES * set.getAttributeCount();
+        }
+        return bytes;
+    }
+
+    // StyleContext.reclaim() на каждой правке набора спрашивает, не EDT ли это, а Toolkit
+    // отвечает под общей для всех потоков блокировкой. Кэш пула со слабыми ссылками и так
+    // чистится при каждом обращении, поэтому пулы пакетной обработки проверку пропускают
+    @Override
+    public void reclaim(AttributeSet a) {
+        if (this == SHARED) {
+            super.reclaim(a);
+        }
+    }
+
+    @Override
+    protected int getCompressionThreshold() {
+        return COMPRESSION_THRESHOLD;
+    }
+
+    // StyleContext создаёт набор-ключ при каждом поиске; если из пула вернулся он же - это промах
+    @Override
+    protected SmallAttributeSet createSmallAttributeSet(AttributeSet a) {
+        lastCreated = super.createSmallAttributeSet(a);
+        return lastCreated;
+    }
+
+    @Override
+    public synchronized AttributeSet addAttribute(AttributeSet old, Object name, Object value) {
+        return count(super.addAttribute(old, name, value));
+    }
+
+    @Override
+    public synchronized AttributeSet addAttributes(AttributeSet old, AttributeSet attr) {
+        if (old.getAttributeCount() == 0 && attr instanceof SmallAttributeSet && live != null) {
+            // Каждый новый элемент документа копирует свой набор в пустой; неизменяемый
+            // набор пула и есть результат, искать его в кэше заново не нужно
+            lookups++;
+            return attr;
+        }
+        return count(super.addAttributes(old, attr));
+    }
+
+    @Override
+    public synchronized AttributeSet removeAttribute(AttributeSet old, Object name) {
+        return count(super.removeAttribute(old, name));
+    }
+
+    @Override
+    public synchronized AttributeSet removeAttributes(AttributeSet old, Enumeration<?> names) {
+        return count(super.removeAttributes(old, names));
+    }
+
+    @Override
+    public synchronized AttributeSet removeAttributes(AttributeSet old, AttributeSet attrs) {
+        return count(super.removeAttributes(old, attrs));
+    }
+
+    private AttributeSet count(AttributeSet result) {
+        if (live == null) {
+            return result; // Стиль по умолчанию создаётся ещё в конструкторе StyleContext
+        }
+        lookups++;
+        if (result == lastCreated) {
+            misses++;
+            live.add(result);
+        }
+        lastCreated = null;
+        return result;
+    }
+}
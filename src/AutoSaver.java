@@ -0,0 +1,308 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import javax.swing.text.StyledDocument;
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Сохранение документа в фоне. Снимок текста копируется на EDT небольшими кусками
+// между событиями, кодирование и запись выполняются отдельным потоком через
+// AtomicFileWriter. Правки во время копирования не сбрасывают снимок: уже скопированная
+// часть, задетая правками, помечается одним окном и дочитывается в конце, поэтому снимок
+// большого документа при непрерывном наборе всё равно дописывается. Автосохранение
+// пропускается, если после последнего сохранения документ не менялся. Все записи идут
+// через один поток, поэтому более старый снимок не может перезаписать более новый.
+// Файлы *.ted пишутся в собственном формате вместе с форматированием, снятым на EDT
+// в один шаг с последним куском текста;
+// текстовые файлы - в той кодировке и с теми разделителями строк, с которыми были открыты.
+final class AutoSaver {
+    private static final int SNAPSHOT_CHUNK = 1024 * 1024; // Символов за один шаг копирования на EDT
+    private static final int MAX_RESTARTS = 3;             // Сколько раз большое окно правок дочитывается кусками
+
+    private final JTextComponent editor;
+    private final Supplier<File> target; // Файл для автосохранения или null, если сохранять некуда
+    private final Charset charset; // Кодировка новых документов, ещё не связанных с файлом
+    private final Timer timer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private EditJournal journal;    // Журнал правок текущего файла или null
+    private long revision = 0;      // Счётчик правок документа
+    private long savedRevision = 0; // Правка, на которой документ был сохранён
+
+    // Текущий снимок для автосохранения: snapshot[0, copied) - скопированное начало документа
+    private Document snapshotDocument;
+    private File snapshotFile;
+    private char[] snapshot;
+    private int copied;
+    private int restarts;
+    private boolean saving = false;
+    private final Segment segment = new Segment();
+
+    // Окно правок в уже скопированной части: символы документа [dirtyStart, dirtyEnd) нужно
+    // прочитать заново, до окна снимок совпадает с документом, а после него символ документа
+    // c лежит в snapshot[c - dirtyEnd + dirtySnapshotEnd]. dirtyStart < 0 - правок не было
+    private int dirtyStart = -1;
+    private int dirtyEnd;
+    private int dirtySnapshotEnd;
+
+    private final DocumentListener snapshotListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            edited(e.getOffset(), e.getOffset(), e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            edited(e.getOffset(), e.getOffset() + e.getLength(), 0);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Атрибуты снимаются вместе с последним куском
+        }
+    };
+
+    AutoSaver(JTextComponent editor, Supplier<File> target, Charset charset, int interval) {
+        this.editor = editor;
+        this.target = target;
+        this.charset = charset;
+        timer = new Timer(interval, e -> startSnapshot());
+        segment.setPartialReturn(true);
+    }
+
+    void start() {
+        timer.start();
+    }
+
+    // Вызывается на каждое изменение документа
+    void markChanged() {
+        revision++;
+    }
+
+    // Текущее состояние документа считается сохранённым (файл только что открыт или записан)
+    void markSaved() {
+        savedRevision = revision;
+    }
+
+    // После сохранения из журнала удаляются записи, попавшие в файл
+    void setJournal(EditJournal journal) {
+        this.journal = journal;
+    }
+
+    boolean isDirty() {
+        return revision != savedRevision;
+    }
+
+    // Сохраняет документ сразу; вызывается на EDT. Снимок текста и форматирования снимается
+    // здесь же, запись идёт в потоке автосохранения, а done вызывается на EDT по её окончании
+    // с null или с ошибкой записи
+    void saveNow(File file, Consumer<IOException> done) {
+        Document document = editor.getDocument();
+        long current = revision;
+        long journalMark = journal != null ? journal.mark() : 0;
+        char[] text = new char[document.getLength()];
+        try {
+            copyText(document, 0, text, 0, text.length);
+        } catch (BadLocationException e) {
+            done.accept(new IOException(e));
+            return;
+        }
+        String lineSeparator = lineSeparator(document);
+        TextEncoding encoding = TextEncoding.of(document, charset);
+        StyledFileFormat.Styles styles = captureStyles(document, file);
+        executor.execute(() -> {
+            IOException error = null;
+            try {
+                writeFile(file, CharBuffer.wrap(text), lineSeparator, encoding, styles);
+            } catch (IOException e) {
+                error = e;
+            }
+            IOException failure = error;
+            SwingUtilities.invokeLater(() -> {
+                if (failure == null) {
+                    savedRevision = Math.max(savedRevision, current);
+                    compactJournal(file, journalMark);
+                }
+                done.accept(failure);
+            });
+        });
+    }
+
+    private void compactJournal(File file, long mark) {
+        if (journal != null && journal.getTarget().equals(file)) {
+            journal.compact(mark);
+        }
+    }
+
+    private void startSnapshot() {
+        File file = target.get();
+        if (snapshot != null || saving || file == null || !isDirty()) {
+            return;
+        }
+        snapshotDocument = editor.getDocument();
+        snapshotFile = file;
+        snapshot = new char[snapshotDocument.getLength()];
+        copied = 0;
+        restarts = 0;
+        dirtyStart = -1;
+        snapshotDocument.addDocumentListener(snapshotListener);
+        copyChunk();
+    }
+
+    // Копирует очередной кусок и отдаёт EDT другим событиям до следующего
+    private void copyChunk() {
+        if (snapshot == null) {
+            return;
+        }
+        if (editor.getDocument() != snapshotDocument || target.get() != snapshotFile) {
+            // Открыт другой документ или файл - этот снимок больше не нужен
+            stopSnapshot();
+            return;
+        }
+        // Если правки раз за разом задевают большое окно, остаток читается за один шаг
+        int chunk = restarts < MAX_RESTARTS ? SNAPSHOT_CHUNK : Integer.MAX_VALUE;
+        try {
+            int total = snapshotIndex(snapshotDocument.getLength());
+            if (total > snapshot.length) {
+                snapshot = Arrays.copyOf(snapshot, Math.max(total, snapshot.length + snapshot.length / 2));
+            }
+            int count = Math.min(total - copied, chunk);
+            copyText(snapshotDocument, documentOffset(copied), snapshot, copied, count);
+            copied += count;
+            if (copied < total) {
+                SwingUtilities.invokeLater(this::copyChunk);
+                return;
+            }
+            if (dirtyStart >= 0) {
+                if (dirtyEnd - dirtyStart > chunk) {
+                    // Большое окно дочитывается кусками, как и весь документ: снимок обрезается
+                    // по началу окна, скопированное до него остаётся
+                    copied = dirtyStart;
+                    dirtyStart = -1;
+                    restarts++;
+                    SwingUtilities.invokeLater(this::copyChunk);
+                    return;
+                }
+                char[] text = new char[snapshotDocument.getLength()];
+                System.arraycopy(snapshot, 0, text, 0, dirtyStart);
+                copyText(snapshotDocument, dirtyStart, text, dirtyStart, dirtyEnd - dirtyStart);
+                System.arraycopy(snapshot, dirtySnapshotEnd, text, dirtyEnd, copied - dirtySnapshotEnd);
+                snapshot = text;
+            } else if (copied < snapshot.length) {
+                snapshot = Arrays.copyOf(snapshot, copied);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            stopSnapshot();
+            return;
+        }
+        write();
+    }
+
+    // Правка документа во время копирования: [from, to) до правки заменены length символами.
+    // Правки в ещё не скопированной части ничего не меняют - она будет прочитана после них
+    private void edited(int from, int to, int length) {
+        int copiedEnd = documentOffset(copied);
+        if (from >= copiedEnd) {
+            return;
+        }
+        int end = Math.min(to, copiedEnd); // Удалённое за скопированной частью просто не будет прочитано
+        int start = dirtyStart >= 0 ? Math.min(dirtyStart, from) : from;
+        int windowEnd = dirtyStart >= 0 ? Math.max(dirtyEnd, end) : end;
+        dirtySnapshotEnd = snapshotIndex(windowEnd);
+        dirtyStart = start;
+        dirtyEnd = windowEnd + length - (end - from);
+    }
+
+    // Индекс в снимке для смещения документа за окном правок (или при их отсутствии)
+    private int snapshotIndex(int offset) {
+        return dirtyStart >= 0 ? offset - dirtyEnd + dirtySnapshotEnd : offset;
+    }
+
+    private int documentOffset(int index) {
+        return dirtyStart >= 0 ? index - dirtySnapshotEnd + dirtyEnd : index;
+    }
+
+    private void stopSnapshot() {
+        snapshotDocument.removeDocumentListener(snapshotListener);
+        snapshot = null;
+    }
+
+    // Копирует символы документа без промежуточной строки
+    private void copyText(Document document, int from, char[] dst, int dstOffset, int length) throws BadLocationException {
+        int pos = from;
+        while (pos < from + length) {
+            document.getText(pos, from + length - pos, segment);
+            System.arraycopy(segment.array, segment.offset, dst, dstOffset + pos - from, segment.count);
+            pos += segment.count;
+        }
+    }
+
+    // Снимок совпадает с документом на этой правке: записываем его вместе с форматированием
+    private void write() {
+        char[] text = snapshot;
+        File file = snapshotFile;
+        long written = revision;
+        long journalMark = journal != null ? journal.mark() : 0;
+        String lineSeparator = lineSeparator(snapshotDocument);
+        TextEncoding encoding = TextEncoding.of(snapshotDocument, charset);
+        StyledFileFormat.Styles styles = captureStyles(snapshotDocument, file);
+        stopSnapshot();
+        saving = true;
+        executor.execute(() -> {
+            IOException error = null;
+            try {
+                writeFile(file, CharBuffer.wrap(text), lineSeparator, encoding, styles);
+            } catch (IOException e) {
+                error = e;
+            }
+            IOException failure = error;
+            SwingUtilities.invokeLater(() -> {
+                saving = false;
+                if (failure != null) {
+                    failure.printStackTrace();
+                } else {
+                    savedRevision = Math.max(savedRevision, written);
+                    compactJournal(file, journalMark);
+                }
+            });
+        });
+    }
+
+    // Форматирование нужно только для файлов собственного формата; вызывается на EDT
+    // или в потоке, которому документ принадлежит целиком
+    static StyledFileFormat.Styles captureStyles(Document document, File file) {
+        return StyledFileFormat.accepts(file) && document instanceof StyledDocument
+                ? StyledFileFormat.captureStyles((StyledDocument) document) : null;
+    }
+
+    static void writeFile(File file, CharSequence text, String lineSeparator, TextEncoding encoding,
+                                  StyledFileFormat.Styles styles) throws IOException {
+        if (styles != null) {
+            StyledFileFormat.write(file, text, styles);
+        } else {
+            AtomicFileWriter.write(file, text, lineSeparator, encoding);
+        }
+    }
+
+    static String lineSeparator(Document document) {
+        Object property = document.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+        return property instanceof String ? (String) property : System.lineSeparator();
+    }
+}
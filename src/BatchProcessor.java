@@ -0,0 +1,416 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+
+// Пакетная обработка файлов без окна: поиск и замена, маркеры и нумерация, смена регистра
+// и статистика теми же классами, что и в редакторе. Main здесь не загружается, поэтому
+// JFrame не создаётся. Файлы обрабатываются параллельно в ForkJoinPool, по потоку на ядро;
+// объём одновременно открытых документов ограничен: файл не начинает обрабатываться, пока
+// для него не хватает памяти из общего бюджета. Строка отчёта печатается, как только файл
+// готов, поэтому порядок строк - порядок завершения.
+public final class BatchProcessor {
+    private static final int BYTES_PER_FILE_BYTE = 6; // Документ, его текст для записи и элементы
+    private static final int MIN_FILE_KB = 64;
+
+    private final Options options;
+    private final PrintStream out;
+    private final Semaphore memory;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private BatchProcessor(Options options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+        memory = new Semaphore(options.memoryKB);
+    }
+
+    // Параметры командной строки
+    private static final class Options {
+        Path input;
+        SearchQuery find;
+        String replacement;       // null - только подсчёт вхождений
+        Pattern list;             // Маркер списка или null
+        String caseMode;          // upper, lower, toggle или null
+        Path outputDirectory;     // Куда записывать изменённые файлы
+        boolean inPlace = false;
+        boolean csv = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int memoryKB = 256 * 1024;
+        List<String> extensions = new ArrayList<>();
+
+        boolean modifies() {
+            return replacement != null || list != null || caseMode != null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Options options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            usage();
+            System.exit(2);
+            return;
+        }
+        PrintStream out = new PrintStream(System.out, true, "UTF-8");
+        BatchProcessor processor = new BatchProcessor(options, out);
+        System.exit(processor.run() ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("Использование: java BatchProcessor [параметры] <папка или файл>");
+        System.err.println("  --find ТЕКСТ           найти и посчитать вхождения");
+        System.err.println("  --replace ТЕКСТ        заменить все вхождения --find");
+        System.err.println("  --regex                --find - регулярное выражение ($1 в замене - группа)");
+        System.err.println("  --ignore-case          без учёта регистра");
+        System.err.println("  --whole-word           только слово целиком");
+        System.err.println("  --list bullets|numbers|multilevel   маркеры или нумерация всех абзацев");
+        System.err.println("  --case upper|lower|toggle           регистр всего текста");
+        System.err.println("  --out ПАПКА            записать изменённые файлы в папку с той же структурой");
+        System.err.println("  --in-place             перезаписать исходные файлы");
+        System.err.println("  --ext txt,ted          расширения файлов при обходе папки");
+        System.err.println("  --threads N            число потоков (по умолчанию - по числу ядер)");
+        System.err.println("  --memory МБ            предел памяти под одновременно открытые документы");
+        System.err.println("  --csv                  отчёт в формате CSV");
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        String find = null;
+        boolean regex = false;
+        boolean matchCase = true;
+        boolean wholeWord = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--find":
+                    find = value(args, ++i, arg);
+                    break;
+                case "--replace":
+                    options.replacement = value(args, ++i, arg);
+                    break;
+                case "--regex":
+                    regex = true;
+                    break;
+                case "--ignore-case":
+                    matchCase = false;
+                    break;
+                case "--whole-word":
+                    wholeWord = true;
+                    break;
+                case "--list":
+                    String list = value(args, ++i, arg);
+                    if ("bullets".equals(list)) {
+                        options.list = ListFormatter.BULLET;
+                    } else if ("numbers".equals(list)) {
+                        options.list = ListFormatter.NUMBER;
+                    } else if ("multilevel".equals(list)) {
+                        options.list = ListFormatter.MULTILEVEL_NUMBER;
+                    } else {
+                        throw new IllegalArgumentException("Неизвестный вид списка: " + list);
+                    }
+                    break;
+                case "--case":
+                    options.caseMode = value(args, ++i, arg);
+                    if (!options.caseMode.matches("upper|lower|toggle")) {
+                        throw new IllegalArgumentException("Неизвестный регистр: " + options.caseMode);
+                    }
+                    break;
+                case "--out":
+                    options.outputDirectory = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--in-place":
+                    options.inPlace = true;
+                    break;
+                case "--ext":
+                    for (String extension : value(args, ++i, arg).split(",")) {
+                        options.extensions.add("." + extension.trim().toLowerCase(Locale.ROOT));
+                    }
+                    break;
+                case "--threads":
+                    options.threads = Math.max(1, number(value(args, ++i, arg), arg));
+                    break;
+                case "--memory":
+                    options.memoryKB = Math.max(1, number(value(args, ++i, arg), arg)) * 1024;
+                    break;
+                case "--csv":
+                    options.csv = true;
+                    break;
+                default:
+                    if (arg.startsWith("--") || options.input != null) {
+                        throw new IllegalArgumentException("Неизвестный параметр: " + arg);
+                    }
+                    options.input = Paths.get(arg);
+            }
+        }
+        if (options.input == null) {
+            throw new IllegalArgumentException("Не указана папка или файл для обработки.");
+        }
+        if (options.replacement != null && find == null) {
+            throw new IllegalArgumentException("--replace требует --find.");
+        }
+        if (options.inPlace && options.outputDirectory != null) {
+            throw new IllegalArgumentException("Укажите либо --out, либо --in-place.");
+        }
+        if (find != null) {
+            options.find = new SearchQuery(find, regex, matchCase, wholeWord);
+            try {
+                options.find.getPattern();
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Неверное регулярное выражение: " + e.getDescription());
+            }
+        }
+        if (options.extensions.isEmpty()) {
+            options.extensions.add(".txt");
+            options.extensions.add("." + StyledFileFormat.EXTENSION);
+        }
+        return options;
+    }
+
+    private static String value(String[] args, int index, String name) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Для " + name + " не указано значение.");
+        }
+        return args[index];
+    }
+
+    private static int number(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Для " + name + " нужно число: " + value);
+        }
+    }
+
+    // Обходит файлы и раздаёт их потокам; возвращает false, если какой-то файл не обработан
+    private boolean run() throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        AtomicInteger files = new AtomicInteger();
+        if (options.csv) {
+            out.println("Файл,Абзацы,Предложения,Слова,Символы,Символы без пробелов,Спец. символы,Лат. буквы," +
+                    "Рус. буквы,Цифры,Знаки препинания,Кодировка,Найдено,Заменено,Ошибка");
+        }
+        try (Stream<Path> paths = Files.walk(options.input)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> path.equals(options.input) || accepts(path))
+                    .forEach(path -> {
+                        int permits = permits(path);
+                        // Обход ждёт здесь, пока уже открытые документы не освободят память
+                        memory.acquireUninterruptibly(permits);
+                        files.incrementAndGet();
+                        pool.execute(() -> {
+                            try {
+                                process(path);
+                            } finally {
+                                memory.release(permits);
+                            }
+                        });
+                    });
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.err.println("Файлов: " + files.get() + ", ошибок: " + failures.get() + ", время: " + elapsed + " мс");
+        return failures.get() == 0;
+    }
+
+    private boolean accepts(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : options.extensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Оценка памяти под документ файла в килобайтах; файл больше бюджета обрабатывается один
+    private int permits(Path path) {
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException e) {
+            size = 0;
+        }
+        long kilobytes = Math.max(MIN_FILE_KB, size * BYTES_PER_FILE_BYTE / 1024);
+        return (int) Math.min(options.memoryKB, kilobytes);
+    }
+
+    private void process(Path path) {
+        File file = path.toFile();
+        int found = -1;
+        int replaced = -1;
+        try {
+            // Свой пул атрибутов: через общий все потоки шли бы по очереди
+            AttributePool styles = new AttributePool();
+            FormattedDocument document = new FormattedDocument(styles);
+            if (StyledFileFormat.accepts(file)) {
+                document.load(StyledFileFormat.read(file, styles));
+            } else {
+                FileLoader.load(file, document, Charset.defaultCharset());
+            }
+
+            if (options.find != null) {
+                ReplaceEngine.Matches matches = ReplaceEngine.findMatches(document, options.find,
+                        options.replacement != null ? options.replacement : "");
+                found = matches.size();
+                if (options.replacement != null) {
+                    ReplaceEngine.replaceAll(document, matches, options.replacement);
+                    replaced = found;
+                }
+            }
+            if (options.list != null && document.getLength() > 0) {
+                toggleList(document, options.list);
+            }
+            if (options.caseMode != null) {
+                changeCase(document, options.caseMode);
+            }
+
+            File target = target(path);
+            if (target != null) {
+                File parent = target.getParentFile();
+                if (parent != null) {
+                    Files.createDirectories(parent.toPath());
+                }
+                AutoSaver.writeFile(target, document.getText(0, document.getLength()), AutoSaver.lineSeparator(document),
+                        TextEncoding.of(document, Charset.defaultCharset()), AutoSaver.captureStyles(document, target));
+            }
+
+            DocumentStatistics statistics = new DocumentStatistics();
+            statistics.rebuild(document);
+            report(path, statistics, TextEncoding.of(document, Charset.defaultCharset()), found, replaced, null);
+        } catch (IOException | BadLocationException | RuntimeException e) {
+            failures.incrementAndGet();
+            report(path, null, null, found, replaced, e);
+        }
+    }
+
+    // Абсолютный путь: у относительного "файл.txt" из текущей папки нет родителя
+    private File target(Path path) {
+        if (!options.modifies()) {
+            return null;
+        }
+        if (options.inPlace) {
+            return path.toAbsolutePath().toFile();
+        }
+        if (options.outputDirectory == null) {
+            return null;
+        }
+        Path relative = path.equals(options.input) ? path.getFileName() : options.input.relativize(path);
+        return options.outputDirectory.resolve(relative).toAbsolutePath().toFile();
+    }
+
+    // Как кнопки списков в редакторе: если все абзацы уже с маркером - маркеры снимаются
+    private static void toggleList(FormattedDocument document, Pattern marker) throws BadLocationException {
+        int end = document.getLength();
+        if (ListFormatter.allMarked(document, 0, end, marker)) {
+            ListFormatter.removeMarkers(document, 0, end, marker);
+        } else if (marker == ListFormatter.BULLET) {
+            ListFormatter.addBullets(document, 0, end);
+        } else if (marker == ListFormatter.NUMBER) {
+            ListFormatter.addNumbers(document, 0, end);
+        } else {
+            ListFormatter.addMultilevelNumbers(document, 0, end);
+        }
+    }
+
+    // toggle - правило кнопки "Регистр": текст только из заглавных становится строчным, иначе
+    // заглавным. Регистр меняется по участкам с конца документа, каждый участок сохраняет
+    // свои атрибуты, поэтому форматирование файлов .ted не теряется
+    private static void changeCase(FormattedDocument document, String mode) throws BadLocationException {
+        boolean upper = "upper".equals(mode);
+        if ("toggle".equals(mode)) {
+            String text = document.getText(0, document.getLength());
+            upper = !text.equals(text.toUpperCase());
+        }
+        int offset = document.getLength();
+        while (offset > 0) {
+            Element run = document.getCharacterElement(offset - 1);
+            int start = run.getStartOffset();
+            String text = document.getText(start, offset - start);
+            String converted = upper ? text.toUpperCase() : text.toLowerCase();
+            if (!converted.equals(text)) {
+                AttributeSet attributes = run.getAttributes().copyAttributes();
+                document.remove(start, offset - start);
+                document.insertString(start, converted, attributes);
+            }
+            offset = start;
+        }
+    }
+
+    private void report(Path path, DocumentStatistics statistics, TextEncoding encoding, int found, int replaced,
+                        Exception error) {
+        String line;
+        if (options.csv) {
+            StringBuilder row = new StringBuilder(csv(path.toString()));
+            if (statistics != null) {
+                row.append(',').append(statistics.getParagraphs())
+                        .append(',').append(statistics.get(DocumentStatistics.SENTENCES))
+                        .append(',').append(statistics.get(DocumentStatistics.WORDS))
+                        .append(',').append(statistics.getCharacters())
+                        .append(',').append(statistics.getCharactersWithoutSpaces())
+                        .append(',').append(statistics.get(DocumentStatistics.SPECIAL))
+                        .append(',').append(statistics.get(DocumentStatistics.LATIN))
+                        .append(',').append(statistics.get(DocumentStatistics.CYRILLIC))
+                        .append(',').append(statistics.get(DocumentStatistics.DIGITS))
+                        .append(',').append(statistics.get(DocumentStatistics.PUNCTUATION))
+                        .append(',').append(csv(encoding.toString()));
+            } else {
+                row.append(",,,,,,,,,,,");
+            }
+            row.append(',').append(found >= 0 ? String.valueOf(found) : "")
+                    .append(',').append(replaced >= 0 ? String.valueOf(replaced) : "")
+                    .append(',').append(error != null ? csv(message(error)) : "");
+            line = row.toString();
+        } else {
+            StringBuilder text = new StringBuilder(path.toString()).append(": ");
+            if (error != null) {
+                text.append("ошибка: ").append(message(error));
+            } else {
+                text.append(statistics.summary()).append(" | Кодировка: ").append(encoding);
+                if (found >= 0) {
+                    text.append(" | Найдено: ").append(found);
+                }
+                if (replaced >= 0) {
+                    text.append(" | Заменено: ").append(replaced);
+                }
+            }
+            line = text.toString();
+        }
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    private static String message(Exception error) {
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,461 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// История отмены с ограничением по памяти. Набор текста подряд объединяется в одну
+// правку до конца слова или строки, размер истории ограничивается оценкой удерживаемых
+// байт, а не числом правок, и самые старые правки вытесняются первыми. Замены больших
+// диапазонов хранятся одной сжатой правкой вместо пары удаление+вставка.
+final class BoundedUndoManager extends UndoManager {
+    private static final long serialVersionUID = 1L;
+    private static final int EDIT_OVERHEAD = 160;       // Примерный размер объектов одной правки документа
+    private static final int COMPACT_THRESHOLD = 4096;  // С какой длины текст замены сжимается
+
+    private long limitBytes;
+    private TypingEdit typing = null; // Открытая группа набора текста
+    private boolean suspended = false; // Правки документа выполняет сама история
+    private long retainedBytes = 0;   // Сумма estimate() правок истории; открытый пакет учитывается в его end()
+
+    BoundedUndoManager(long limitBytes) {
+        this.limitBytes = limitBytes;
+        setLimit(10000);
+    }
+
+    void setLimitBytes(long limitBytes) {
+        this.limitBytes = limitBytes;
+        trimForMemory();
+    }
+
+    // Оценка памяти, удерживаемой историей
+    synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @Override
+    public synchronized void undoableEditHappened(UndoableEditEvent e) {
+        if (suspended) {
+            return;
+        }
+        UndoableEdit edit = e.getEdit();
+        if (typing != null && typing.extend(edit)) {
+            retainedBytes += estimate(edit);
+            trimForMemory();
+            return;
+        }
+        endTyping();
+        boolean batchOpen = isBatchOpen();
+        if (!batchOpen && TypingEdit.isTyping(edit)) {
+            typing = new TypingEdit(edit);
+            edit = typing;
+        }
+        append(edit, batchOpen);
+    }
+
+    @Override
+    public synchronized boolean addEdit(UndoableEdit anEdit) {
+        endTyping();
+        if (anEdit instanceof Batch) {
+            ((Batch) anEdit).owner = this;
+        }
+        return append(anEdit, isBatchOpen());
+    }
+
+    // Правка внутри открытого пакета достаётся пакету и будет учтена в его end(), поэтому
+    // ни оценка, ни вытеснение для неё не нужны: иначе замена по всему документу
+    // обходила бы историю на каждой своей правке
+    private boolean append(UndoableEdit edit, boolean batchOpen) {
+        boolean added = super.addEdit(edit);
+        if (!batchOpen) {
+            retainedBytes += estimate(edit);
+            trimForMemory();
+        }
+        return added;
+    }
+
+    // Проверяется именно пакет: правки документа тоже CompoundEdit, и обёртка, которую
+    // присылает AbstractDocument, навсегда остаётся isInProgress()
+    private boolean isBatchOpen() {
+        UndoableEdit last = lastEdit();
+        return last instanceof Batch && ((Batch) last).isInProgress();
+    }
+
+    // Пакет закрыт: его правки учитываются одной суммой
+    private synchronized void batchEnded(Batch batch) {
+        if (lastEdit() == batch) {
+            retainedBytes += batch.estimate();
+            trimForMemory();
+        }
+    }
+
+    @Override
+    public synchronized boolean canUndo() {
+        endTyping();
+        return super.canUndo();
+    }
+
+    @Override
+    public synchronized boolean canRedo() {
+        endTyping();
+        return super.canRedo();
+    }
+
+    @Override
+    public synchronized void undo() throws CannotUndoException {
+        endTyping();
+        super.undo();
+    }
+
+    @Override
+    public synchronized void redo() throws CannotRedoException {
+        endTyping();
+        super.redo();
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        typing = null;
+        super.discardAllEdits();
+        retainedBytes = 0;
+    }
+
+    private void endTyping() {
+        if (typing != null) {
+            typing.end();
+            typing = null;
+        }
+    }
+
+    // Вытесняет самые старые правки, пока оценка памяти превышает предел; последняя правка
+    // остаётся всегда. Обходятся только вытесняемые правки
+    private void trimForMemory() {
+        if (retainedBytes <= limitBytes || isBatchOpen()) {
+            return;
+        }
+        long total = retainedBytes;
+        int count = 0;
+        while (total > limitBytes && count < edits.size() - 1) {
+            total -= estimate(edits.get(count));
+            count++;
+        }
+        if (count > 0) {
+            trimEdits(0, count - 1);
+        }
+    }
+
+    // Сюда же приходят правки, отброшенные UndoManager: ветка повтора после отмены и
+    // превышение setLimit
+    @Override
+    protected void trimEdits(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            retainedBytes -= estimate(edits.get(i));
+        }
+        super.trimEdits(from, to);
+    }
+
+    static long estimate(UndoableEdit edit) {
+        if (edit instanceof TypingEdit) {
+            return ((TypingEdit) edit).bytes;
+        }
+        if (edit instanceof Batch) {
+            return ((Batch) edit).estimate();
+        }
+        if (edit instanceof ReplaceEdit) {
+            return ((ReplaceEdit) edit).estimate();
+        }
+        if (edit instanceof DocumentEvent) {
+            // Удалённый текст хранится в правке, вставленный - копируется при отмене
+            DocumentEvent event = (DocumentEvent) edit;
+            return event.getType() == DocumentEvent.EventType.CHANGE ? EDIT_OVERHEAD : EDIT_OVERHEAD + 2L * event.getLength();
+        }
+        return EDIT_OVERHEAD;
+    }
+
+    // Заменяет диапазон документа и записывает в историю одну правку, где большой текст хранится сжатым
+    void replace(StyledDocument document, int offset, int length, String text, AttributeSet attributes,
+                 String presentationName) throws BadLocationException {
+        ReplaceEdit edit = new ReplaceEdit(document, offset, length, text, attributes, presentationName);
+        edit.apply(true);
+        addEdit(edit);
+    }
+
+    // Подряд набранные символы или удаления по одному символу в соседних позициях
+    private static final class TypingEdit extends CompoundEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final DocumentEvent.EventType type;
+        private int nextOffset;
+        private boolean complete = false;
+        private long bytes = 0;
+
+        TypingEdit(UndoableEdit first) {
+            DocumentEvent event = (DocumentEvent) first;
+            type = event.getType();
+            nextOffset = event.getOffset();
+            append(first);
+        }
+
+        static boolean isTyping(UndoableEdit edit) {
+            if (!(edit instanceof AbstractDocument.DefaultDocumentEvent)) {
+                return false;
+            }
+            DocumentEvent event = (DocumentEvent) edit;
+            return event.getLength() == 1 && event.getType() != DocumentEvent.EventType.CHANGE;
+        }
+
+        boolean extend(UndoableEdit edit) {
+            if (complete || !isTyping(edit)) {
+                return false;
+            }
+            DocumentEvent event = (DocumentEvent) edit;
+            if (event.getType() != type) {
+                return false;
+            }
+            // Вставка продолжает набор за предыдущим символом, Backspace идёт назад, Delete стоит на месте
+            int offset = event.getOffset();
+            if (offset != nextOffset && !(type == DocumentEvent.EventType.REMOVE && offset == nextOffset - 1)) {
+                return false;
+            }
+            append(edit);
+            return true;
+        }
+
+        private void append(UndoableEdit edit) {
+            super.addEdit(edit);
+            bytes += estimate(edit);
+            DocumentEvent event = (DocumentEvent) edit;
+            nextOffset = type == DocumentEvent.EventType.INSERT ? event.getOffset() + 1 : event.getOffset();
+            // Группа заканчивается на границе слова или строки
+            if (type == DocumentEvent.EventType.INSERT) {
+                try {
+                    String c = event.getDocument().getText(event.getOffset(), 1);
+                    complete = Character.isWhitespace(c.charAt(0));
+                } catch (BadLocationException e) {
+                    complete = true;
+                }
+            }
+        }
+
+        @Override
+        public boolean addEdit(UndoableEdit anEdit) {
+            return false; // Принимаются только правки через extend
+        }
+    }
+
+    // Пакет правок, отменяемый одним шагом; runner выполняет отмену и повтор как пакетную правку
+    static final class Batch extends CompoundEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final String presentationName;
+        private final Consumer<Runnable> runner;
+        private long bytes = -1;
+        private BoundedUndoManager owner; // История, в которую добавлен пакет
+
+        Batch(String presentationName, Consumer<Runnable> runner) {
+            this.presentationName = presentationName;
+            this.runner = runner;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            runner.accept(super::undo);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            runner.accept(super::redo);
+        }
+
+        @Override
+        public String getPresentationName() {
+            return presentationName;
+        }
+
+        @Override
+        public void end() {
+            super.end();
+            if (owner != null) {
+                owner.batchEnded(this);
+            }
+        }
+
+        // Открытый пакет ещё не учтён историей, его правки оцениваются один раз после end()
+        long estimate() {
+            if (isInProgress()) {
+                return 0;
+            }
+            if (bytes < 0) {
+                bytes = 0;
+                for (UndoableEdit edit : edits) {
+                    bytes += BoundedUndoManager.estimate(edit);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    // Замена диапазона: прежний текст хранится вместе с участками атрибутов (длина участка и
+    // общий неизменяемый набор атрибутов), новый - с атрибутами вставки. Длинный текст сжимается.
+    private final class ReplaceEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final StyledDocument document;
+        private final int offset;
+        private final String presentationName;
+        private final Object oldText;
+        private final int[] oldRunLengths;
+        private final AttributeSet[] oldRunAttributes;
+        private final Object newText;
+        private final int newLength;
+        private final AttributeSet newAttributes;
+
+        ReplaceEdit(StyledDocument document, int offset, int length, String text, AttributeSet attributes,
+                    String presentationName) throws BadLocationException {
+            this.document = document;
+            this.offset = offset;
+            this.presentationName = presentationName;
+            this.oldText = pack(document.getText(offset, length));
+
+            int[] lengths = new int[8];
+            AttributeSet[] runAttributes = new AttributeSet[8];
+            int runs = 0;
+            for (int pos = offset; pos < offset + length; runs++) {
+                Element run = document.getCharacterElement(pos);
+                int end = Math.min(Math.max(run.getEndOffset(), pos + 1), offset + length);
+                if (runs == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, runs * 2);
+                    runAttributes = Arrays.copyOf(runAttributes, runs * 2);
+                }
+                lengths[runs] = end - pos;
+                runAttributes[runs] = run.getAttributes().copyAttributes();
+                pos = end;
+            }
+            this.oldRunLengths = Arrays.copyOf(lengths, runs);
+            this.oldRunAttributes = Arrays.copyOf(runAttributes, runs);
+            this.newText = pack(text);
+            this.newLength = text.length();
+            this.newAttributes = attributes == null ? null : attributes.copyAttributes();
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                apply(false);
+            } catch (BadLocationException e) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                apply(true);
+            } catch (BadLocationException e) {
+                throw new CannotRedoException();
+            }
+        }
+
+        // Ставит в документ новый (forward) или прежний текст, не создавая правок истории
+        void apply(boolean forward) throws BadLocationException {
+            String oldString = unpack(oldText);
+            suspended = true;
+            try {
+                if (forward) {
+                    document.remove(offset, oldString.length());
+                    if (newLength > 0) {
+                        document.insertString(offset, unpack(newText), newAttributes);
+                    }
+                } else {
+                    document.remove(offset, newLength);
+                    int pos = offset;
+                    for (int i = 0; i < oldRunLengths.length; i++) {
+                        document.insertString(pos, oldString.substring(pos - offset, pos - offset + oldRunLengths[i]), oldRunAttributes[i]);
+                        pos += oldRunLengths[i];
+                    }
+                }
+            } finally {
+                suspended = false;
+            }
+        }
+
+        long estimate() {
+            return EDIT_OVERHEAD + packedSize(oldText) + packedSize(newText) + 16L * oldRunLengths.length;
+        }
+
+        @Override
+        public String getPresentationName() {
+            return presentationName;
+        }
+    }
+
+    // Короткий текст хранится строкой, длинный - сжатыми байтами UTF-8
+    private static Object pack(String text) {
+        if (text.length() < COMPACT_THRESHOLD) {
+            return text;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return new Packed(out.toByteArray(), bytes.length);
+    }
+
+    private static String unpack(Object packed) {
+        if (packed instanceof String) {
+            return (String) packed;
+        }
+        Packed data = (Packed) packed;
+        Inflater inflater = new Inflater();
+        inflater.setInput(data.bytes);
+        byte[] bytes = new byte[data.length];
+        try {
+            int n = 0;
+            while (n < bytes.length && !inflater.finished()) {
+                n += inflater.inflate(bytes, n, bytes.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long packedSize(Object packed) {
+        return packed instanceof String ? 2L * ((String) packed).length() : ((Packed) packed).bytes.length;
+    }
+
+    private static final class Packed {
+        final byte[] bytes;
+        final int length; // Длина несжатых байт
+
+        Packed(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
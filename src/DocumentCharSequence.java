@@ -0,0 +1,63 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+// Документ как CharSequence для java.util.regex. Символы читаются кусками через
+// Segment с частичным возвратом, так что весь текст в String не копируется.
+final class DocumentCharSequence implements CharSequence {
+    private final Document document;
+    private final Segment segment = new Segment();
+    private int segmentStart = 0; // Смещение segment.array[segment.offset] в документе
+
+    DocumentCharSequence(Document document) {
+        this.document = document;
+        segment.setPartialReturn(true);
+    }
+
+    @Override
+    public int length() {
+        return document.getLength();
+    }
+
+    @Override
+    public char charAt(int index) {
+        int inSegment = index - segmentStart;
+        if (inSegment < 0 || inSegment >= segment.count) {
+            load(index);
+            inSegment = 0;
+        }
+        return segment.array[segment.offset + inSegment];
+    }
+
+    private void load(int index) {
+        try {
+            document.getText(index, document.getLength() - index, segment);
+            segmentStart = index;
+        } catch (BadLocationException e) {
+            segment.count = 0;
+            throw new IndexOutOfBoundsException("Неверная позиция: " + index);
+        }
+        if (segment.count == 0) {
+            throw new IndexOutOfBoundsException("Неверная позиция: " + index);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        try {
+            return document.getText(start, end - start);
+        } catch (BadLocationException e) {
+            throw new IndexOutOfBoundsException("Неверный диапазон: " + start + "-" + end);
+        }
+    }
+
+    // Сбрасывает прочитанный кусок: после правки документа он устарел
+    void invalidate() {
+        segment.count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+}
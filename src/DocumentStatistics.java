@@ -0,0 +1,251 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+
+// Инкрементальная статистика документа. Счётчики хранятся отдельно для каждого абзаца
+// и пересчитываются только для абзацев, затронутых DocumentEvent, поэтому стоимость
+// обновления зависит от размера правки, а не от размера документа.
+final class DocumentStatistics {
+    // Индексы счётчиков внутри записи абзаца
+    static final int WORDS = 0;
+    static final int SENTENCES = 1;
+    static final int SPACES = 2;
+    static final int SPECIAL = 3;
+    static final int LATIN = 4;
+    static final int CYRILLIC = 5;
+    static final int DIGITS = 6;
+    static final int PUNCTUATION = 7;
+    private static final int FIELDS = 8;
+
+    // Классы символов для таблицы ASCII
+    private static final int SPACE = 1;          // ' '
+    private static final int WHITESPACE = 2;     // пробельные символы (как \s в регулярных выражениях)
+    private static final int LATIN_LETTER = 4;   // A-Z, a-z
+    private static final int DIGIT = 8;          // 0-9
+    private static final int PUNCT = 16;         // . , ! ? ; : - ( ) " '
+    private static final int SENTENCE_END = 32;  // . ! ?
+    private static final int SPECIAL_CHAR = 64;  // всё, кроме букв, цифр, '_' и пробельных символов
+
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            int classes = 0;
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                classes |= WHITESPACE;
+            } else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+                classes |= LATIN_LETTER;
+            } else if (c >= '0' && c <= '9') {
+                classes |= DIGIT;
+            } else if (c != '_') {
+                classes |= SPECIAL_CHAR;
+            }
+            if (c == ' ') {
+                classes |= SPACE;
+            }
+            if (".,!?;:-()\"'".indexOf(c) >= 0) {
+                classes |= PUNCT;
+            }
+            if (c == '.' || c == '!' || c == '?') {
+                classes |= SENTENCE_END;
+            }
+            ASCII_CLASSES[c] = (byte) classes;
+        }
+    }
+
+    private int[] counters = new int[FIELDS * 16]; // Счётчики по абзацам, FIELDS значений на абзац
+    private int paragraphCount = 0;
+    private final long[] totals = new long[FIELDS];
+    private int length = 0;
+    private boolean lastParagraphEmpty = true;
+
+    private final Segment segment = new Segment();
+
+    DocumentStatistics() {
+        segment.setPartialReturn(true); // Читаем текст без копирования через разрыв GapContent
+    }
+
+    // Полный пересчёт, используется при смене документа
+    void rebuild(Document doc) {
+        Element root = doc.getDefaultRootElement();
+        paragraphCount = 0;
+        Arrays.fill(totals, 0);
+        insertSlots(0, root.getElementCount());
+        for (int i = 0; i < paragraphCount; i++) {
+            recount(doc, root, i);
+        }
+        updateDocumentInfo(doc, root);
+    }
+
+    // Обновление по событию документа: пересчитываются только затронутые абзацы
+    void update(DocumentEvent e) {
+        Document doc = e.getDocument();
+        Element root = doc.getDefaultRootElement();
+
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change != null) {
+            int index = change.getIndex();
+            int removed = change.getChildrenRemoved().length;
+            int added = change.getChildrenAdded().length;
+            removeSlots(index, removed);
+            insertSlots(index, added);
+            for (int i = index; i < index + added; i++) {
+                recount(doc, root, i);
+            }
+        }
+
+        if (paragraphCount != root.getElementCount()) {
+            // Структура абзацев разошлась с нашей моделью - пересчитываем всё
+            rebuild(doc);
+            return;
+        }
+
+        if (e.getType() != DocumentEvent.EventType.CHANGE) {
+            int first = root.getElementIndex(e.getOffset());
+            int last = e.getType() == DocumentEvent.EventType.INSERT
+                    ? root.getElementIndex(e.getOffset() + e.getLength())
+                    : first;
+            for (int i = first; i <= last; i++) {
+                recount(doc, root, i);
+            }
+        }
+        updateDocumentInfo(doc, root);
+    }
+
+    int getParagraphs() {
+        // Пустой абзац после завершающего перевода строки не считается
+        return paragraphCount > 1 && lastParagraphEmpty ? paragraphCount - 1 : paragraphCount;
+    }
+
+    int getCharacters() {
+        return length;
+    }
+
+    int getCharactersWithoutSpaces() {
+        return (int) (length - totals[SPACES]);
+    }
+
+    long get(int field) {
+        return totals[field];
+    }
+
+    // Счётчики в том виде, в каком их показывают строка состояния и отчёт пакетной обработки
+    String summary() {
+        return String.format("Абзацы: %d | Предложения: %d | Слова: %d | Символы: %d | Символы без пробелов: %d | " +
+                        "Спец. символы: %d | Лат. буквы: %d | Рус. буквы: %d | Цифры: %d | Знаки препинания: %d",
+                getParagraphs(), get(SENTENCES), get(WORDS), getCharacters(), getCharactersWithoutSpaces(),
+                get(SPECIAL), get(LATIN), get(CYRILLIC), get(DIGITS), get(PUNCTUATION));
+    }
+
+    private void updateDocumentInfo(Document doc, Element root) {
+        length = doc.getLength();
+        lastParagraphEmpty = root.getElement(root.getElementCount() - 1).getStartOffset() >= length;
+    }
+
+    private void recount(Document doc, Element root, int index) {
+        int base = index * FIELDS;
+        for (int f = 0; f < FIELDS; f++) {
+            totals[f] -= counters[base + f];
+            counters[base + f] = 0;
+        }
+
+        Element paragraph = root.getElement(index);
+        int start = paragraph.getStartOffset();
+        int end = Math.min(paragraph.getEndOffset(), doc.getLength());
+        try {
+            scan(doc, start, end, base);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+
+        for (int f = 0; f < FIELDS; f++) {
+            totals[f] += counters[base + f];
+        }
+    }
+
+    // Один проход по абзацу с классификацией символов без выделения памяти
+    private void scan(Document doc, int start, int end, int base) throws BadLocationException {
+        int[] c = counters;
+        boolean inWord = false;
+        boolean inSentence = false;
+        int pos = start;
+        while (pos < end) {
+            doc.getText(pos, end - pos, segment);
+            char[] array = segment.array;
+            for (int i = segment.offset, n = segment.offset + segment.count; i < n; i++) {
+                char ch = array[i];
+                int classes;
+                if (ch < 128) {
+                    classes = ASCII_CLASSES[ch];
+                } else if ((ch >= 'А' && ch <= 'я') || ch == 'Ё' || ch == 'ё') {
+                    c[base + CYRILLIC]++;
+                    classes = 0;
+                } else {
+                    classes = Character.isLetterOrDigit(ch) ? 0 : SPECIAL_CHAR;
+                }
+
+                if ((classes & WHITESPACE) != 0) {
+                    if ((classes & SPACE) != 0) {
+                        c[base + SPACES]++;
+                    }
+                    inWord = false;
+                    continue;
+                }
+                if (!inWord) {
+                    c[base + WORDS]++;
+                    inWord = true;
+                }
+                if ((classes & SENTENCE_END) != 0) {
+                    if (inSentence) {
+                        c[base + SENTENCES]++;
+                        inSentence = false;
+                    }
+                } else {
+                    inSentence = true;
+                }
+                if ((classes & LATIN_LETTER) != 0) {
+                    c[base + LATIN]++;
+                } else if ((classes & DIGIT) != 0) {
+                    c[base + DIGITS]++;
+                }
+                if ((classes & SPECIAL_CHAR) != 0) {
+                    c[base + SPECIAL]++;
+                }
+                if ((classes & PUNCT) != 0) {
+                    c[base + PUNCTUATION]++;
+                }
+            }
+            pos += segment.count;
+        }
+        if (inSentence) {
+            c[base + SENTENCES]++; // Незавершённое предложение в конце абзаца
+        }
+    }
+
+    private void insertSlots(int index, int count) {
+        if (count == 0) {
+            return;
+        }
+        int required = (paragraphCount + count) * FIELDS;
+        if (required > counters.length) {
+            counters = Arrays.copyOf(counters, Math.max(required, counters.length * 2));
+        }
+        System.arraycopy(counters, index * FIELDS, counters, (index + count) * FIELDS, (paragraphCount - index) * FIELDS);
+        Arrays.fill(counters, index * FIELDS, (index + count) * FIELDS, 0);
+        paragraphCount += count;
+    }
+
+    private void removeSlots(int index, int count) {
+        if (count == 0) {
+            return;
+        }
+        for (int i = index * FIELDS, n = (index + count) * FIELDS; i < n; i++) {
+            totals[i % FIELDS] -= counters[i];
+        }
+        System.arraycopy(counters, (index + count) * FIELDS, counters, index * FIELDS, (paragraphCount - index - count) * FIELDS);
+        paragraphCount -= count;
+    }
+}
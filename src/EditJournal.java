@@ -0,0 +1,514 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyledDocument;
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Журнал правок для восстановления после сбоя. Каждое изменение документа дописывается
+// в двоичный журнал рядом с файлом: вставка вместе с атрибутами вставленных участков,
+// удаление, атрибуты участков или атрибуты абзацев. Записи
+// копятся в памяти и сбрасываются на диск пачкой с одним fsync, не чаще раза в
+// COMMIT_DELAY. При открытии файла журнал проигрывается поверх сохранённой версии,
+// после сохранения из него удаляются записи, уже попавшие в файл.
+final class EditJournal {
+    private static final int MAGIC = 0x54454A32; // "TEJ2"; журналы "TEJ1" без атрибутов вставок не читаются
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+    private static final int COMMIT_DELAY = 100; // мс между сбросами пачки записей
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte ATTRIBUTES = 3;
+    private static final byte PARAGRAPHS = 4;
+
+    // Типы значений атрибутов; сами атрибуты записываются номером в StyledFileFormat.KEYS плюс один
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte COLOR = 4;
+    private static final byte FLOAT = 5;
+
+    private final File target;
+    private final Path path;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "edit-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Накопленные, но ещё не записанные записи; заполняется на EDT
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private boolean commitScheduled = false;
+    private long appended = 0; // Всего байт записей с момента открытия
+
+    // Состояние файла журнала, меняется только потоком writer
+    private FileChannel channel;
+    private long fileBase = 0; // Логическая позиция первой записи в файле журнала
+    private long recoveredBytes = 0; // Байт целых записей, прочитанных replay()
+
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+
+    EditJournal(File target) {
+        this.target = target;
+        File absolute = target.getAbsoluteFile();
+        this.path = new File(absolute.getParentFile(), "." + absolute.getName() + ".journal").toPath();
+    }
+
+    File getTarget() {
+        return target;
+    }
+
+    // Журнал относится к текущей версии файла и содержит хотя бы одну запись
+    boolean hasRecovery() {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return readHeader(in) && Files.size(path) > HEADER_SIZE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Проигрывает записи журнала поверх документа; вызывается на EDT до start()
+    int replay(Document document) throws IOException {
+        int applied = 0;
+        recoveredBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (!readHeader(in)) {
+                return 0;
+            }
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > Integer.MAX_VALUE / 2) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                int checksum;
+                try {
+                    in.readFully(payload, 0, length);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break; // Оборванная последняя запись: сбой пришёлся на её запись
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(document, new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                applied++;
+                recoveredBytes += length + 8;
+            }
+        } catch (BadLocationException e) {
+            throw new IOException("Журнал не соответствует файлу", e);
+        }
+        return applied;
+    }
+
+    private void apply(Document document, DataInputStream in) throws IOException, BadLocationException {
+        byte type = in.readByte();
+        int offset = in.readInt();
+        if (type == INSERT) {
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            document.insertString(offset, new String(text, StandardCharsets.UTF_8), null);
+            applyRuns(document, in);
+        } else if (type == REMOVE) {
+            document.remove(offset, in.readInt());
+        } else if (type == ATTRIBUTES) {
+            in.readInt(); // Длина всего диапазона, участки перечислены ниже
+            applyRuns(document, in);
+        } else if (type == PARAGRAPHS) {
+            in.readInt(); // Длина диапазона, абзацы перечислены ниже
+            int paragraphs = in.readInt();
+            for (int i = 0; i < paragraphs; i++) {
+                int start = in.readInt();
+                AttributeSet attributes = readAttributes(in);
+                if (document instanceof StyledDocument) {
+                    setParagraphAttributes((StyledDocument) document, start, attributes);
+                }
+            }
+        }
+    }
+
+    private static void applyRuns(Document document, DataInputStream in) throws IOException {
+        int runs = in.readInt();
+        for (int i = 0; i < runs; i++) {
+            int start = in.readInt();
+            int end = in.readInt();
+            AttributeSet attributes = readAttributes(in);
+            if (document instanceof StyledDocument) {
+                ((StyledDocument) document).setCharacterAttributes(start, end - start, attributes, true);
+            }
+        }
+    }
+
+    // Атрибуты абзаца заменяются записанными; стиль, от которого абзац их наследует, остаётся
+    private static void setParagraphAttributes(StyledDocument document, int offset, AttributeSet attributes) {
+        Element paragraph = document.getParagraphElement(offset);
+        SimpleAttributeSet replacement = new SimpleAttributeSet(attributes);
+        AttributeSet parent = paragraph.getAttributes().getResolveParent();
+        if (parent != null) {
+            replacement.setResolveParent(parent);
+        }
+        document.setParagraphAttributes(paragraph.getStartOffset(), 0, replacement, true);
+    }
+
+    // Открывает журнал для записи. Если его записи были восстановлены, они остаются в начале
+    // журнала (до логической позиции 0), иначе журнал начинается заново для текущей версии файла.
+    void start(boolean keepRecovered) throws IOException {
+        long base = appended;
+        submit(() -> {
+            if (keepRecovered) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // Оборванный при сбое хвост отбрасываем, чтобы новые записи шли сразу за целыми
+                channel.truncate(HEADER_SIZE + recoveredBytes);
+                channel.position(HEADER_SIZE + recoveredBytes);
+                fileBase = -recoveredBytes;
+            } else {
+                rewrite(base);
+            }
+            return null;
+        });
+    }
+
+    // Логическая позиция конца журнала; всё до неё отражает текущее состояние документа
+    long mark() {
+        return appended;
+    }
+
+    // После сохранения файла удаляет записи до позиции mark, они уже есть в файле
+    void compact(long mark) {
+        writer.execute(() -> {
+            try {
+                rewrite(mark);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Сбрасывает накопленное, закрывает журнал и при delete удаляет его файл
+    void close(boolean delete) {
+        writer.execute(() -> {
+            try {
+                commit();
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                if (delete) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Записывает изменение документа; вызывается из DocumentListener на EDT
+    void record(DocumentEvent e) {
+        try {
+            recordBytes.reset();
+            int offset = e.getOffset();
+            int length = e.getLength();
+            if (e.getType() == DocumentEvent.EventType.INSERT) {
+                byte[] text = e.getDocument().getText(offset, length).getBytes(StandardCharsets.UTF_8);
+                record.writeByte(INSERT);
+                record.writeInt(offset);
+                record.writeInt(text.length);
+                record.write(text);
+                writeRuns(e.getDocument(), offset, offset + length);
+            } else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+                record.writeByte(REMOVE);
+                record.writeInt(offset);
+                record.writeInt(length);
+            } else if (e.getDocument() instanceof StyledDocument) {
+                // По событию не видно, менялись участки или абзацы: записываем и то и другое
+                StyledDocument document = (StyledDocument) e.getDocument();
+                record.writeByte(ATTRIBUTES);
+                record.writeInt(offset);
+                record.writeInt(length);
+                writeRuns(document, offset, Math.min(offset + length, document.getLength()));
+                append(recordBytes.toByteArray());
+                recordBytes.reset();
+                writeParagraphs(document, offset, length);
+            } else {
+                return;
+            }
+            append(recordBytes.toByteArray());
+        } catch (BadLocationException | IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // Итоговые атрибуты каждого участка в [offset, end); у документа без форматирования участков нет
+    private void writeRuns(Document document, int offset, int end) throws IOException {
+        if (!(document instanceof StyledDocument)) {
+            record.writeInt(0);
+            return;
+        }
+        StyledDocument styled = (StyledDocument) document;
+        int runs = 0;
+        for (int pos = offset; pos < end; runs++) {
+            pos = Math.max(styled.getCharacterElement(pos).getEndOffset(), pos + 1);
+        }
+        record.writeInt(runs);
+        for (int pos = offset; pos < end; ) {
+            Element run = styled.getCharacterElement(pos);
+            int runEnd = Math.min(Math.max(run.getEndOffset(), pos + 1), end);
+            record.writeInt(pos);
+            record.writeInt(runEnd);
+            writeAttributes(run.getAttributes());
+            pos = runEnd;
+        }
+    }
+
+    // Атрибуты абзацев, задетых изменением, как их выбирает setParagraphAttributes
+    private void writeParagraphs(StyledDocument document, int offset, int length) throws IOException {
+        Element root = document.getDefaultRootElement();
+        int first = root.getElementIndex(offset);
+        int last = root.getElementIndex(offset + Math.max(length - 1, 0));
+        record.writeByte(PARAGRAPHS);
+        record.writeInt(offset);
+        record.writeInt(length);
+        record.writeInt(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            Element paragraph = root.getElement(i);
+            record.writeInt(paragraph.getStartOffset());
+            writeAttributes(paragraph.getAttributes());
+        }
+    }
+
+    // Только атрибуты, заданные в самом наборе, без унаследованных от стиля
+    private void writeAttributes(AttributeSet attributes) throws IOException {
+        for (int i = 0; i < StyledFileFormat.KEYS.length; i++) {
+            Object key = StyledFileFormat.KEYS[i];
+            if (!attributes.isDefined(key)) {
+                continue;
+            }
+            Object value = attributes.getAttribute(key);
+            record.writeByte(i + 1);
+            if (value instanceof String) {
+                record.writeByte(STRING);
+                record.writeUTF((String) value);
+            } else if (value instanceof Integer) {
+                record.writeByte(INTEGER);
+                record.writeInt((Integer) value);
+            } else if (value instanceof Boolean) {
+                record.writeByte(BOOLEAN);
+                record.writeBoolean((Boolean) value);
+            } else if (value instanceof Color) {
+                record.writeByte(COLOR);
+                record.writeInt(((Color) value).getRGB());
+            } else if (value instanceof Float) {
+                record.writeByte(FLOAT);
+                record.writeFloat((Float) value);
+            } else {
+                throw new IOException("Неподдерживаемое значение атрибута " + key + ": " + value);
+            }
+        }
+        record.writeByte(0);
+    }
+
+    private static AttributeSet readAttributes(DataInputStream in) throws IOException {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        for (int index = in.readUnsignedByte(); index != 0; index = in.readUnsignedByte()) {
+            if (index > StyledFileFormat.KEYS.length) {
+                throw new IOException("Неизвестный атрибут в журнале: " + index);
+            }
+            Object key = StyledFileFormat.KEYS[index - 1];
+            byte type = in.readByte();
+            switch (type) {
+                case STRING:
+                    attributes.addAttribute(key, in.readUTF());
+                    break;
+                case INTEGER:
+                    attributes.addAttribute(key, in.readInt());
+                    break;
+                case BOOLEAN:
+                    attributes.addAttribute(key, in.readBoolean());
+                    break;
+                case COLOR:
+                    attributes.addAttribute(key, new Color(in.readInt(), true));
+                    break;
+                case FLOAT:
+                    attributes.addAttribute(key, in.readFloat());
+                    break;
+                default:
+                    throw new IOException("Неизвестный тип значения атрибута в журнале: " + type);
+            }
+        }
+        return attributes;
+    }
+
+    // Запись: длина, содержимое и контрольная сумма, чтобы оборванный хвост распознавался при чтении
+    private void append(byte[] payload) {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        int checksum = (int) crc.getValue();
+        synchronized (this) {
+            writeInt(pending, payload.length);
+            pending.write(payload, 0, payload.length);
+            writeInt(pending, checksum);
+            appended += payload.length + 8;
+            if (!commitScheduled) {
+                commitScheduled = true;
+                writer.execute(this::commitLater);
+            }
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // Ждёт, пока накопится пачка записей, и сбрасывает её одним fsync
+    private void commitLater() {
+        try {
+            Thread.sleep(COMMIT_DELAY);
+            commit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void commit() throws IOException {
+        byte[] batch;
+        synchronized (this) {
+            commitScheduled = false;
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending.toByteArray();
+            pending = new ByteArrayOutputStream();
+        }
+        if (channel == null) {
+            openChannel();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    // Переписывает журнал с новым заголовком, оставляя записи после логической позиции from
+    private void rewrite(long from) throws IOException {
+        commit();
+        if (channel != null && from < fileBase) {
+            return; // Журнал уже сжат по более позднему сохранению
+        }
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                out.write(header());
+                if (channel != null && from >= fileBase) {
+                    long tailStart = HEADER_SIZE + (from - fileBase);
+                    long tailLength = channel.size() - tailStart;
+                    if (tailLength > 0) {
+                        channel.transferTo(tailStart, tailLength, out);
+                    }
+                }
+                out.force(true);
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        fileBase = from;
+        openChannel();
+    }
+
+    private void openChannel() throws IOException {
+        if (!Files.exists(path)) {
+            try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                out.write(header());
+            }
+            synchronized (this) {
+                fileBase = appended - pending.size();
+            }
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    // Заголовок: сигнатура, размер и время изменения файла, к которому относится журнал
+    private ByteBuffer header() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(target.length());
+        header.putLong(target.lastModified());
+        header.flip();
+        return header;
+    }
+
+    private boolean readHeader(DataInputStream in) throws IOException {
+        return in.readInt() == MAGIC && in.readLong() == target.length() && in.readLong() == target.lastModified();
+    }
+
+    private void submit(Callable<Void> task) throws IOException {
+        try {
+            writer.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// События Java Flight Recorder редактора. Создаются, только если в процессе включалась
+// запись, иначе классы событий даже не загружаются. Записать:
+// java -XX:StartFlightRecording=filename=editor.jfr Main, затем открыть файл в JDK Mission
+// Control (категория "Текстовый редактор") или jfr print --events texteditor.Action editor.jfr.
+final class EditorEvents {
+    private EditorEvents() {
+    }
+
+    @Name("texteditor.Action")
+    @Label("Действие редактора")
+    @Category("Текстовый редактор")
+    @Description("Обработчик кнопки, пункта меню или слушателя в потоке EDT")
+    @StackTrace(false)
+    static final class Action extends Event {
+        @Label("Действие")
+        String action;
+
+        // Длительность события включает ожидание в модальном диалоге, а это поле - нет
+        @Label("Время работы")
+        @Timespan(Timespan.NANOSECONDS)
+        long busy;
+    }
+
+    @Name("texteditor.EdtStall")
+    @Label("Зависание интерфейса")
+    @Category("Текстовый редактор")
+    @Description("Поток EDT не возвращался к очереди событий дольше порога")
+    @StackTrace(false) // Стек записывающего потока неинтересен, нужен стек EDT
+    static final class EdtStall extends Event {
+        @Label("Действие")
+        String action;
+
+        @Label("Длительность зависания")
+        @Timespan(Timespan.NANOSECONDS)
+        long blocked;
+
+        @Label("Стек EDT во время зависания")
+        String stack;
+    }
+}
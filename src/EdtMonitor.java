@@ -0,0 +1,202 @@
+import jdk.jfr.FlightRecorder;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.concurrent.TimeUnit;
+
+// Очередь событий AWT, замеряющая обработку каждого события в потоке EDT. Длительности
+// собираются в распределение, а сторожевой поток каждые полпорога проверяет, не занят ли
+// EDT дольше порога, и если занят - снимает его стек: по нему видно, на чём интерфейс
+// завис. Когда EDT освобождается, зависание записывается событием JFR и в stderr.
+//
+// Модальный диалог крутит вложенный цикл событий внутри обработчика. Время от первого до
+// последнего вложенного события - ожидание пользователя, а не работа: оно не входит ни в
+// длительность внешнего события, ни во время действий (getExcludedNanos), а если сторож
+// застал EDT в ожидании очередного события, отрезок зависанием не считается.
+final class EdtMonitor extends EventQueue {
+    private static final int MAX_DEPTH = 32;
+    private static volatile EdtMonitor installed = null;
+
+    private final long thresholdNanos;
+    private final LatencyHistogram dispatchTimes = new LatencyHistogram();
+    private volatile Thread edt = null;
+    private long stalls = 0;
+
+    // По уровням вложенности циклов событий, только из EDT: исключённое время, начало
+    // текущего вложенного события и конец предыдущего
+    private int depth = 0;
+    private final long[] excludedNanos = new long[MAX_DEPTH];
+    private final long[] nestedStart = new long[MAX_DEPTH];
+    private final long[] lastNestedEnd = new long[MAX_DEPTH];
+    private final String[] frameEvents = new String[MAX_DEPTH];
+
+    // Текущий отрезок непрерывной работы EDT. Сторож читает номер отрезка, начало и
+    // номер ещё раз; EDT пишет начало раньше номера, поэтому начало нового отрезка
+    // никогда не достанется старому номеру
+    private volatile long busySince = 0; // 0 - EDT ждёт событий
+    private volatile long period = 0;
+    private volatile long idlePeriod = -1;    // Отрезок, в котором EDT застали в ожидании событий
+    private volatile long sampledPeriod = -1; // Отрезок, к которому относятся стек и действие
+    private volatile StackTraceElement[] sampledStack = null;
+    private volatile String sampledAction = null;
+
+    private EdtMonitor(long thresholdMillis) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    // Подменяет системную очередь событий; повторный вызов ничего не делает
+    static synchronized void install(long thresholdMillis) {
+        if (installed != null) {
+            return;
+        }
+        EdtMonitor monitor = new EdtMonitor(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+        Thread watchdog = new Thread(monitor::watch, "Сторож EDT");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        installed = monitor;
+    }
+
+    // null, если наблюдение не включено
+    static EdtMonitor get() {
+        return installed;
+    }
+
+    // Сколько времени текущий обработчик провёл во вложенных циклах событий; имеет смысл
+    // только разность двух вызовов из одного обработчика
+    static long getExcludedNanos() {
+        EdtMonitor monitor = installed;
+        if (monitor == null || Thread.currentThread() != monitor.edt) {
+            return 0;
+        }
+        return monitor.excludedNanos[Math.min(monitor.depth, MAX_DEPTH - 1)];
+    }
+
+    LatencyHistogram getDispatchTimes() {
+        return dispatchTimes;
+    }
+
+    // Вызывается из EDT
+    long getStallCount() {
+        return stalls;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        if (depth + 1 >= MAX_DEPTH) {
+            super.dispatchEvent(event);
+            return;
+        }
+        long start = System.nanoTime();
+        int parent = depth;
+        if (parent == 0) {
+            // AWT может заменить поток EDT (после необработанного исключения или простоя),
+            // поэтому поток запоминается на каждом внешнем событии, а не только на первом
+            Thread current = Thread.currentThread();
+            if (edt != current) {
+                edt = current;
+            }
+        } else {
+            // Внешний обработчик ушёл во вложенный цикл: его отрезок работы закончился
+            if (lastNestedEnd[parent] != 0) {
+                excludedNanos[parent] += start - lastNestedEnd[parent];
+            }
+            nestedStart[parent] = start;
+        }
+        int level = ++depth;
+        lastNestedEnd[level] = 0;
+        frameEvents[level] = event.getClass().getSimpleName();
+        long excludedBefore = excludedNanos[level];
+        nextPeriod(start, start, parent);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            dispatchTimes.record(end - start - (excludedNanos[level] - excludedBefore));
+            depth = parent;
+            if (parent > 0) {
+                excludedNanos[parent] += end - nestedStart[parent];
+                lastNestedEnd[parent] = end;
+            }
+            // Внешний обработчик продолжает работу или ждёт во вложенном цикле - это решит сторож
+            nextPeriod(end, parent > 0 ? end : 0, level);
+        }
+    }
+
+    // Закрывает текущий отрезок работы EDT (его событие - на уровне level) и начинает
+    // следующий с момента since
+    private void nextPeriod(long now, long since, int level) {
+        long started = busySince;
+        long current = period;
+        if (started != 0 && now - started >= thresholdNanos && idlePeriod != current) {
+            boolean sampled = sampledPeriod == current;
+            String action = sampled ? sampledAction : null;
+            reportStall(now - started, action != null ? action : frameEvents[level], sampled ? sampledStack : null);
+        }
+        busySince = since;
+        period = current + 1;
+    }
+
+    private void reportStall(long nanos, String action, StackTraceElement[] stack) {
+        stalls++;
+        StringBuilder trace = new StringBuilder();
+        if (stack != null) {
+            for (StackTraceElement frame : stack) {
+                trace.append("\tat ").append(frame).append('\n');
+            }
+        }
+        System.err.printf("Интерфейс не отвечал %d мс (%s)%n%s", TimeUnit.NANOSECONDS.toMillis(nanos), action, trace);
+
+        if (!FlightRecorder.isInitialized()) {
+            return; // Как в ActionMetrics: без записи класс события не загружается
+        }
+        EditorEvents.EdtStall event = new EditorEvents.EdtStall();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.blocked = nanos;
+            event.stack = trace.toString();
+            event.commit();
+        }
+    }
+
+    private void watch() {
+        long tick = Math.max(TimeUnit.MILLISECONDS.toNanos(10), thresholdNanos / 2);
+        while (true) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(tick);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long current = period;
+            long since = busySince;
+            Thread thread = edt;
+            if (since == 0 || thread == null || current != period || idlePeriod == current
+                    || System.nanoTime() - since < thresholdNanos) {
+                continue;
+            }
+            String action = ActionMetrics.current();
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (waitingForEvents(stack)) {
+                idlePeriod = current;
+            } else if (sampledPeriod != current) {
+                sampledStack = stack;
+                sampledAction = action;
+                sampledPeriod = current;
+            }
+        }
+    }
+
+    // EDT во вложенном цикле ждёт следующего события
+    private static boolean waitingForEvents(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            if ("java.awt.EventQueue".equals(frame.getClassName()) && "getNextEvent".equals(frame.getMethodName())) {
+                return true;
+            }
+            if ("java.awt.EventDispatchThread".equals(frame.getClassName())) {
+                return false; // Дальше по стеку - уже код, вызвавший обработчик
+            }
+        }
+        return false;
+    }
+}
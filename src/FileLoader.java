@@ -0,0 +1,208 @@
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Потоковая загрузка файла вне EDT: файл читается через FileChannel, декодируется
+// кусками и дописывается в конец документа пачками в process(). Первый кусок
+// маленький, чтобы начало файла появилось на экране сразу. Кодировка определяется
+// по первому прочитанному блоку; переводы строк приводятся к '\n' прямо в буфере
+// декодера, так что каждый кусок копируется только в строку для документа. Для
+// пакетной обработки без окна тот же разбор идёт в текущем потоке через load().
+class FileLoader extends SwingWorker<Void, String> {
+    private static final int FIRST_CHUNK_CHARS = 16 * 1024;
+    private static final int CHUNK_CHARS = 256 * 1024;
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private final File file;
+    private final Document document;
+    private final Charset fallback; // Если кодировку не удалось определить
+    private final boolean direct;   // Куски вставляются сразу в текущем потоке, без EDT
+
+    private TextEncoding encoding = null;
+    private String lineSeparator = null; // Первый встреченный разделитель строк
+    private boolean pendingCR = false;   // '\r' в конце предыдущего куска
+
+    FileLoader(File file, Document document, Charset fallback) {
+        this(file, document, fallback, false);
+    }
+
+    private FileLoader(File file, Document document, Charset fallback, boolean direct) {
+        this.file = file;
+        this.document = document;
+        this.fallback = fallback;
+        this.direct = direct;
+    }
+
+    // Загружает файл в документ в текущем потоке; документ не должен быть виден в окне
+    static void load(File file, Document document, Charset fallback) throws IOException {
+        FileLoader loader = new FileLoader(file, document, fallback, true);
+        loader.doInBackground();
+        loader.done();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long read = 0;
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_BYTES);
+            boolean endOfInput = false;
+            while (bytes.hasRemaining() && !endOfInput) {
+                int n = channel.read(bytes);
+                if (n < 0) {
+                    endOfInput = true;
+                } else {
+                    read += n;
+                }
+            }
+            bytes.flip();
+            encoding = TextEncoding.detect(bytes, fallback);
+            bytes.position(Math.min(encoding.bomLength(), bytes.limit()));
+
+            CharsetDecoder decoder = encoding.charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(FIRST_CHUNK_CHARS);
+            while (!isCancelled()) {
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, endOfInput);
+                    if (result.isOverflow()) {
+                        publishChunk(chars);
+                        if (chars.capacity() < CHUNK_CHARS) {
+                            chars = CharBuffer.allocate(CHUNK_CHARS);
+                        }
+                    }
+                } while (result.isOverflow() && !isCancelled());
+                if (endOfInput) {
+                    break;
+                }
+                bytes.compact();
+                int n = channel.read(bytes);
+                if (n < 0) {
+                    endOfInput = true;
+                } else {
+                    read += n;
+                }
+                bytes.flip();
+
+                if (size > 0 && !direct) {
+                    setProgress((int) Math.min(100, read * 100 / size));
+                }
+            }
+
+            if (!isCancelled()) {
+                while (decoder.flush(chars).isOverflow()) {
+                    publishChunk(chars);
+                }
+                publishChunk(chars);
+            }
+        }
+        return null;
+    }
+
+    // Переводит строки к '\n', как это делает DefaultEditorKit.read(), сдвигая символы
+    // внутри буфера, и отправляет кусок в EDT
+    private void publishChunk(CharBuffer chars) {
+        char[] array = chars.array();
+        int length = chars.position();
+        chars.clear();
+        if (length == 0) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < length; i++) {
+            char c = array[i];
+            if (pendingCR) {
+                pendingCR = false;
+                if (c == '\n') {
+                    // Вторая половина "\r\n", начатого в прошлом куске
+                    rememberSeparator("\r\n");
+                    continue;
+                }
+                rememberSeparator("\r");
+            }
+            if (c == '\r') {
+                array[kept++] = '\n';
+                if (i + 1 < length) {
+                    if (array[i + 1] == '\n') {
+                        rememberSeparator("\r\n");
+                        i++;
+                    } else {
+                        rememberSeparator("\r");
+                    }
+                } else {
+                    pendingCR = true;
+                }
+            } else {
+                if (c == '\n') {
+                    rememberSeparator("\n");
+                }
+                array[kept++] = c;
+            }
+        }
+        if (kept > 0) {
+            if (direct) {
+                insert(new String(array, 0, kept));
+            } else {
+                publish(new String(array, 0, kept));
+            }
+        }
+    }
+
+    private void rememberSeparator(String separator) {
+        if (lineSeparator == null) {
+            lineSeparator = separator;
+        }
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        // Все накопившиеся куски вставляем одной правкой; один кусок - без лишней копии
+        String batch;
+        if (chunks.size() == 1) {
+            batch = chunks.get(0);
+        } else {
+            StringBuilder builder = new StringBuilder();
+            for (String chunk : chunks) {
+                builder.append(chunk);
+            }
+            batch = builder.toString();
+        }
+        insert(batch);
+    }
+
+    private void insert(String batch) {
+        try {
+            document.insertString(document.getLength(), batch, null);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (lineSeparator != null) {
+            document.putProperty(DefaultEditorKit.EndOfLineStringProperty, lineSeparator);
+        }
+        if (encoding != null) {
+            document.putProperty(TextEncoding.PROPERTY, encoding);
+        }
+    }
+}
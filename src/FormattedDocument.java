@@ -0,0 +1,358 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.Position;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledEditorKit;
+import javax.swing.text.ViewFactory;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Документ редактора с форматированием по участкам. В отличие от DefaultStyledDocument,
+// setCharacterAttributes не режет участки на границах выделения безусловно: новый набор
+// атрибутов строится для каждого участка, соседние участки с одинаковыми атрибутами
+// склеиваются, а в каждом абзаце меняется только отрезок, где что-то изменилось.
+// Изменения всего вызова идут одним событием и одной правкой для отмены.
+final class FormattedDocument extends DefaultStyledDocument {
+    private static final long serialVersionUID = 1L;
+
+    // Набор редактора, создающий FormattedDocument для новых и загружаемых файлов.
+    // Абзацы документа верстаются в фоне (AsyncSectionView), остальные виды - как в StyledEditorKit
+    static final class Kit extends StyledEditorKit {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Document createDefaultDocument() {
+            return new FormattedDocument();
+        }
+
+        @Override
+        public ViewFactory getViewFactory() {
+            ViewFactory styled = super.getViewFactory();
+            return element -> AbstractDocument.SectionElementName.equals(element.getName())
+                    ? new AsyncSectionView(element) : styled.create(element);
+        }
+    }
+
+    // Ключи свойств AbstractDocument, закрытые в его пакете
+    private static final String I18N_PROPERTY = "i18n";
+    private static final String MULTI_BYTE_PROPERTY = "multiByte";
+
+    private boolean loading = false;
+    private Position lastPosition; // При загрузке: последняя созданная граница участков
+
+    FormattedDocument() {
+        this(AttributePool.SHARED);
+    }
+
+    // Документ со своим пулом атрибутов: методы пула синхронизированы, и документы,
+    // которые правят разные потоки, не должны ждать друг друга на общем пуле
+    FormattedDocument(StyleContext styles) {
+        super(styles);
+    }
+
+    // Один участок будущего содержимого абзаца
+    private static final class Piece {
+        final int start;
+        final int end;
+        final AttributeSet attributes;
+        final Element element;  // Прежний участок с теми же границами
+        final boolean restyled; // Прежнему участку нужны новые атрибуты
+
+        Piece(int start, int end, AttributeSet attributes, Element element, boolean restyled) {
+            this.start = start;
+            this.end = end;
+            this.attributes = attributes;
+            this.element = element;
+            this.restyled = restyled;
+        }
+    }
+
+    // Заполняет новый документ по описанию элементов: первый элемент - корень, последний абзац
+    // без закрывающего тега. Дерево абзацев строится здесь же и ставится в корень одной правкой:
+    // create() через ElementBuffer записывает в событие отдельную правку на каждый абзац, и на
+    // больших документах это большая часть времени загрузки. Уровни двунаправленного текста
+    // строит только AbstractDocument, поэтому для такого документа остаётся create().
+    void load(ElementSpec[] specs) throws BadLocationException {
+        if (getLength() != 0) {
+            remove(0, getLength());
+        }
+        if (Boolean.TRUE.equals(getProperty(I18N_PROPERTY))) {
+            loadBidirectional(specs);
+            return;
+        }
+        // Участки, прочитанные из файла, идут подряд по одному массиву - тогда он и есть текст
+        int length = 0;
+        char[] shared = null;
+        boolean contiguous = true;
+        for (ElementSpec spec : specs) {
+            if (spec.getLength() > 0) {
+                if (shared == null) {
+                    shared = spec.getArray();
+                }
+                contiguous &= spec.getArray() == shared && spec.getOffset() == length;
+                length += spec.getLength();
+            }
+        }
+        char[] text = contiguous && shared != null ? shared : new char[length];
+        if (text != shared) {
+            for (int i = 0, at = 0; i < specs.length; i++) {
+                if (specs[i].getLength() > 0) {
+                    System.arraycopy(specs[i].getArray(), specs[i].getOffset(), text, at, specs[i].getLength());
+                    at += specs[i].getLength();
+                }
+            }
+        }
+        boolean multiByte = false;
+        for (int i = 0; i < length && !multiByte; i++) {
+            multiByte = text[i] > 255;
+        }
+
+        writeLock();
+        loading = true;
+        try {
+            UndoableEdit contentEdit = getContent().insertString(0, new String(text, 0, length));
+            BranchElement root = (BranchElement) getDefaultRootElement();
+            Element[] removed = new Element[root.getElementCount()];
+            for (int i = 0; i < removed.length; i++) {
+                removed[i] = root.getElement(i);
+            }
+            // Завершающий перевод строки документа остаётся с прежними атрибутами, если последний абзац пуст
+            AttributeSet endAttributes = getCharacterElement(length).getAttributes();
+
+            List<Element> paragraphs = new ArrayList<>();
+            List<ElementSpec> runs = new ArrayList<>();
+            BranchElement paragraph = null;
+            int offset = 0;
+            for (int i = 1; i < specs.length; i++) {
+                ElementSpec spec = specs[i];
+                if (spec.getType() == ElementSpec.StartTagType) {
+                    paragraph = (BranchElement) createBranchElement(root, spec.getAttributes());
+                } else if (spec.getType() == ElementSpec.ContentType) {
+                    runs.add(spec);
+                } else {
+                    offset = fillParagraph(paragraph, runs, offset, null);
+                    paragraphs.add(paragraph);
+                }
+            }
+            fillParagraph(paragraph, runs, offset, endAttributes);
+            paragraphs.add(paragraph);
+
+            Element[] added = paragraphs.toArray(new Element[0]);
+            root.replace(0, removed.length, added);
+            if (multiByte) {
+                putProperty(MULTI_BYTE_PROPERTY, Boolean.TRUE);
+            }
+            DefaultDocumentEvent event = new DefaultDocumentEvent(0, length, DocumentEvent.EventType.INSERT);
+            event.addEdit(contentEdit);
+            event.addEdit(new ElementEdit(root, 0, removed, added));
+            event.end();
+            fireInsertUpdate(event);
+            fireUndoableEditUpdate(new UndoableEditEvent(this, event));
+        } finally {
+            loading = false;
+            lastPosition = null;
+            writeUnlock();
+        }
+    }
+
+    // create() без последнего абзаца, он дописывается вставкой в уже существующий последний абзац
+    private void loadBidirectional(ElementSpec[] specs) throws BadLocationException {
+        int last = specs.length - 1;
+        while (specs[last].getType() != ElementSpec.StartTagType) {
+            last--;
+        }
+        if (last > 1) {
+            loading = true;
+            try {
+                create(Arrays.copyOf(specs, last));
+            } finally {
+                loading = false;
+                lastPosition = null;
+            }
+        }
+        setParagraphAttributes(getLength(), 0, specs[last].getAttributes(), true);
+        for (int i = last + 1; i < specs.length; i++) {
+            insertString(getLength(), new String(specs[i].getArray(), specs[i].getOffset(), specs[i].getLength()),
+                    specs[i].getAttributes());
+        }
+    }
+
+    // Создаёт участки абзаца; у последнего абзаца последний участок включает завершающий
+    // перевод строки документа, а если участков нет, перевод строки получает endAttributes
+    private int fillParagraph(BranchElement paragraph, List<ElementSpec> runs, int offset, AttributeSet endAttributes) {
+        boolean last = endAttributes != null;
+        Element[] leaves = new Element[last && runs.isEmpty() ? 1 : runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            int end = offset + runs.get(i).getLength() + (last && i == runs.size() - 1 ? 1 : 0);
+            leaves[i] = createLeafElement(paragraph, runs.get(i).getAttributes(), offset, end);
+            offset += runs.get(i).getLength();
+        }
+        if (last && runs.isEmpty()) {
+            leaves[0] = createLeafElement(paragraph, endAttributes, offset, offset + 1);
+        }
+        paragraph.replace(0, 0, leaves);
+        runs.clear();
+        return offset;
+    }
+
+    // Начало участка совпадает с концом предыдущего. GapContent и так вернул бы ту же позицию,
+    // но искал бы её двоичным поиском среди всех позиций документа - при загрузке
+    // это основная часть времени
+    @Override
+    public Position createPosition(int offs) throws BadLocationException {
+        if (!loading) {
+            return super.createPosition(offs);
+        }
+        if (lastPosition == null || lastPosition.getOffset() != offs) {
+            lastPosition = super.createPosition(offs);
+        }
+        return lastPosition;
+    }
+
+    // Истинно, если у всех участков диапазона атрибут key равен value
+    boolean allRunsHave(int offset, int length, Object key, Object value) {
+        readLock();
+        try {
+            int end = offset + length;
+            for (int pos = offset; pos < end; ) {
+                Element run = getCharacterElement(pos);
+                if (!value.equals(run.getAttributes().getAttribute(key))) {
+                    return false;
+                }
+                pos = Math.max(run.getEndOffset(), pos + 1);
+            }
+            return true;
+        } finally {
+            readUnlock();
+        }
+    }
+
+    @Override
+    public void setCharacterAttributes(int offset, int length, AttributeSet s, boolean replace) {
+        if (length <= 0) {
+            return;
+        }
+        AttributeContext context = getAttributeContext();
+        AttributeSet copy = s.copyAttributes();
+        writeLock();
+        try {
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(offset, length, DocumentEvent.EventType.CHANGE);
+            int end = Math.min(offset + length, getLength() + 1);
+            Element root = getDefaultRootElement();
+            boolean changed = false;
+            for (int p = root.getElementIndex(offset), last = root.getElementIndex(end - 1); p <= last; p++) {
+                changed |= formatParagraph((BranchElement) root.getElement(p), offset, end, copy, replace, context, changes);
+            }
+            changes.end();
+            // Если все участки уже были такими, документ не меняется и события нет
+            if (changed) {
+                fireChangedUpdate(changes);
+                fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    // Перестраивает участки абзаца, попавшие в [offset, end), вместе с соседями для склейки
+    private boolean formatParagraph(BranchElement paragraph, int offset, int end, AttributeSet s, boolean replace,
+                                 AttributeContext context, DefaultDocumentEvent changes) {
+        int first = paragraph.getElementIndex(offset);
+        int last = paragraph.getElementIndex(end - 1);
+        // Соседние участки тоже могут склеиться с изменёнными
+        int from = Math.max(0, first - 1);
+        int to = Math.min(paragraph.getElementCount() - 1, last + 1);
+
+        List<Piece> pieces = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            Element run = paragraph.getElement(i);
+            int runStart = run.getStartOffset();
+            int runEnd = run.getEndOffset();
+            AttributeSet old = run.getAttributes();
+            int changeStart = Math.max(runStart, offset);
+            int changeEnd = Math.min(runEnd, end);
+            AttributeSet changed = changeStart < changeEnd ? apply(old, s, replace, context) : null;
+            if (changed == null || old.isEqual(changed)) {
+                add(pieces, new Piece(runStart, runEnd, old, run, false));
+            } else if (changeStart == runStart && changeEnd == runEnd) {
+                // Участок целиком в диапазоне - достаточно сменить ему атрибуты
+                add(pieces, new Piece(runStart, runEnd, changed, run, true));
+            } else {
+                if (runStart < changeStart) {
+                    add(pieces, new Piece(runStart, changeStart, old, null, false));
+                }
+                add(pieces, new Piece(changeStart, changeEnd, changed, null, false));
+                if (changeEnd < runEnd) {
+                    add(pieces, new Piece(changeEnd, runEnd, old, null, false));
+                }
+            }
+        }
+
+        boolean modified = false;
+        for (Piece piece : pieces) {
+            if (piece.restyled) {
+                changes.addEdit(new AttributeUndoableEdit(piece.element, piece.attributes, true));
+                MutableAttributeSet attributes = (MutableAttributeSet) piece.element.getAttributes();
+                attributes.removeAttributes(attributes);
+                attributes.addAttributes(piece.attributes);
+                modified = true;
+            }
+        }
+
+        // Оставляем участки с прежними границами с краёв, заменяем только середину
+        int head = 0;
+        while (head < pieces.size() && from + head <= to && pieces.get(head).element == paragraph.getElement(from + head)) {
+            head++;
+        }
+        int oldTail = to;
+        int newTail = pieces.size() - 1;
+        while (newTail >= head && oldTail >= from + head && pieces.get(newTail).element == paragraph.getElement(oldTail)) {
+            newTail--;
+            oldTail--;
+        }
+        if (newTail < head && oldTail < from + head) {
+            return modified; // Границы участков не изменились
+        }
+        Element[] removed = new Element[oldTail - (from + head) + 1];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = paragraph.getElement(from + head + i);
+        }
+        Element[] added = new Element[newTail - head + 1];
+        for (int i = 0; i < added.length; i++) {
+            Piece piece = pieces.get(head + i);
+            added[i] = piece.element != null ? piece.element
+                    : createLeafElement(paragraph, piece.attributes, piece.start, piece.end);
+        }
+        paragraph.replace(from + head, removed.length, added);
+        changes.addEdit(new ElementEdit(paragraph, from + head, removed, added));
+        return true;
+    }
+
+    // Добавляет участок, склеивая его с предыдущим при равных атрибутах
+    private static void add(List<Piece> pieces, Piece piece) {
+        if (!pieces.isEmpty()) {
+            Piece previous = pieces.get(pieces.size() - 1);
+            if (previous.attributes.isEqual(piece.attributes)) {
+                pieces.set(pieces.size() - 1, new Piece(previous.start, piece.end, previous.attributes, null, false));
+                return;
+            }
+        }
+        pieces.add(piece);
+    }
+
+    private static AttributeSet apply(AttributeSet old, AttributeSet s, boolean replace, AttributeContext context) {
+        if (replace) {
+            return context.addAttributes(context.getEmptySet(), s);
+        }
+        return context.addAttributes(old.copyAttributes(), s);
+    }
+}
@@ -0,0 +1,527 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.util.Arrays;
+
+// Документ для просмотра больших файлов поверх PieceTableContent. Вместо дерева
+// элементов с объектом на каждую строку хранится разреженный индекс начал строк
+// (каждая CHECKPOINT_LINES-я строка), а элементы строк создаются по запросу. Индекс
+// строится по мере того, как файл дочитывается в фоне (appendOriginal), поэтому число
+// строк - это строки уже прочитанной части.
+final class LargeFileDocument extends AbstractDocument implements PieceTableContent.Listener {
+    private static final long serialVersionUID = 1L;
+    private static final int CHECKPOINT_LINES = 64;
+
+    private final PieceTableContent content;
+    private final Element root = new LinesRoot();
+
+    // Опорные точки индекса: номер строки и смещение её начала, по возрастанию
+    private int[] checkpointLines = new int[256];
+    private int[] checkpointOffsets = new int[256];
+    private int checkpoints = 0;
+    private int lineCount = 0;
+    private int maxLineLength = 0;
+
+    // Последняя найденная строка: отрисовка и каретка обращаются к соседним строкам
+    private int cachedLine = -1;
+    private int cachedLineStart;
+    private int cachedLineEnd;
+
+    private int lastNewlines = 0; // Переводы строки в последней правке содержимого
+    private int[] appendedNewlines; // Смещения переводов строки в дописываемой части файла
+    private final char[] scratch = new char[8192];
+
+    LargeFileDocument(PieceTableContent content) {
+        super(content);
+        this.content = content;
+        buildLineIndex();
+        content.setListener(this);
+    }
+
+    int getLineCount() {
+        return lineCount;
+    }
+
+    int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    PieceTableContent getPieceTable() {
+        return content;
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    // Смещение начала строки line
+    int getLineStart(int line) {
+        locateLine(line);
+        return cachedLineStart;
+    }
+
+    // Смещение перевода строки, завершающего строку line
+    int getLineEnd(int line) {
+        locateLine(line);
+        return cachedLineEnd;
+    }
+
+    int getLineOfOffset(int offset) {
+        if (cachedLine >= 0 && offset >= cachedLineStart && offset <= cachedLineEnd) {
+            return cachedLine;
+        }
+        int cp = findCheckpoint(checkpointOffsets, offset);
+        int line = checkpointLines[cp];
+        int pos = checkpointOffsets[cp];
+        int lineStart = pos;
+        // Считаем переводы строки от опорной точки до offset
+        while (pos < offset) {
+            int n = Math.min(offset - pos, scratch.length);
+            content.copyChars(pos, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == '\n') {
+                    line++;
+                    lineStart = pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        cachedLine = line;
+        cachedLineStart = lineStart;
+        cachedLineEnd = findNewline(lineStart);
+        return line;
+    }
+
+    private void locateLine(int line) {
+        if (line == cachedLine) {
+            return;
+        }
+        int start;
+        int current;
+        if (cachedLine >= 0 && line > cachedLine && line - cachedLine <= CHECKPOINT_LINES) {
+            current = cachedLine + 1;
+            start = cachedLineEnd + 1;
+        } else {
+            int cp = findCheckpoint(checkpointLines, line);
+            current = checkpointLines[cp];
+            start = checkpointOffsets[cp];
+        }
+        while (current < line) {
+            start = findNewline(start) + 1;
+            current++;
+        }
+        cachedLine = line;
+        cachedLineStart = start;
+        cachedLineEnd = findNewline(start);
+    }
+
+    // Позиция ближайшего перевода строки начиная с from (содержимое всегда заканчивается '\n')
+    private int findNewline(int from) {
+        int length = content.length();
+        int pos = from;
+        while (pos < length) {
+            int n = Math.min(length - pos, 256);
+            content.copyChars(pos, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == '\n') {
+                    return pos + i;
+                }
+            }
+            pos += n;
+        }
+        return length - 1;
+    }
+
+    // Индекс последней опорной точки, у которой значение не больше key
+    private int findCheckpoint(int[] keys, int key) {
+        int index = Arrays.binarySearch(keys, 0, checkpoints, key);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    // Один проход по тексту: количество строк, опорные точки и самая длинная строка
+    private void buildLineIndex() {
+        checkpoints = 0;
+        addCheckpoint(0, 0, 0);
+        int to = content.length();
+        int line = 0;
+        int lineStart = 0;
+        int pos = 0;
+        while (pos < to) {
+            int n = Math.min(to - pos, scratch.length);
+            content.copyChars(pos, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == '\n') {
+                    maxLineLength = Math.max(maxLineLength, pos + i - lineStart);
+                    line++;
+                    lineStart = pos + i + 1;
+                    if (line % CHECKPOINT_LINES == 0 && lineStart < to) {
+                        addCheckpoint(checkpoints, line, lineStart);
+                    }
+                }
+            }
+            pos += n;
+        }
+        lineCount = line;
+    }
+
+    private void addCheckpoint(int index, int line, int offset) {
+        if (checkpoints == checkpointLines.length) {
+            checkpointLines = Arrays.copyOf(checkpointLines, checkpoints * 2);
+            checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+        }
+        System.arraycopy(checkpointLines, index, checkpointLines, index + 1, checkpoints - index);
+        System.arraycopy(checkpointOffsets, index, checkpointOffsets, index + 1, checkpoints - index);
+        checkpointLines[index] = line;
+        checkpointOffsets[index] = offset;
+        checkpoints++;
+    }
+
+    @Override
+    public void inserted(int offset, int length, int newlines) {
+        cachedLine = -1;
+        // Опорные точки после места вставки сдвигаются на длину и количество новых строк
+        for (int i = checkpoints - 1; i >= 0 && checkpointOffsets[i] > offset; i--) {
+            checkpointOffsets[i] += length;
+            checkpointLines[i] += newlines;
+        }
+        lineCount += newlines;
+        lastNewlines = newlines;
+        if (newlines > CHECKPOINT_LINES) {
+            // Большая вставка: расставляем опорные точки внутри неё, чтобы не сканировать её целиком
+            int first = getLineOfOffset(offset);
+            int cp = findCheckpoint(checkpointOffsets, offset);
+            int line = first;
+            int lineStart = getLineStart(first);
+            int insertAt = cp + 1;
+            int sinceCheckpoint = first - checkpointLines[cp];
+            for (int newline : newlinesIn(offset, length)) {
+                maxLineLength = Math.max(maxLineLength, newline - lineStart);
+                line++;
+                lineStart = newline + 1;
+                if (++sinceCheckpoint >= CHECKPOINT_LINES && lineStart < offset + length) {
+                    addCheckpoint(insertAt++, line, lineStart);
+                    sinceCheckpoint = 0;
+                }
+            }
+            // Последняя строка продолжается за вставкой
+            maxLineLength = Math.max(maxLineLength, findNewline(lineStart) - lineStart);
+            cachedLine = -1;
+        } else {
+            int line = getLineOfOffset(offset);
+            int lastLine = line + newlines;
+            for (int i = line; i <= lastLine; i++) {
+                maxLineLength = Math.max(maxLineLength, getLineEnd(i) - getLineStart(i));
+            }
+        }
+    }
+
+    @Override
+    public void removed(int offset, int length, int newlines) {
+        cachedLine = -1;
+        int end = offset + length;
+        // Опорные точки внутри удалённого диапазона пропадают, последующие сдвигаются
+        int write = 0;
+        for (int i = 0; i < checkpoints; i++) {
+            int cpOffset = checkpointOffsets[i];
+            if (cpOffset > offset && cpOffset <= end) {
+                continue;
+            }
+            checkpointLines[write] = cpOffset > end ? checkpointLines[i] - newlines : checkpointLines[i];
+            checkpointOffsets[write] = cpOffset > end ? cpOffset - length : cpOffset;
+            write++;
+        }
+        checkpoints = write;
+        lineCount -= newlines;
+        lastNewlines = newlines;
+    }
+
+    // Дописывает в конец часть файла, проиндексированную в фоне после прошлого вызова;
+    // newlines - смещения переводов строки в ней, которые вернул MappedText.index().
+    // Вызывается на EDT, поэтому текст здесь не сканируется. Слушатели получают событие
+    // вставки, история отмены - нет: это ещё открытие файла, а не правка
+    void appendOriginal(int[] newlines) {
+        writeLock();
+        try {
+            int offset = getLength();
+            appendedNewlines = newlines;
+            int count = content.appendOriginal(newlines.length);
+            if (count == 0) {
+                return;
+            }
+            DefaultDocumentEvent chng = new DefaultDocumentEvent(offset, count, DocumentEvent.EventType.INSERT);
+            // Без AbstractDocument.insertUpdate: он копирует весь кусок в поисках многобайтовых
+            // символов, а исходный текст, прочитанный при открытии, через него и не проходил
+            addLinesChange(chng);
+            chng.end();
+            fireInsertUpdate(chng);
+        } finally {
+            appendedNewlines = null;
+            writeUnlock();
+        }
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        addLinesChange(chng);
+        super.insertUpdate(chng, attr);
+    }
+
+    // Строка, в которую вставили текст с переводами строки, заменяется получившимися строками
+    private void addLinesChange(DefaultDocumentEvent chng) {
+        if (lastNewlines > 0) {
+            int offset = chng.getOffset();
+            int first = getLineOfOffset(offset);
+            int start = getLineStart(first);
+            int end = getLineEnd(first + lastNewlines) + 1;
+            int[] added = lineBounds(start, offset, chng.getLength(), end);
+            chng.addEdit(new LinesChange(first, new int[]{start, end - chng.getLength()}, added));
+        }
+    }
+
+    // Строки, задетые удалением, заменяются одной; их границы снимаются до удаления текста
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int first = getLineOfOffset(offset);
+        int start = getLineStart(first);
+        int end = getLineEnd(getLineOfOffset(offset + length)) + 1;
+        int[] removed = lineBounds(start, offset, length, end);
+        if (removed.length > 2) {
+            chng.addEdit(new LinesChange(first, removed, new int[]{start, end - length}));
+        }
+        super.removeUpdate(chng);
+    }
+
+    // Границы строк от start до end, разделённых переводами строки из [offset, offset + length):
+    // начало первой строки, начало строки после каждого перевода и конец последней
+    private int[] lineBounds(int start, int offset, int length, int end) {
+        int[] newlines = newlinesIn(offset, length);
+        int[] bounds = new int[newlines.length + 2];
+        bounds[0] = start;
+        for (int i = 0; i < newlines.length; i++) {
+            bounds[i + 1] = newlines[i] + 1;
+        }
+        bounds[bounds.length - 1] = end;
+        return bounds;
+    }
+
+    // Смещения переводов строки в [offset, offset + length); для дописываемой части файла
+    // они уже найдены при индексации
+    private int[] newlinesIn(int offset, int length) {
+        if (appendedNewlines != null) {
+            return appendedNewlines;
+        }
+        int[] newlines = new int[16];
+        int count = 0;
+        int to = offset + length;
+        for (int pos = offset; pos < to; ) {
+            int n = Math.min(to - pos, scratch.length);
+            content.copyChars(pos, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == '\n') {
+                    if (count == newlines.length) {
+                        newlines = Arrays.copyOf(newlines, count * 2);
+                    }
+                    newlines[count++] = pos + i;
+                }
+            }
+            pos += n;
+        }
+        return Arrays.copyOf(newlines, count);
+    }
+
+    // Изменение набора строк. Строки хранятся границами, а не элементами, чтобы большая
+    // правка в истории отмены занимала по int на строку; элементы создаются при запросе.
+    private final class LinesChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private int[] removed;
+        private int[] added;
+
+        LinesChange(int index, int[] removed, int[] added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return lines(removed);
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return lines(added);
+        }
+
+        private Element[] lines(int[] bounds) {
+            Element[] lines = new Element[bounds.length - 1];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = new LineElement(bounds[i], bounds[i + 1]);
+            }
+            return lines;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            swap();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            swap();
+        }
+
+        private void swap() {
+            int[] tmp = removed;
+            removed = added;
+            added = tmp;
+        }
+    }
+
+    // Корневой элемент, строки которого вычисляются по индексу
+    private final class LinesRoot implements Element {
+        @Override
+        public Document getDocument() {
+            return LargeFileDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return AbstractDocument.SectionElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return content.length();
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            if (offset <= 0) {
+                return 0;
+            }
+            return Math.min(getLineOfOffset(Math.min(offset, content.length() - 1)), lineCount - 1);
+        }
+
+        @Override
+        public int getElementCount() {
+            return lineCount;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            if (index < 0 || index >= lineCount) {
+                return null;
+            }
+            return new LineElement(getLineStart(index), getLineEnd(index) + 1);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    // Лёгкий элемент строки с фиксированными на момент создания границами
+    private final class LineElement implements Element {
+        private final int start;
+        private final int end;
+
+        LineElement(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Document getDocument() {
+            return LargeFileDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return AbstractDocument.ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return start;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return end;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.*;
+import javax.swing.undo.UndoManager;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+
+// Режим просмотра больших файлов: файл отображается в память, документ строится
+// на таблице кусков, а вид рисует только видимые строки моноширинным шрифтом. Окно
+// открывается, как только проиндексировано начало файла; остальное индексируется в
+// фоне и дописывается в документ кусками, пока строка состояния показывает прогресс.
+final class LargeFileViewer {
+    private static final int FIRST_CHUNK_CHARS = 256 * 1024; // Проиндексировать до показа окна
+    private static final int CHUNK_CHARS = 1024 * 1024;      // Дописывается в документ за один шаг на EDT
+
+    private final JFrame frame;
+    private final JEditorPane pane = new JEditorPane();
+    private final JLabel statusLabel = new JLabel();
+    private final UndoManager undoManager = new UndoManager();
+    private final JToggleButton editButton = new JToggleButton("Редактирование");
+    private final File file;
+    private final LargeFileDocument document;
+    private final Charset charset;
+    private final JButton saveButton;
+    private final MappedText text;
+    private volatile boolean closed = false;
+    private boolean indexing = true; // Файл ещё дочитывается; только на EDT
+
+    private LargeFileViewer(File file, LargeFileDocument document, MappedText text, Charset charset) {
+        this.file = file;
+        this.document = document;
+        this.text = text;
+        this.charset = charset;
+
+        frame = new JFrame("Просмотр - " + file.getName());
+        frame.setSize(1000, 700);
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.setLayout(new BorderLayout());
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closed = true; // Индексация дальше не нужна
+            }
+        });
+
+        pane.setEditorKit(new LinesEditorKit());
+        pane.setDocument(document);
+        pane.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        pane.setEditable(false);
+        document.addUndoableEditListener(undoManager);
+        frame.add(new JScrollPane(pane), BorderLayout.CENTER);
+
+        JToolBar toolBar = new JToolBar();
+        editButton.addActionListener(e -> pane.setEditable(editButton.isSelected()));
+        toolBar.add(editButton);
+        toolBar.add(createButton("Отменить", () -> {
+            if (undoManager.canUndo()) undoManager.undo();
+        }));
+        toolBar.add(createButton("Вернуть", () -> {
+            if (undoManager.canRedo()) undoManager.redo();
+        }));
+        toolBar.add(createButton("Перейти", this::goToLine));
+        saveButton = createButton("Сохранить как", this::saveAs);
+        toolBar.add(saveButton);
+        // Пока файл не прочитан целиком, править и сохранять нельзя
+        editButton.setEnabled(false);
+        saveButton.setEnabled(false);
+        frame.add(toolBar, BorderLayout.NORTH);
+
+        JPanel footerPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        footerPanel.add(statusLabel);
+        frame.add(footerPanel, BorderLayout.SOUTH);
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                updateStatus();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                updateStatus();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        updateStatus();
+    }
+
+    // Выбор файла и его отображение в память в фоне. Окно появляется после первого куска,
+    // дальше фоновый поток индексирует файл и после каждого куска ждёт, пока EDT допишет
+    // его в документ, чтобы не обгонять отрисовку
+    static void open(JFrame owner) {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(owner) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        Charset charset = Charset.defaultCharset();
+        owner.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<Void, Void>() {
+            private LargeFileViewer viewer; // Пишется на EDT внутри invokeAndWait
+
+            @Override
+            protected Void doInBackground() throws Exception {
+                MappedText text = MappedText.open(file.toPath(), charset);
+                text.index(FIRST_CHUNK_CHARS);
+                LargeFileDocument document = new LargeFileDocument(new PieceTableContent(text));
+                SwingUtilities.invokeAndWait(() -> {
+                    owner.setCursor(Cursor.getDefaultCursor());
+                    viewer = new LargeFileViewer(file, document, text, charset);
+                    viewer.frame.setVisible(true);
+                });
+                while (!text.isComplete() && !viewer.closed) {
+                    int[] newlines = text.index(CHUNK_CHARS);
+                    SwingUtilities.invokeAndWait(() -> document.appendOriginal(newlines));
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                owner.setCursor(Cursor.getDefaultCursor());
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof InvocationTargetException && cause.getCause() != null) {
+                        cause = cause.getCause();
+                    }
+                    JOptionPane.showMessageDialog(viewer != null ? viewer.frame : owner,
+                            (viewer != null ? "Файл прочитан не полностью: " : "Ошибка при открытии файла: ") + cause.getMessage());
+                    return;
+                }
+                if (viewer != null) {
+                    viewer.indexingFinished();
+                }
+            }
+        }.execute();
+    }
+
+    private void indexingFinished() {
+        indexing = false;
+        editButton.setEnabled(true);
+        saveButton.setEnabled(true);
+        updateStatus();
+    }
+
+    private void updateStatus() {
+        String status = String.format("Строк: %d | Символов: %d | Правок: %d",
+                document.getLineCount(), document.getLength(), document.getPieceTable().getPieceCount());
+        if (indexing && text.byteLength() > 0) {
+            status += String.format(" | Прочитано: %d%%", text.indexedBytes() * 100 / text.byteLength());
+        }
+        statusLabel.setText(status);
+    }
+
+    private void goToLine() {
+        String lineStr = JOptionPane.showInputDialog(frame, "Введите номер строки:");
+        if (lineStr == null) {
+            return;
+        }
+        try {
+            int line = Integer.parseInt(lineStr.trim());
+            if (line < 1 || line > document.getLineCount()) {
+                JOptionPane.showMessageDialog(frame, "Неверный номер строки.");
+                return;
+            }
+            int position = document.getLineStart(line - 1);
+            pane.setCaretPosition(position);
+            Rectangle2D rect = pane.modelToView2D(position);
+            if (rect != null) {
+                pane.scrollRectToVisible(rect.getBounds());
+            }
+            pane.requestFocusInWindow();
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Введите корректное числовое значение.");
+        } catch (BadLocationException e) {
+            JOptionPane.showMessageDialog(frame, "Ошибка при переходе к строке.");
+        }
+    }
+
+    // Сохраняет документ в другой файл потоково, не собирая текст в одну строку
+    private void saveAs() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File target = fileChooser.getSelectedFile();
+        if (target.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+            // Исходный файл отображён в память и служит источником текста
+            JOptionPane.showMessageDialog(frame, "Нельзя сохранить поверх открытого файла, выберите другое имя.");
+            return;
+        }
+        pane.setEditable(false);
+        frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                Exception[] failure = new Exception[1];
+                // Под блокировкой чтения документ не меняется, пока идёт запись
+                document.render(() -> {
+                    try {
+                        writeDocument(target);
+                    } catch (IOException | BadLocationException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                frame.setCursor(Cursor.getDefaultCursor());
+                pane.setEditable(editButton.isSelected());
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(frame, "Файл сохранён.");
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(frame, "Ошибка при сохранении файла.");
+                }
+            }
+        }.execute();
+    }
+
+    private void writeDocument(File target) throws IOException, BadLocationException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(256 * 1024);
+        CharBuffer chars = CharBuffer.allocate(64 * 1024);
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int length = document.getLength();
+            int pos = 0;
+            while (pos < length) {
+                document.getText(pos, Math.min(length - pos, chars.remaining()), segment);
+                chars.put(segment.array, segment.offset, segment.count);
+                pos += segment.count;
+                chars.flip();
+                // Незакодированный остаток (половина суррогатной пары) переносится в следующий кусок
+                while (encoder.encode(chars, bytes, pos >= length).isOverflow()) {
+                    flush(channel, bytes);
+                }
+                chars.compact();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                flush(channel, bytes);
+            }
+            flush(channel, bytes);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private static JButton createButton(String text, Runnable action) {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> action.run());
+        return button;
+    }
+
+    private static final class LinesEditorKit extends DefaultEditorKit {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public ViewFactory getViewFactory() {
+            return LinesView::new;
+        }
+    }
+
+    // Вид, который рисует только видимые строки. Все символы занимают одну ячейку
+    // моноширинного шрифта (табуляция и управляющие символы показываются пробелом),
+    // поэтому координаты вычисляются без измерения текста.
+    private static final class LinesView extends View {
+        private Font font;
+        private int lineHeight;
+        private int charWidth;
+        private int ascent;
+        private int knownMaxLineLength = -1;
+        private final Segment segment = new Segment();
+        private char[] lineBuffer = new char[256];
+
+        LinesView(Element elem) {
+            super(elem);
+        }
+
+        private LargeFileDocument document() {
+            return (LargeFileDocument) getDocument();
+        }
+
+        private void updateMetrics() {
+            Component host = getContainer();
+            Font f = host.getFont();
+            if (font != f) {
+                font = f;
+                FontMetrics metrics = host.getFontMetrics(f);
+                lineHeight = metrics.getHeight();
+                charWidth = metrics.charWidth('m');
+                ascent = metrics.getAscent();
+            }
+        }
+
+        @Override
+        public float getPreferredSpan(int axis) {
+            updateMetrics();
+            LargeFileDocument doc = document();
+            if (axis == X_AXIS) {
+                knownMaxLineLength = doc.getMaxLineLength();
+                return (float) Math.min((long) (knownMaxLineLength + 1) * charWidth, Integer.MAX_VALUE / 2);
+            }
+            return (float) Math.min((long) doc.getLineCount() * lineHeight, Integer.MAX_VALUE / 2);
+        }
+
+        @Override
+        public void paint(Graphics g, Shape a) {
+            updateMetrics();
+            Rectangle alloc = a.getBounds();
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = alloc;
+            }
+            JTextComponent host = (JTextComponent) getContainer();
+            Highlighter highlighter = host.getHighlighter();
+            LargeFileDocument doc = document();
+
+            int first = Math.max(0, (clip.y - alloc.y) / lineHeight);
+            int last = Math.min(doc.getLineCount() - 1, (clip.y + clip.height - alloc.y) / lineHeight);
+            int firstColumn = Math.max(0, (clip.x - alloc.x) / charWidth);
+            int lastColumn = (clip.x + clip.width - alloc.x) / charWidth + 1;
+
+            g.setFont(font);
+            for (int line = first; line <= last; line++) {
+                int start = doc.getLineStart(line);
+                int end = doc.getLineEnd(line);
+                if (highlighter instanceof LayeredHighlighter) {
+                    ((LayeredHighlighter) highlighter).paintLayeredHighlights(g, start, end + 1, a, host, this);
+                }
+                int from = start + Math.min(firstColumn, end - start);
+                int to = start + Math.min(lastColumn, end - start);
+                if (to <= from) {
+                    continue;
+                }
+                try {
+                    doc.getText(from, to - from, segment);
+                } catch (BadLocationException e) {
+                    continue;
+                }
+                int n = segment.count;
+                if (lineBuffer.length < n) {
+                    lineBuffer = new char[n];
+                }
+                for (int i = 0; i < n; i++) {
+                    char c = segment.array[segment.offset + i];
+                    lineBuffer[i] = c < ' ' ? ' ' : c;
+                }
+                g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+                g.drawChars(lineBuffer, 0, n, alloc.x + (from - start) * charWidth, alloc.y + line * lineHeight + ascent);
+            }
+        }
+
+        @Override
+        public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            LargeFileDocument doc = document();
+            if (pos < 0 || pos > doc.getLength()) {
+                throw new BadLocationException("Неверная позиция", pos);
+            }
+            updateMetrics();
+            Rectangle alloc = a.getBounds();
+            int line = doc.getLineOfOffset(pos);
+            int start = doc.getLineStart(line);
+            return new Rectangle(alloc.x + (pos - start) * charWidth, alloc.y + line * lineHeight, 1, lineHeight);
+        }
+
+        @Override
+        public int viewToModel(float x, float y, Shape a, Position.Bias[] biasReturn) {
+            updateMetrics();
+            biasReturn[0] = Position.Bias.Forward;
+            Rectangle alloc = a.getBounds();
+            LargeFileDocument doc = document();
+            int line = Math.max(0, Math.min(doc.getLineCount() - 1, (int) ((y - alloc.y) / lineHeight)));
+            int start = doc.getLineStart(line);
+            int end = doc.getLineEnd(line);
+            int column = Math.round((x - alloc.x) / charWidth);
+            return start + Math.max(0, Math.min(column, end - start));
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            updateDamage(e, a);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            updateDamage(e, a);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            updateDamage(e, a);
+        }
+
+        private void updateDamage(DocumentEvent e, Shape a) {
+            Component host = getContainer();
+            if (e.getChange(getElement()) != null || a == null) {
+                // Изменилось количество строк - меняется высота
+                preferenceChanged(null, true, true);
+                host.repaint();
+                return;
+            }
+            updateMetrics();
+            Rectangle alloc = a.getBounds();
+            int line = document().getLineOfOffset(e.getOffset());
+            host.repaint(alloc.x, alloc.y + line * lineHeight, alloc.width, lineHeight);
+            if (document().getMaxLineLength() != knownMaxLineLength) {
+                preferenceChanged(null, true, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// Распределение длительностей для перцентилей без хранения самих замеров. Корзины
+// логарифмические: на каждую степень двойки микросекунд приходится восемь корзин,
+// так что перцентиль известен с точностью около 12% при любом разбросе - от
+// микросекунд до минут - и памяти нужно постоянное количество.
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8; // Корзин на степень двойки; степень двойки ради сдвигов
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    synchronized void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts[index(nanos / 1000)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    synchronized double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    // Верхняя граница корзины, в которую попал перцентиль q (от 0 до 1), но не больше максимума
+    synchronized double getPercentileMillis(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1) / 1e3, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    // Первые корзины - по одной микросекунде, дальше старшие четыре бита значения
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return (exponent - 2) * SUB_BUCKETS + sub;
+    }
+
+    // Наименьшее значение в микросекундах, попадающее в корзину
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + 2;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 3);
+    }
+}
@@ -0,0 +1,192 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+
+// Индекс начал строк документа в одном массиве int. Номер строки по смещению и смещение
+// по номеру строки находятся двоичным поиском без обращения к дереву элементов.
+// Правка внутри строки не сдвигает весь хвост массива сразу: сдвиг откладывается
+// и применяется только к участку между соседними правками.
+final class LineIndex implements DocumentListener {
+    private final Document document;
+    private int[] starts = new int[1024]; // Начала строк; starts[0] всегда 0
+    private int count = 0;
+
+    // Отложенный сдвиг: к starts[i] при i >= pendingFrom нужно прибавить pendingDelta
+    private int pendingFrom = Integer.MAX_VALUE;
+    private int pendingDelta = 0;
+
+    private final Segment segment = new Segment();
+
+    LineIndex(Document document) {
+        this.document = document;
+        segment.setPartialReturn(true);
+        starts[count++] = 0;
+        addLineStarts(0, document.getLength(), 1);
+        document.addDocumentListener(this);
+    }
+
+    void dispose() {
+        document.removeDocumentListener(this);
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    int getLineCount() {
+        return count;
+    }
+
+    // Смещение начала строки line (с нуля)
+    int getLineStart(int line) {
+        return starts[line] + (line >= pendingFrom ? pendingDelta : 0);
+    }
+
+    // Номер строки (с нуля), содержащей смещение offset
+    int getLineOfOffset(int offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getLineStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        int line = getLineOfOffset(offset);
+        int newlines = countNewlines(offset, length);
+        if (newlines == 0) {
+            shiftAfter(line, length);
+            return;
+        }
+        applyPending();
+        for (int i = line + 1; i < count; i++) {
+            starts[i] += length;
+        }
+        openSlots(line + 1, newlines);
+        addLineStarts(offset, offset + length, line + 1);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        int line = getLineOfOffset(offset);
+        // Строки, начинавшиеся внутри удалённого диапазона, пропадают
+        int last = line;
+        while (last + 1 < count && getLineStart(last + 1) <= offset + length) {
+            last++;
+        }
+        if (last == line) {
+            shiftAfter(line, -length);
+            return;
+        }
+        applyPending();
+        System.arraycopy(starts, last + 1, starts, line + 1, count - last - 1);
+        count -= last - line;
+        for (int i = line + 1; i < count; i++) {
+            starts[i] -= length;
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Атрибуты не влияют на строки
+    }
+
+    // Сдвигает строки после line на delta, перенося отложенный сдвиг только на участок между правками
+    private void shiftAfter(int line, int delta) {
+        int from = line + 1;
+        if (from >= count) {
+            return;
+        }
+        if (pendingDelta == 0) {
+            pendingFrom = from;
+        } else if (from > pendingFrom) {
+            for (int i = pendingFrom; i < from; i++) {
+                starts[i] += pendingDelta;
+            }
+            pendingFrom = from;
+        } else if (from < pendingFrom) {
+            for (int i = from; i < pendingFrom; i++) {
+                starts[i] -= pendingDelta;
+            }
+            pendingFrom = from;
+        }
+        pendingDelta += delta;
+    }
+
+    private void applyPending() {
+        if (pendingDelta != 0) {
+            for (int i = pendingFrom; i < count; i++) {
+                starts[i] += pendingDelta;
+            }
+        }
+        pendingFrom = Integer.MAX_VALUE;
+        pendingDelta = 0;
+    }
+
+    private void openSlots(int index, int n) {
+        if (count + n > starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(count + n, starts.length * 2));
+        }
+        System.arraycopy(starts, index, starts, index + n, count - index);
+        count += n;
+    }
+
+    private int countNewlines(int from, int length) {
+        int newlines = 0;
+        int pos = from;
+        int to = from + length;
+        try {
+            while (pos < to) {
+                document.getText(pos, to - pos, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        newlines++;
+                    }
+                }
+                pos += segment.count;
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        return newlines;
+    }
+
+    // Записывает начала строк после каждого '\n' в [from, to), начиная с индекса index
+    private void addLineStarts(int from, int to, int index) {
+        int pos = from;
+        try {
+            while (pos < to) {
+                document.getText(pos, to - pos, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (index >= count) {
+                            // Первичное построение: массив растёт по мере чтения
+                            if (count == starts.length) {
+                                starts = Arrays.copyOf(starts, count * 2);
+                            }
+                            count++;
+                        }
+                        starts[index++] = pos + i + 1;
+                    }
+                }
+                pos += segment.count;
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.function.Supplier;
+
+// Номера строк слева от редактора. Рисуются только строки, попадающие в область
+// перерисовки: первая и последняя находятся через LineIndex, а положение каждой
+// берётся из modelToView2D начала строки. Перенесённая строка нумеруется один раз.
+final class LineNumberGutter extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final int PADDING = 6;
+
+    private final JTextComponent editor;
+    private final Supplier<LineIndex> lineIndex;
+    private int digits = 0;
+
+    LineNumberGutter(JTextComponent editor, Supplier<LineIndex> lineIndex) {
+        this.editor = editor;
+        this.lineIndex = lineIndex;
+        setFont(editor.getFont().deriveFont(Font.PLAIN));
+        setForeground(Color.GRAY);
+        // Перенос строк меняется вместе с шириной редактора
+        editor.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                repaint();
+            }
+        });
+        update();
+    }
+
+    // Вызывается после изменения документа: ширина меняется только с числом разрядов
+    void update() {
+        int newDigits = Math.max(3, String.valueOf(lineIndex.get().getLineCount()).length());
+        if (newDigits != digits) {
+            digits = newDigits;
+            revalidate();
+        }
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return new Dimension(metrics.charWidth('0') * digits + 2 * PADDING, editor.getPreferredSize().height);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground() != null ? getBackground() : Color.WHITE);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        LineIndex index = lineIndex.get();
+        if (index.getDocument() != editor.getDocument()) {
+            return;
+        }
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        int first = editor.viewToModel2D(new Point(0, clip.y));
+        int last = editor.viewToModel2D(new Point(0, clip.y + clip.height));
+        if (first < 0 || last < 0) {
+            return;
+        }
+        int width = getWidth();
+        try {
+            for (int line = index.getLineOfOffset(first), end = index.getLineOfOffset(last); line <= end; line++) {
+                Rectangle2D r = editor.modelToView2D(index.getLineStart(line));
+                if (r == null) {
+                    break;
+                }
+                String number = String.valueOf(line + 1);
+                g.drawString(number, width - PADDING - metrics.stringWidth(number), (int) r.getMaxY() - metrics.getDescent());
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Маркеры и нумерация списков правками на месте. Абзацы выделения обходятся по
+// элементам документа, у каждого проверяется или меняется только начало: маркер
+// вставляется с атрибутами первого символа абзаца или удаляется, остальной текст
+// и его форматирование не трогаются. Правки идут с конца, поэтому смещения ещё
+// не обработанных абзацев не сдвигаются.
+final class ListFormatter {
+    // Маркер - группа 1; пробелы перед ним остаются
+    static final Pattern BULLET = Pattern.compile("\\s*(•\\s*)");
+    static final Pattern NUMBER = Pattern.compile("\\s*(\\d+\\.\\s+)");
+    static final Pattern MULTILEVEL_NUMBER = Pattern.compile("\\s*(\\d+(?:\\.\\d+)*\\.\\s+)");
+
+    private ListFormatter() {
+    }
+
+    // Истинно, если каждый абзац выделения начинается с маркера
+    static boolean allMarked(StyledDocument document, int start, int end, Pattern marker) {
+        Matcher matcher = marker.matcher(new DocumentCharSequence(document));
+        Element root = document.getDefaultRootElement();
+        for (int i = root.getElementIndex(start), last = root.getElementIndex(end - 1); i <= last; i++) {
+            if (!lookingAt(matcher, root.getElement(i), document.getLength())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Удаляет маркеры в начале абзацев выделения
+    static void removeMarkers(StyledDocument document, int start, int end, Pattern marker) throws BadLocationException {
+        DocumentCharSequence text = new DocumentCharSequence(document);
+        Matcher matcher = marker.matcher(text);
+        Element root = document.getDefaultRootElement();
+        for (int i = root.getElementIndex(end - 1), first = root.getElementIndex(start); i >= first; i--) {
+            if (lookingAt(matcher, root.getElement(i), document.getLength())) {
+                document.remove(matcher.start(1), matcher.end(1) - matcher.start(1));
+                text.invalidate();
+            }
+        }
+    }
+
+    // "• " в начале каждого абзаца
+    static void addBullets(StyledDocument document, int start, int end) throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        for (int i = root.getElementIndex(end - 1), first = root.getElementIndex(start); i >= first; i--) {
+            insertPrefix(document, root.getElement(i).getStartOffset(), 0, "• ");
+        }
+    }
+
+    // "1. ", "2. ", ... по порядку абзацев
+    static void addNumbers(StyledDocument document, int start, int end) throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        int first = root.getElementIndex(start);
+        for (int i = root.getElementIndex(end - 1); i >= first; i--) {
+            insertPrefix(document, root.getElement(i).getStartOffset(), 0, (i - first + 1) + ". ");
+        }
+    }
+
+    // Номер вида "1.2.3." по глубине отступа; отступ заменяется номером
+    static void addMultilevelNumbers(StyledDocument document, int start, int end) throws BadLocationException {
+        DocumentCharSequence text = new DocumentCharSequence(document);
+        Element root = document.getDefaultRootElement();
+        StringBuilder numbering = new StringBuilder();
+        for (int i = root.getElementIndex(end - 1), first = root.getElementIndex(start); i >= first; i--) {
+            Element paragraph = root.getElement(i);
+            int lineStart = paragraph.getStartOffset();
+            int lineEnd = Math.min(paragraph.getEndOffset() - 1, document.getLength());
+            int indent = 0;
+            while (lineStart + indent < lineEnd && isIndent(text.charAt(lineStart + indent))) {
+                indent++;
+            }
+            numbering.setLength(0);
+            for (int level = 1; level <= indent + 1; level++) {
+                numbering.append(level).append('.');
+            }
+            numbering.append(' ');
+            insertPrefix(document, lineStart, indent, numbering.toString());
+            text.invalidate();
+        }
+    }
+
+    private static boolean isIndent(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean lookingAt(Matcher matcher, Element paragraph, int length) {
+        matcher.region(paragraph.getStartOffset(), Math.min(paragraph.getEndOffset() - 1, length));
+        return matcher.lookingAt();
+    }
+
+    // Заменяет removed символов в начале абзаца на prefix с атрибутами первого символа абзаца
+    private static void insertPrefix(StyledDocument document, int offset, int removed, String prefix) throws BadLocationException {
+        AttributeSet attributes = document.getCharacterElement(offset).getAttributes().copyAttributes();
+        if (removed > 0) {
+            document.remove(offset, removed);
+        }
+        document.insertString(offset, prefix, attributes);
+    }
+}
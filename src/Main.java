@@ -1,22 +1,30 @@
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.text.*;
-import javax.swing.undo.UndoManager;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.print.PrinterException;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.print.PageFormat;
+import java.awt.print.PrinterJob;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.regex.PatternSyntaxException;
 
 public class Main {
     static final JFrame frame = new JFrame("Text Editor");
@@ -24,18 +32,79 @@ public class Main {
     static final Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
     static final JLabel statusLabel = new JLabel("Статус: ");
     static File currentFile = null;
-    static final UndoManager undoManager = new UndoManager();
+    // История отмены ограничена по памяти, а не по числу правок
+    static final BoundedUndoManager undoManager = new BoundedUndoManager(32L * 1024 * 1024);
 
-    static String lastSearchText = ""; // Последний найденный текст
+    static SearchQuery lastQuery = null; // Последний запрос поиска
     static int lastSearchIndex = -1;   // Последняя позиция найденного текста
-    private static SimpleAttributeSet copiedAttributes = new SimpleAttributeSet();
+    private static SearchIndex searchIndex = null; // Индекс вхождений последнего поиска
+    private static final int SEARCH_HISTORY_SIZE = 20;
+    private static final DefaultComboBoxModel<String> searchHistory = new DefaultComboBoxModel<>();
+    // Режимы поиска, общие для диалогов поиска и замены
+    private static final JCheckBox regexOption = new JCheckBox("Регулярное выражение");
+    private static final JCheckBox matchCaseOption = new JCheckBox("Учитывать регистр", true);
+    private static final JCheckBox wholeWordOption = new JCheckBox("Слово целиком");
+    // Наборы атрибутов действий форматирования берутся из общего пула документов
+    private static final AttributePool attributePool = AttributePool.SHARED;
+    private static AttributeSet copiedAttributes = attributePool.getEmptySet();
     static Properties settings = new Properties();
 
-    private static final int PAGE_HEIGHT = 800; // Высота одной страницы в пикселях
-    private static int currentPage = 0;
+    // Разбиение на страницы, общее для строки состояния и печати
+    static final Paginator paginator = new Paginator(editorPane, new PageFormat());
+
+    // Статистика документа, обновляемая по событиям изменения текста
+    static final DocumentStatistics statistics = new DocumentStatistics();
+    // Начала строк текущего документа для перехода к строке, позиции курсора и номеров строк
+    static LineIndex lineIndex = new LineIndex(editorPane.getDocument());
+    static final LineNumberGutter lineNumberGutter = new LineNumberGutter(editorPane, () -> lineIndex);
+
+    // Строка состояния и номер страницы пересчитываются не чаще раза в кадр, сколько бы событий ни пришло
+    static final UpdateScheduler statusUpdates = new UpdateScheduler(16, ActionMetrics.task("Строка состояния", Main::updateStatus));
+    // Автосохранение раз в 5 минут; пока файл загружается или не выбран, сохранять некуда
+    static final AutoSaver autoSaver = new AutoSaver(editorPane, () -> Main.fileLoader == null ? currentFile : null,
+            Charset.defaultCharset(), 300000);
+
+    private static final DocumentListener documentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            statistics.update(e);
+            if (journal != null) {
+                journal.record(e);
+            }
+            autoSaver.markChanged();
+            statusUpdates.request();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            statistics.update(e);
+            if (journal != null) {
+                journal.record(e);
+            }
+            autoSaver.markChanged();
+            statusUpdates.request();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            statistics.update(e);
+            if (journal != null) {
+                journal.record(e);
+            }
+            autoSaver.markChanged(); // Форматирование тоже сохраняется в файлы *.ted
+            statusUpdates.request();
+        }
+    };
 
     public static void main(String[] args) {
         loadSettings();
+        // Замер обработки событий EDT и поиск зависаний; порог 0 отключает наблюдение
+        long stallThreshold = Long.parseLong(settings.getProperty("edtStallMs", "200"));
+        if (stallThreshold > 0) {
+            EdtMonitor.install(stallThreshold);
+        }
+        statusUpdates.setDelay(Integer.parseInt(settings.getProperty("statusUpdateDelay", "16")));
+        undoManager.setLimitBytes(Long.parseLong(settings.getProperty("undoLimitMB", "32")) * 1024 * 1024);
         frame.setSize(screenSize.width, screenSize.height - 100);
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
@@ -45,22 +114,25 @@ public class Main {
         editorPane.setFont(new Font(settings.getProperty("fontName", "Times New Roman"), Font.PLAIN, Integer.parseInt(settings.getProperty("fontSize", "14"))));
 
         // Настраиваем ScrollPane и Pane
-        editorPane.setEditorKit(new javax.swing.text.StyledEditorKit()); // Обычный текст
+        editorPane.setEditorKit(new FormattedDocument.Kit()); // Стилизованный текст с форматированием по участкам
         editorPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE); // Почтение к Display Properties
 
         editorPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        editorPane.setHighlighter(matchHighlighter);
         JScrollPane scrollPane = new JScrollPane(editorPane);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER); // Отключаем горизонтальную полосу прокрутки
+        scrollPane.setRowHeaderView(lineNumberGutter);
         frame.add(scrollPane, BorderLayout.CENTER);
 
-        addToolBar();
+        editorPane.getDocument().addUndoableEditListener(undoManager);
 
         boolean standardMenu = false;
 
         if (standardMenu) {
+            addToolBar();
             addStandardMenu(); // Стандартное меню
         } else {
-            addWordLikeMenu(); // Word-подобное меню
+            addWordLikeMenu(); // Word-подобное меню; панель инструментов оно всё равно заменило бы на месте NORTH
         }
         addFooterPanel();
 
@@ -72,41 +144,57 @@ public class Main {
             }
         });
 
-        Timer autoSaveTimer = new Timer();
-        autoSaveTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                saveFile(false);
-            }
-        }, 300000, 300000);
+        autoSaver.start();
 
-        editorPane.getDocument().addDocumentListener(new DocumentListener() {
-            @Override
-            public void insertUpdate(DocumentEvent e) {
-                System.out.println("Insert update");
-                updateStatus();
+        editorPane.getDocument().addDocumentListener(documentListener);
+        statistics.rebuild(editorPane.getDocument());
+        lineIndex.dispose();
+        lineIndex = new LineIndex(editorPane.getDocument());
+
+        // read() и setDocument() подменяют документ - переносим на него слушателей
+        editorPane.addPropertyChangeListener("document", e -> {
+            Document oldDocument = (Document) e.getOldValue();
+            Document newDocument = (Document) e.getNewValue();
+            if (oldDocument != null) {
+                oldDocument.removeDocumentListener(documentListener);
+                oldDocument.removeUndoableEditListener(undoManager);
             }
+            newDocument.addDocumentListener(documentListener);
+            newDocument.addUndoableEditListener(undoManager);
+            undoManager.discardAllEdits();
+            dropSearchIndex();
+            statistics.rebuild(newDocument);
+            lineIndex.dispose();
+            lineIndex = new LineIndex(newDocument);
+            updateStatus();
+        });
 
+        updateStatus();
+
+        editorPane.addCaretListener(e -> statusUpdates.request());
+        // Высота редактора меняется по мере фоновой вёрстки абзацев, с ней и число страниц
+        editorPane.addComponentListener(new ComponentAdapter() {
             @Override
-            public void removeUpdate(DocumentEvent e) {
-                System.out.println("Remove update");
-                updateStatus();
+            public void componentResized(ComponentEvent e) {
+                statusUpdates.request();
             }
+        });
 
+        // Курсор сразу в тексте: когда окно впервые получает фокус, он передаётся редактору
+        frame.addWindowFocusListener(new WindowAdapter() {
             @Override
-            public void changedUpdate(DocumentEvent e) {
-                System.out.println("Changed update");
-                updateStatus();
+            public void windowGainedFocus(WindowEvent e) {
+                frame.removeWindowFocusListener(this);
+                editorPane.requestFocusInWindow();
             }
         });
-
-        addContextMenu();
-
-        updateStatus();
-
-        editorPane.addCaretListener(e -> updateStatus());
-
         frame.setVisible(true);
+
+        // Контекстное меню не нужно для первого символа - собираем после показа окна
+        SwingUtilities.invokeLater(Main::addContextMenu);
+        if (StartupProbe.isEnabled()) {
+            StartupProbe.typeAndExit(editorPane);
+        }
     }
 
 
@@ -116,6 +204,7 @@ public class Main {
         JMenu fileMenu = new JMenu("Файл");
         fileMenu.add(createMenuItem("Создать", e -> createNewFile()));
         fileMenu.add(createMenuItem("Открыть", e -> openFile()));
+        fileMenu.add(createMenuItem("Открыть большой файл", e -> LargeFileViewer.open(frame)));
         fileMenu.add(createMenuItem("Сохранить", e -> saveFile(false)));
         fileMenu.add(createMenuItem("Сохранить как", e -> saveAsFile()));
         fileMenu.add(createMenuItem("Печать", e -> printFile()));
@@ -147,86 +236,90 @@ public class Main {
 
     private static JMenuItem createMenuItem(String text, ActionListener action) {
         JMenuItem menuItem = new JMenuItem(text);
-        menuItem.addActionListener(action);
+        menuItem.addActionListener(ActionMetrics.action(text, action));
         return menuItem;
     }
 
     static JLabel pageCounterLabel = new JLabel("Страница: 1");
+    static final JLabel caretPositionLabel = new JLabel("Стр: 1, Кол: 1");
+    static final JProgressBar loadProgressBar = new JProgressBar(0, 100);
+    static final JButton cancelLoadButton = new JButton("Отменить загрузку");
+    private static FileLoader fileLoader = null; // Текущая фоновая загрузка файла
+    private static final FileNameExtensionFilter styledFileFilter =
+            new FileNameExtensionFilter("Документ редактора (*.ted)", StyledFileFormat.EXTENSION);
+    static final JProgressBar printProgressBar = new JProgressBar(0, 100);
+    static final JButton cancelPrintButton = new JButton("Отменить печать");
+    private static PrintTask printTask = null;   // Текущая фоновая печать
+    private static EditJournal journal = null;   // Журнал несохранённых правок текущего файла
 
     static void addFooterPanel() {
         JPanel footerPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         pageCounterLabel = new JLabel("Страница: 1");
         footerPanel.add(pageCounterLabel);
+        footerPanel.add(caretPositionLabel);
         footerPanel.add(statusLabel);
+
+        // Индикатор фоновой загрузки файла, виден только во время загрузки
+        loadProgressBar.setStringPainted(true);
+        loadProgressBar.setVisible(false);
+        cancelLoadButton.setVisible(false);
+        cancelLoadButton.addActionListener(e -> {
+            if (fileLoader != null) {
+                fileLoader.cancel(false);
+            }
+        });
+        footerPanel.add(loadProgressBar);
+        footerPanel.add(cancelLoadButton);
+
+        // Индикатор фоновой печати
+        printProgressBar.setStringPainted(true);
+        printProgressBar.setVisible(false);
+        cancelPrintButton.setVisible(false);
+        cancelPrintButton.addActionListener(e -> {
+            if (printTask != null) {
+                printTask.stop();
+            }
+        });
+        footerPanel.add(printProgressBar);
+        footerPanel.add(cancelPrintButton);
+
+        // Показатели отзывчивости, по умолчанию скрыты
+        if (Boolean.parseBoolean(settings.getProperty("metricsPanel", "false"))) {
+            footerPanel.add(new MetricsPanel());
+        }
         frame.add(footerPanel, BorderLayout.SOUTH);
     }
 
     private static void updateStatus() {
-        try {
-            String text = editorPane.getDocument().getText(0, editorPane.getDocument().getLength());
-
-            // Количество абзацев
-            int paragraphs = text.split("\n").length;
-
-            // Количество слов
-            int words = text.trim().isEmpty() ? 0 : text.trim().split("\\s+").length;
-
-            // Количество символов
-            int characters = text.length();
-
-            // Количество символов без пробелов
-            int charactersWithoutSpaces = text.replace(" ", "").length();
-
-            // Количество предложений (поиск по ".", "!", "?")
-            int sentences = text.split("[.!?]").length;
-
-            // Количество специальных символов (все, кроме букв и цифр)
-            int specialCharacters = text.replaceAll("[\\w\\s]", "").length();
-
-            // Количество букв латинского алфавита
-            int latinLetters = text.replaceAll("[^A-Za-z]", "").length();
-
-            // Количество букв русского алфавита
-            int russianLetters = text.replaceAll("[^А-Яа-яЁё]", "").length();
-
-            // Количество цифр
-            int digits = text.replaceAll("[^0-9]", "").length();
-
-            // Количество знаков препинания (",", ".", "!", "?", ";", ":", и другие)
-            int punctuationMarks = text.replaceAll("[^.,!?;:\\-()\"']", "").length();
-
-            // Обновляем строку состояния
-            statusLabel.setText(
-                    String.format("Абзацы: %d | Предложения: %d | Слова: %d | Символы: %d | Символы без пробелов: %d | " +
-                                    "Спец. символы: %d | Лат. буквы: %d | Рус. буквы: %d | Цифры: %d | Знаки препинания: %d",
-                            paragraphs, sentences, words, characters, charactersWithoutSpaces, specialCharacters, latinLetters, russianLetters, digits, punctuationMarks)
-            );
-
-            // Обновляем текущую страницу
-            updatePageStatus();
-
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        // Счётчики уже посчитаны по абзацам, здесь только собираем итоги
+        statusLabel.setText(StatusLine.summary(statistics, undoManager, attributePool,
+                TextEncoding.of(editorPane.getDocument(), Charset.defaultCharset())));
+
+        // Обновляем текущую страницу
+        updatePageStatus();
+
+        // Строка и столбец курсора - двоичный поиск по индексу строк
+        int caretPosition = editorPane.getCaretPosition();
+        int line = lineIndex.getLineOfOffset(caretPosition);
+        caretPositionLabel.setText(StatusLine.position(line + 1, caretPosition - lineIndex.getLineStart(line) + 1));
+        lineNumberGutter.update();
     }
 
     private static void updatePageStatus() {
-        try {
-            int caretPosition = editorPane.getCaretPosition();
-            Rectangle caretRectangle = editorPane.modelToView(caretPosition);
-            if (caretRectangle != null) {
-                int yPosition = caretRectangle.y;
-                currentPage = (yPosition / PAGE_HEIGHT) + 1;
-                pageCounterLabel.setText("Страница: " + currentPage);
-            }
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        // Разрывы страниц кэшированы, здесь только двоичный поиск по ним
+        int currentPage = paginator.getPageOfOffset(editorPane.getCaretPosition()) + 1;
+        pageCounterLabel.setText(StatusLine.page(currentPage, paginator.getPageCount()));
     }
 
 
     private static void createNewFile() {
+        closeJournal(false);
+        if (fileLoader != null) {
+            cancelLoading();
+            editorPane.setDocument(editorPane.getEditorKit().createDefaultDocument());
+        }
         editorPane.setText("");
+        editorPane.getDocument().putProperty(TextEncoding.PROPERTY, null); // Новый файл сохраняется в кодировке по умолчанию
         currentFile = null;
         frame.setTitle("TextEditor - Новый файл");
         updateStatus();
@@ -234,37 +327,172 @@ public class Main {
 
     private static void openFile() {
         JFileChooser fileChooser = new JFileChooser();
+        fileChooser.addChoosableFileFilter(styledFileFilter);
         fileChooser.setFileFilter(new FileNameExtensionFilter("Текстовые файлы (*.txt)", "txt")); // Добавляем фильтр файлов
         int option = fileChooser.showOpenDialog(frame);
         if (option == JFileChooser.APPROVE_OPTION) {
-            currentFile = fileChooser.getSelectedFile();
-            try (BufferedReader reader = new BufferedReader(new FileReader(currentFile))) {
-                editorPane.read(reader, null);
-                frame.setTitle("Text Editor - " + currentFile.getName());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(frame, "Ошибка при открытии файла.");
+            loadFile(fileChooser.getSelectedFile());
+        }
+    }
+
+    // Загружает файл в фоне в новый документ; текст появляется по мере чтения
+    private static void loadFile(File file) {
+        cancelLoading();
+        closeJournal(false); // Несохранённые правки прежнего файла остаются в его журнале
+
+        Document doc = editorPane.getEditorKit().createDefaultDocument();
+        editorPane.setDocument(doc);
+        doc.removeUndoableEditListener(undoManager); // Загрузка не должна попадать в историю отмены
+        editorPane.setEditable(false);
+        if (editorPane.getCaret() instanceof DefaultCaret) {
+            // Каретка остаётся в начале файла, пока дописывается его конец
+            ((DefaultCaret) editorPane.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        }
+        currentFile = file;
+        frame.setTitle("Text Editor - " + file.getName());
+
+        // Документ в собственном формате загружается вместе с форматированием
+        FileLoader loader = StyledFileFormat.accepts(file) && doc instanceof FormattedDocument
+                ? new StyledFileFormat.Loader(file, (FormattedDocument) doc)
+                : new FileLoader(file, doc, Charset.defaultCharset());
+        fileLoader = loader;
+        loadProgressBar.setValue(0);
+        loadProgressBar.setVisible(true);
+        cancelLoadButton.setVisible(true);
+
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgressBar.setValue((Integer) e.getNewValue());
+            } else if ("state".equals(e.getPropertyName()) && e.getNewValue() == SwingWorker.StateValue.DONE) {
+                finishLoading(loader, doc);
             }
-            updateStatus();
+        });
+        loader.execute();
+    }
+
+    private static void finishLoading(FileLoader loader, Document doc) {
+        if (fileLoader != loader) {
+            return; // Загрузка уже прервана новым файлом
+        }
+        fileLoader = null;
+        doc.addUndoableEditListener(undoManager);
+        endLoading();
+
+        if (loader.isCancelled()) {
+            // Частично загруженный текст нельзя сохранять поверх исходного файла
+            currentFile = null;
+            frame.setTitle("Text Editor - " + loader.getFile().getName() + " (загружен не полностью)");
+            JOptionPane.showMessageDialog(frame, "Загрузка файла отменена.");
+            return;
+        }
+        try {
+            loader.get();
+            autoSaver.markSaved(); // Загруженный текст совпадает с файлом
+            statusUpdates.request(); // Кодировка файла известна только после загрузки
+        } catch (InterruptedException | ExecutionException ex) {
+            currentFile = null;
+            JOptionPane.showMessageDialog(frame, "Ошибка при открытии файла.");
+            return;
+        }
+        openJournal(loader.getFile(), doc);
+    }
+
+    // Подключает журнал правок к файлу, предлагая восстановить правки, не попавшие в файл
+    private static void openJournal(File file, Document doc) {
+        EditJournal opened = new EditJournal(file);
+        boolean recovered = false;
+        if (opened.hasRecovery()) {
+            int option = JOptionPane.showConfirmDialog(frame,
+                    "Найдены несохранённые изменения файла " + file.getName() + ". Восстановить их?",
+                    "Восстановление", JOptionPane.YES_NO_OPTION);
+            if (option == JOptionPane.YES_OPTION) {
+                try {
+                    // Стоимость восстановления зависит только от числа несохранённых правок
+                    runBatchEdit(() -> {
+                        try {
+                            opened.replay(doc);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    recovered = true;
+                } catch (UncheckedIOException e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "Не удалось восстановить изменения.");
+                }
+            }
+        }
+        try {
+            opened.start(recovered);
+            journal = opened;
+            autoSaver.setJournal(opened);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeJournal(boolean delete) {
+        if (journal != null) {
+            journal.close(delete);
+            journal = null;
+            autoSaver.setJournal(null);
+        }
+    }
+
+    // Прерывает фоновую загрузку, если документ заменяется другим
+    private static void cancelLoading() {
+        if (fileLoader != null) {
+            fileLoader.cancel(false);
+            fileLoader = null;
+            endLoading();
         }
     }
 
+    private static void endLoading() {
+        editorPane.setEditable(true);
+        if (editorPane.getCaret() instanceof DefaultCaret) {
+            ((DefaultCaret) editorPane.getCaret()).setUpdatePolicy(DefaultCaret.UPDATE_WHEN_ON_EDT);
+        }
+        loadProgressBar.setVisible(false);
+        cancelLoadButton.setVisible(false);
+    }
+
     private static void saveFile(boolean saveAs) {
+        if (fileLoader != null) {
+            return; // Документ ещё загружается, сохранять нечего
+        }
         if (saveAs || currentFile == null) {
             JFileChooser fileChooser = new JFileChooser();
+            fileChooser.addChoosableFileFilter(styledFileFilter);
             fileChooser.setFileFilter(new FileNameExtensionFilter("Текстовые файлы (*.txt)", "txt")); // Добавляем фильтр файлов
             int option = fileChooser.showSaveDialog(frame);
             if (option == JFileChooser.APPROVE_OPTION) {
                 currentFile = fileChooser.getSelectedFile();
+                if (fileChooser.getFileFilter() == styledFileFilter && !StyledFileFormat.accepts(currentFile)) {
+                    currentFile = new File(currentFile.getPath() + "." + StyledFileFormat.EXTENSION);
+                }
             } else {
                 return;
             }
         }
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(currentFile))) {
-            editorPane.write(writer);
-            frame.setTitle("Text Editor - " + currentFile.getName());
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(frame, "Ошибка при сохранении файла.");
-        }
+        File file = currentFile;
+        Document doc = editorPane.getDocument();
+        autoSaver.saveNow(file, error -> {
+            if (error != null) {
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(frame, "Ошибка при сохранении файла.");
+                return;
+            }
+            if (file != currentFile || doc != editorPane.getDocument()) {
+                return; // Пока шла запись, открыт другой документ
+            }
+            frame.setTitle("Text Editor - " + file.getName());
+            if (journal == null || !journal.getTarget().equals(file)) {
+                // Сохранено в другой файл: правки теперь в нём, журнал начинается заново
+                closeJournal(true);
+                openJournal(file, doc);
+            }
+        });
     }
 
     private static void saveAsFile() {
@@ -272,15 +500,66 @@ public class Main {
     }
 
     private static void printFile() {
+        if (printTask != null) {
+            JOptionPane.showMessageDialog(frame, "Документ уже печатается.");
+            return;
+        }
+        PrinterJob job = PrinterJob.getPrinterJob();
+        File output = null;
+        if (job.getPrintService() == null) {
+            // Принтеров нет - страницы можно сохранить в файл PostScript
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Печать в файл");
+            fileChooser.setFileFilter(new FileNameExtensionFilter("PostScript (*.ps)", "ps"));
+            if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            output = fileChooser.getSelectedFile();
+        } else if (!job.printDialog()) {
+            JOptionPane.showMessageDialog(frame, "Печать была отменена.");
+            return;
+        }
+
+        // Печатаем по тем же разрывам, что показывает счётчик страниц, но со снимка документа в фоне
+        paginator.setPageFormat(job.validatePage(paginator.getPageFormat()));
+        PrintTask task;
+        try {
+            task = new PrintTask(editorPane, job, paginator.getPageFormat(), output);
+        } catch (BadLocationException ex) {
+            JOptionPane.showMessageDialog(frame, "Ошибка при печати: " + ex.getMessage());
+            return;
+        }
+        printTask = task;
+        printProgressBar.setValue(0);
+        printProgressBar.setVisible(true);
+        cancelPrintButton.setVisible(true);
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                printProgressBar.setValue((Integer) e.getNewValue());
+            } else if ("state".equals(e.getPropertyName()) && e.getNewValue() == SwingWorker.StateValue.DONE) {
+                finishPrinting(task);
+            }
+        });
+        task.execute();
+    }
+
+    private static void finishPrinting(PrintTask task) {
+        printTask = null;
+        printProgressBar.setVisible(false);
+        cancelPrintButton.setVisible(false);
+        if (task.isCancelled()) {
+            JOptionPane.showMessageDialog(frame, "Печать была отменена.");
+            return;
+        }
         try {
-            boolean complete = editorPane.print();
-            if (complete) {
-                JOptionPane.showMessageDialog(frame, "Печать завершена.");
+            if (task.get()) {
+                JOptionPane.showMessageDialog(frame, "Печать завершена: страниц " + task.getPageCount() + ".");
             } else {
                 JOptionPane.showMessageDialog(frame, "Печать была отменена.");
             }
-        } catch (PrinterException ex) {
-            JOptionPane.showMessageDialog(frame, "Ошибка при печати: " + ex.getMessage());
+        } catch (InterruptedException | ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            JOptionPane.showMessageDialog(frame, "Ошибка при печати: " + cause.getMessage());
         }
     }
 
@@ -305,17 +584,65 @@ public class Main {
     }
 
     private static void findText() {
-        String searchText = JOptionPane.showInputDialog(frame, "\u0412\u0432\u0435\u0434\u0438\u0442\u0435 \u0442\u0435\u043a\u0441\u0442 \u0434\u043b\u044f \u043f\u043e\u0438\u0441\u043a\u0430:");
-        if (searchText != null && !searchText.isEmpty()) {
-            lastSearchText = searchText;
-            lastSearchIndex = -1; // Сброс индекса перед началом нового поиска
-            highlightSearchResults(searchText); // Выделяем все совпадения
-            findNext(); // Перемещаемся к первому совпадению сразу
+        JComboBox<String> findField = createSearchField();
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("\u0412\u0432\u0435\u0434\u0438\u0442\u0435 \u0442\u0435\u043a\u0441\u0442 \u0434\u043b\u044f \u043f\u043e\u0438\u0441\u043a\u0430:"));
+        panel.add(findField);
+        addSearchOptions(panel);
+
+        int option = JOptionPane.showConfirmDialog(frame, panel, "Найти", JOptionPane.OK_CANCEL_OPTION);
+        if (option == JOptionPane.OK_OPTION) {
+            SearchQuery query = readSearchQuery(findField);
+            if (query != null) {
+                lastQuery = query;
+                lastSearchIndex = -1; // Сброс индекса перед началом нового поиска
+                highlightSearchResults(); // Выделяем все совпадения
+                findNext(); // Перемещаемся к первому совпадению сразу
+            }
         }
     }
 
+    // Поле поиска с историей последних запросов
+    private static JComboBox<String> createSearchField() {
+        JComboBox<String> field = new JComboBox<>(searchHistory);
+        field.setEditable(true);
+        return field;
+    }
+
+    private static void addSearchOptions(JPanel panel) {
+        panel.add(regexOption);
+        panel.add(matchCaseOption);
+        panel.add(wholeWordOption);
+    }
+
+    // Запрос из поля поиска и флажков режимов; null, если строка пуста или выражение неверно
+    private static SearchQuery readSearchQuery(JComboBox<String> field) {
+        Object item = field.getEditor().getItem();
+        String text = item == null ? "" : item.toString();
+        if (text.isEmpty()) {
+            return null;
+        }
+        SearchQuery query = new SearchQuery(text, regexOption.isSelected(), matchCaseOption.isSelected(), wholeWordOption.isSelected());
+        try {
+            // Шаблон компилируется один раз и дальше берётся из PatternCache
+            query.getPattern();
+        } catch (PatternSyntaxException e) {
+            JOptionPane.showMessageDialog(frame, "Неверное регулярное выражение: " + e.getDescription());
+            return null;
+        }
+
+        // Последний запрос - первым в истории
+        searchHistory.removeElement(text);
+        searchHistory.insertElementAt(text, 0);
+        if (searchHistory.getSize() > SEARCH_HISTORY_SIZE) {
+            searchHistory.removeElementAt(SEARCH_HISTORY_SIZE);
+        }
+        searchHistory.setSelectedItem(text);
+        return query;
+    }
+
     private static void findNext() {
-        if (lastSearchText == null || lastSearchText.isEmpty()) {
+        if (lastQuery == null) {
             JOptionPane.showMessageDialog(frame, "\u0421\u043d\u0430\u0447\u0430ла используйте функцию '\u041d\u0430\u0439т\u0438'.");
             return;
         }
@@ -324,20 +651,16 @@ public class Main {
             // Удаляем текущее выделение, если оно есть
             removeCurrentHighlight(editorPane);
 
-            String text = editorPane.getDocument().getText(0, editorPane.getDocument().getLength());
-            lastSearchIndex = text.indexOf(lastSearchText, lastSearchIndex + 1);
+            lastSearchIndex = getSearchIndex().next(lastSearchIndex);
             if (lastSearchIndex != -1) {
-                // Удаляем выделение текущего совпадения из всех общих выделений
-                removeSpecificHighlight(editorPane, lastSearchIndex, lastSearchIndex + lastSearchText.length());
-
-                // Устанавливаем новое выделение красным цветом
-                setCurrentHighlight(lastSearchIndex, lastSearchIndex + lastSearchText.length());
+                // Устанавливаем новое выделение красным цветом поверх общей подсветки
+                setCurrentHighlight(lastSearchIndex, getSearchIndex().endOf(lastSearchIndex));
 
                 // Устанавливаем каретку на найденное совпадение
                 editorPane.setCaretPosition(lastSearchIndex);
 
                 // Прокручиваем к видимой области с совпадением
-                editorPane.scrollRectToVisible(editorPane.modelToView(lastSearchIndex));
+                editorPane.scrollRectToVisible(editorPane.modelToView2D(lastSearchIndex).getBounds());
             } else {
                 JOptionPane.showMessageDialog(frame, "\u0422\u0435кст не найден.");
                 lastSearchIndex = -1; // Сброс индекса, чтобы начать поиск заново при следующем вызове
@@ -347,20 +670,8 @@ public class Main {
         }
     }
 
-    private static void removeSpecificHighlight(JTextComponent textComp, int start, int end) {
-        Highlighter highlighter = textComp.getHighlighter();
-        Highlighter.Highlight[] highlights = highlighter.getHighlights();
-
-        for (Highlighter.Highlight highlight : highlights) {
-            if (highlight.getPainter() == allMatchesHighlighter && highlight.getStartOffset() == start && highlight.getEndOffset() == end) {
-                highlighter.removeHighlight(highlight);
-                break;
-            }
-        }
-    }
-
     private static void findPrevious() {
-        if (lastSearchText == null || lastSearchText.isEmpty()) {
+        if (lastQuery == null) {
             JOptionPane.showMessageDialog(frame, "Сначала используйте функцию 'Найти'.");
             return;
         }
@@ -369,42 +680,74 @@ public class Main {
             // Удаляем текущее выделение, если оно есть
             removeCurrentHighlight(editorPane);
 
-            String text = editorPane.getDocument().getText(0, editorPane.getDocument().getLength());
-            lastSearchIndex = text.lastIndexOf(lastSearchText, lastSearchIndex - 1);
+            lastSearchIndex = getSearchIndex().previous(lastSearchIndex);
             if (lastSearchIndex != -1) {
-                setCurrentHighlight(lastSearchIndex, lastSearchIndex + lastSearchText.length());
+                setCurrentHighlight(lastSearchIndex, getSearchIndex().endOf(lastSearchIndex));
 
                 // Устанавливаем каретку на найденное совпадение
                 editorPane.setCaretPosition(lastSearchIndex);
 
                 // Прокручиваем к видимой области с совпадением
-                editorPane.scrollRectToVisible(editorPane.modelToView(lastSearchIndex));
+                editorPane.scrollRectToVisible(editorPane.modelToView2D(lastSearchIndex).getBounds());
             } else {
                 JOptionPane.showMessageDialog(frame, "Текст не найден.");
-                lastSearchIndex = text.length(); // Переместиться к концу, чтобы начать с конца при следующем поиске назад
+                lastSearchIndex = editorPane.getDocument().getLength(); // Переместиться к концу, чтобы начать с конца при следующем поиске назад
             }
         } catch (Exception e) {
             JOptionPane.showMessageDialog(frame, "Ошибка при поиске текста.");
         }
     }
 
-    private static void highlightSearchResults(String searchText) {
-        removeHighlights(editorPane); // Удаляем старые выделения
+    // Все совпадения рисует matchHighlighter прямо по индексу и только в видимой области
+    private static void highlightSearchResults() {
+        matchHighlighter.setMatches(getSearchIndex());
+    }
 
+    // Выполняет серию правок: каретка и индекс поиска обновляются один раз в конце,
+    // а не на каждое событие документа
+    private static void runBatchEdit(Runnable action) {
+        Document doc = editorPane.getDocument();
+        // Индекс поиска сдвигал бы все вхождения на каждой правке
+        dropSearchIndex();
+        removeCurrentHighlight(editorPane);
+
+        DefaultCaret caret = (DefaultCaret) editorPane.getCaret();
+        int policy = caret.getUpdatePolicy();
+        Position caretPosition = null;
         try {
-            Highlighter highlighter = editorPane.getHighlighter();
-            Document doc = editorPane.getDocument();
-            String text = doc.getText(0, doc.getLength());
-            int pos = 0;
-
-            // Выделяем все совпадения цветом YELLOW
-            while ((pos = text.indexOf(searchText, pos)) >= 0) {
-                highlighter.addHighlight(pos, pos + searchText.length(), allMatchesHighlighter);
-                pos += searchText.length();
-            }
+            caretPosition = doc.createPosition(editorPane.getCaretPosition());
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
+        caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        try {
+            action.run();
+        } finally {
+            caret.setUpdatePolicy(policy);
+            if (caretPosition != null) {
+                editorPane.setCaretPosition(Math.min(caretPosition.getOffset(), doc.getLength()));
+            }
+        }
+    }
+
+    private static void dropSearchIndex() {
+        if (searchIndex != null) {
+            searchIndex.dispose();
+            searchIndex = null;
+        }
+        matchHighlighter.setMatches(null);
+    }
+
+    // Индекс строится один раз на запрос и дальше обновляется вместе с документом
+    private static SearchIndex getSearchIndex() {
+        Document doc = editorPane.getDocument();
+        if (searchIndex == null || searchIndex.getDocument() != doc || !searchIndex.getQuery().equals(lastQuery)) {
+            if (searchIndex != null) {
+                searchIndex.dispose();
+            }
+            searchIndex = new SearchIndex(doc, lastQuery);
+        }
+        return searchIndex;
     }
 
     private static void setCurrentHighlight(int start, int end) {
@@ -417,17 +760,6 @@ public class Main {
         }
     }
 
-    private static void removeHighlights(JTextComponent textComp) {
-        Highlighter highlighter = textComp.getHighlighter();
-        Highlighter.Highlight[] highlights = highlighter.getHighlights();
-
-        for (Highlighter.Highlight highlight : highlights) {
-            if (highlight.getPainter() == allMatchesHighlighter) {
-                highlighter.removeHighlight(highlight);
-            }
-        }
-    }
-
     private static void removeCurrentHighlight(JTextComponent textComp) {
         if (currentHighlight != null) {
             Highlighter highlighter = textComp.getHighlighter();
@@ -440,52 +772,51 @@ public class Main {
     private static Object currentHighlight = null;
 
     // Определяем Highlighter для всех совпадений и текущего совпадения
-    private static final Highlighter.HighlightPainter allMatchesHighlighter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+    private static final MatchHighlighter matchHighlighter = new MatchHighlighter(Color.YELLOW);
     private static final Highlighter.HighlightPainter currentMatchHighlighter = new DefaultHighlighter.DefaultHighlightPainter(Color.RED);
 
 
     private static void replaceText() {
-        JPanel panel = new JPanel(new GridLayout(2, 2));
-        JTextField findField = new JTextField(10);
+        JPanel panel = new JPanel(new GridLayout(0, 2));
+        JComboBox<String> findField = createSearchField();
         JTextField replaceField = new JTextField(10);
         panel.add(new JLabel("Найти:"));
         panel.add(findField);
         panel.add(new JLabel("Заменить на:"));
         panel.add(replaceField);
+        JPanel options = new JPanel(new GridLayout(0, 1));
+        addSearchOptions(options);
+        panel.add(options);
 
         int option = JOptionPane.showConfirmDialog(frame, panel, "Заменить текст", JOptionPane.OK_CANCEL_OPTION);
         if (option == JOptionPane.OK_OPTION) {
-            String findText = findField.getText();
+            SearchQuery query = readSearchQuery(findField);
             String replaceText = replaceField.getText();
             try {
-                String content = editorPane.getDocument().getText(0, editorPane.getDocument().getLength());
-
-                // Проверяем все вхождения слова и заменяем его вручную
-                StringBuilder newContent = new StringBuilder();
-                int index = 0;
-                int findLength = findText.length();
-
-                while (index < content.length()) {
-                    int foundIndex = content.indexOf(findText, index);
-                    if (foundIndex == -1) {
-                        newContent.append(content.substring(index));
-                        break;
-                    }
-                    // Проверяем, является ли найденный текст отдельным словом
-                    boolean isSeparateWord = (foundIndex == 0 || !Character.isLetterOrDigit(content.charAt(foundIndex - 1)))
-                            && (foundIndex + findLength == content.length() || !Character.isLetterOrDigit(content.charAt(foundIndex + findLength)));
-                    if (isSeparateWord) {
-                        newContent.append(content, index, foundIndex);
-                        newContent.append(replaceText);
-                        index = foundIndex + findLength;
-                    } else {
-                        newContent.append(content.charAt(index));
-                        index++;
-                    }
+                if (query == null) {
+                    return;
+                }
+                Document doc = editorPane.getDocument();
+                ReplaceEngine.Matches matches = ReplaceEngine.findMatches(doc, query, replaceText);
+                if (matches.size() == 0) {
+                    JOptionPane.showMessageDialog(frame, "Текст не найден.");
+                    return;
                 }
 
-                // Обновляем текст в editorPane
-                editorPane.setText(newContent.toString());
+                // Все замены попадают в историю отмены одной правкой
+                BoundedUndoManager.Batch edit = new BoundedUndoManager.Batch("Заменить", Main::runBatchEdit);
+                undoManager.addEdit(edit);
+                try {
+                    runBatchEdit(() -> {
+                        try {
+                            ReplaceEngine.replaceAll(doc, matches, replaceText);
+                        } catch (BadLocationException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                } finally {
+                    edit.end();
+                }
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(frame, "Ошибка при замене текста.");
             }
@@ -497,22 +828,19 @@ public class Main {
         try {
             int line = Integer.parseInt(lineStr);
 
-            // Получаем корневой элемент документа
-            Element root = editorPane.getDocument().getDefaultRootElement();
-
             // Проверяем, что номер строки находится в пределах допустимого диапазона
-            if (line < 1 || line > root.getElementCount()) {
+            if (line < 1 || line > lineIndex.getLineCount()) {
                 throw new IndexOutOfBoundsException("Неверный номер строки");
             }
 
             // Получаем позицию начала указанной строки
-            int position = root.getElement(line - 1).getStartOffset();
+            int position = lineIndex.getLineStart(line - 1);
 
             // Устанавливаем каретку на эту позицию
             editorPane.setCaretPosition(position);
 
             // Прокручиваем к видимой области, чтобы выбранная строка была видна
-            editorPane.scrollRectToVisible(editorPane.modelToView(position));
+            editorPane.scrollRectToVisible(editorPane.modelToView2D(position).getBounds());
 
             // Устанавливаем фокус на редактор, чтобы обновить отображение
             editorPane.requestFocusInWindow();
@@ -557,8 +885,7 @@ public class Main {
 
             if (start != end) {
                 StyledDocument doc = (StyledDocument) editorPane.getDocument();
-                SimpleAttributeSet attr = new SimpleAttributeSet();
-                StyleConstants.setForeground(attr, newColor);
+                AttributeSet attr = attributePool.of(StyleConstants.Foreground, newColor);
                 doc.setCharacterAttributes(start, end - start, attr, false);
             } else {
                 JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения цвета.");
@@ -574,8 +901,7 @@ public class Main {
 
             if (start != end) { // Если есть выделенный текст
                 StyledDocument doc = (StyledDocument) editorPane.getDocument();
-                SimpleAttributeSet attr = new SimpleAttributeSet();
-                StyleConstants.setBackground(attr, newColor);
+                AttributeSet attr = attributePool.of(StyleConstants.Background, newColor);
 
                 // Применяем атрибуты к выделенному тексту
                 doc.setCharacterAttributes(start, end - start, attr, false);
@@ -589,38 +915,74 @@ public class Main {
     static void addWordLikeMenu() {
         JTabbedPane tabbedPane = new JTabbedPane();
 
+        // Вкладки собираются при первом выборе; при запуске открыта только "Файл"
+        addLazyTab(tabbedPane, "Файл", Main::createFileTab);
+        addLazyTab(tabbedPane, "Главная", Main::createHomeTab);
+        addLazyTab(tabbedPane, "Изменить", Main::createEditTab);
+
+//        Панель для вкладки "Настройки"
+//        JPanel settingsPanel = new JPanel();
+//        tabbedPane.addTab("Настройки", settingsPanel);
+
+        frame.add(tabbedPane, BorderLayout.NORTH);
+    }
+
+    // Вкладка ленты: до первого выбора пуста, содержимое строится один раз при выборе
+    private static void addLazyTab(JTabbedPane tabbedPane, String title, Supplier<JComponent> content) {
+        JPanel holder = new JPanel(new BorderLayout());
+        tabbedPane.addTab(title, holder);
+        if (tabbedPane.getSelectedComponent() == holder) {
+            holder.add(content.get());
+            return;
+        }
+        tabbedPane.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (tabbedPane.getSelectedComponent() == holder) {
+                    tabbedPane.removeChangeListener(this);
+                    holder.add(content.get());
+                    holder.revalidate();
+                }
+            }
+        });
+    }
+
+    private static JComponent createFileTab() {
         // Панель для вкладки "Файл"
         JPanel filePanel = new JPanel(new GridLayout(2, 3, 10, 10));
         filePanel.add(createMenuButton("Создать", e -> createNewFile()));
         filePanel.add(createMenuButton("Открыть", e -> openFile()));
+        filePanel.add(createMenuButton("Открыть большой файл", e -> LargeFileViewer.open(frame)));
         filePanel.add(createMenuButton("Сохранить", e -> saveFile(true)));
         filePanel.add(createMenuButton("Сохранить как", e -> saveAsFile()));
         filePanel.add(createMenuButton("Печать", e -> printFile()));
         filePanel.add(createMenuButton("Закрыть", e -> closeFile()));
-        tabbedPane.addTab("Файл", filePanel);
+        return filePanel;
+    }
 
+    private static JComponent createHomeTab() {
         // Панель для вкладки "Главная"
         JPanel homePanel = new JPanel(new FlowLayout());
 
-        // Выпадающий список для выбора шрифта
-        String[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
-        JComboBox<String> fontComboBox = new JComboBox<>(fonts);
+        // Выпадающий список для выбора шрифта; семейства шрифтов подгружаются в фоне
+        JComboBox<String> fontComboBox = new JComboBox<>(new String[]{"Times New Roman"});
         fontComboBox.setSelectedItem("Times New Roman");
+        loadFontFamilies(fontComboBox);
 
-        fontComboBox.addActionListener(e -> {
+        fontComboBox.addActionListener(ActionMetrics.action("Шрифт", e -> {
             String selectedFont = (String) fontComboBox.getSelectedItem();
             applyFont(selectedFont, -1);
-        });
+        }));
 
         // Выпадающий список для выбора размера шрифта
         Integer[] fontSizes = {8, 10, 12, 14, 16, 18, 20, 22, 24, 26, 28, 30};
         JComboBox<Integer> sizeComboBox = new JComboBox<>(fontSizes);
         sizeComboBox.setSelectedItem(14);
 
-        sizeComboBox.addActionListener(e -> {
+        sizeComboBox.addActionListener(ActionMetrics.action("Размер шрифта", e -> {
             int selectedSize = (int) sizeComboBox.getSelectedItem();
             applyFont(null, selectedSize);
-        });
+        }));
 
         // Добавляем элементы на панель
         JPanel fontPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -629,57 +991,17 @@ public class Main {
         homePanel.add(fontPanel);
 
         // Добавление слушателя для синхронизации выбора шрифта и размера с выделенным текстом
-        editorPane.addCaretListener(e -> {
+        editorPane.addCaretListener(ActionMetrics.caret("Шрифт выделения", e -> {
             int start = editorPane.getSelectionStart();
             int end = editorPane.getSelectionEnd();
 
             if (start != end) {
-                StyledDocument doc = (StyledDocument) editorPane.getDocument();
-
-                String currentFont = null;
-                int currentFontSize = -1;
-                boolean multipleFonts = false;
-                boolean multipleSizes = false;
-
-                for (int i = start; i < end; i++) {
-                    Element element = doc.getCharacterElement(i);
-                    AttributeSet attributes = element.getAttributes();
-
-                    // Проверка шрифта
-                    String font = StyleConstants.getFontFamily(attributes);
-                    if (currentFont == null) {
-                        currentFont = font;
-                    } else if (!currentFont.equals(font)) {
-                        multipleFonts = true;
-                    }
-
-                    // Проверка размера шрифта
-                    int fontSize = StyleConstants.getFontSize(attributes);
-                    if (currentFontSize == -1) {
-                        currentFontSize = fontSize;
-                    } else if (currentFontSize != fontSize) {
-                        multipleSizes = true;
-                    }
-
-                    if (multipleFonts && multipleSizes) {
-                        break; // Дальнейшие проверки не нужны, так как уже выявлены разные значения
-                    }
-                }
-
-                // Обновление значений в JComboBox
-                if (multipleFonts) {
-                    fontComboBox.setSelectedItem(null); // Показать, что шрифты различаются
-                } else {
-                    fontComboBox.setSelectedItem(currentFont);
-                }
-
-                if (multipleSizes) {
-                    sizeComboBox.setSelectedItem(null); // Показать, что размеры различаются
-                } else {
-                    sizeComboBox.setSelectedItem(currentFontSize);
-                }
+                // null в списке показывает, что шрифты или размеры в выделении различаются
+                SelectionFont font = SelectionFont.of((StyledDocument) editorPane.getDocument(), start, end);
+                fontComboBox.setSelectedItem(font.family);
+                sizeComboBox.setSelectedItem(font.size);
             }
-        });
+        }));
         // Добавляем остальные кнопки форматирования
         homePanel.add(createMenuButton("Формат по образцу", e -> copyFormat()));
         homePanel.add(createMenuButton("Применить формат", e -> applyFormat()));
@@ -700,8 +1022,10 @@ public class Main {
         homePanel.add(createMenuButton("Многоуровневая нумерация", e -> toggleMultilevelNumbering()));
         homePanel.add(createMenuButton("Заливка", e -> applyBackgroundFill()));
 
-        tabbedPane.addTab("Главная", homePanel);
+        return homePanel;
+    }
 
+    private static JComponent createEditTab() {
         // Панель для вкладки "Изменить" с GridLayout
         JPanel editPanel = new JPanel(new GridLayout(3, 4, 10, 10));
 //        editPanel.add(createMenuButton("Отменить"));
@@ -716,18 +1040,35 @@ public class Main {
         editPanel.add(createMenuButton("Перейти", e -> goToLine()));
         editPanel.add(createMenuButton("Выбрать все", e -> selectAllText()));
         editPanel.add(createMenuButton("Дата и время", e -> insertDateTime()));
-        tabbedPane.addTab("Изменить", editPanel);
+        return editPanel;
+    }
 
-//        Панель для вкладки "Настройки"
-//        JPanel settingsPanel = new JPanel();
-//        tabbedPane.addTab("Настройки", settingsPanel);
+    // Перечисление семейств шрифтов опрашивает каждый файл шрифта системы и занимает
+    // заметную долю запуска, поэтому выполняется в фоне; до того в списке только текущий шрифт
+    private static void loadFontFamilies(JComboBox<String> fontComboBox) {
+        new SwingWorker<String[], Void>() {
+            @Override
+            protected String[] doInBackground() {
+                return GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+            }
 
-        frame.add(tabbedPane, BorderLayout.NORTH);
+            @Override
+            protected void done() {
+                try {
+                    // Новая модель с тем же выбранным шрифтом: setModel не вызывает обработчик выбора
+                    DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(get());
+                    model.setSelectedItem(fontComboBox.getSelectedItem());
+                    fontComboBox.setModel(model);
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
     }
 
     private static JButton createMenuButton(String text, ActionListener action) {
         JButton button = new JButton(text);
-        button.addActionListener(action);
+        button.addActionListener(ActionMetrics.action(text, action));
         return button;
     }
 
@@ -743,7 +1084,7 @@ public class Main {
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
             AttributeSet attributes = doc.getCharacterElement(start).getAttributes();
-            copiedAttributes = new SimpleAttributeSet(attributes);
+            copiedAttributes = attributePool.intern(attributes);
             JOptionPane.showMessageDialog(frame, "Формат скопирован.");
         } else {
             JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для копирования формата.");
@@ -763,130 +1104,47 @@ public class Main {
     }
 
 
-    private static void toggleBold() {
+    // Включает стиль, если он есть не у всего выделения, иначе снимает его. Проверяются все
+    // участки выделения, а не только первый символ; соседние одинаковые участки склеиваются.
+    private static void toggleCharacterStyle(Object style) {
         int start = editorPane.getSelectionStart();
         int end = editorPane.getSelectionEnd();
 
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
+            boolean enabled = doc instanceof FormattedDocument
+                    ? ((FormattedDocument) doc).allRunsHave(start, end - start, style, Boolean.TRUE)
+                    : Boolean.TRUE.equals(doc.getCharacterElement(start).getAttributes().getAttribute(style));
 
-            // Проверяем, является ли выделенный текст уже полужирным
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isBold = StyleConstants.isBold(attributes);
-
-            // Устанавливаем или снимаем полужирный стиль
-            StyleConstants.setBold(attr, !isBold);
+            AttributeSet attr = attributePool.of(style, !enabled);
             doc.setCharacterAttributes(start, end - start, attr, false);
         } else {
             JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
         }
     }
 
-    private static void toggleItalic() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
-            // Проверяем, является ли выделенный текст уже курсивным
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isItalic = StyleConstants.isItalic(attributes);
+    private static void toggleBold() {
+        toggleCharacterStyle(StyleConstants.Bold);
+    }
 
-            // Устанавливаем или снимаем курсивный стиль
-            StyleConstants.setItalic(attr, !isItalic);
-            doc.setCharacterAttributes(start, end - start, attr, false);
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
-        }
+    private static void toggleItalic() {
+        toggleCharacterStyle(StyleConstants.Italic);
     }
 
     private static void toggleUnderline() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
-            // Проверяем, является ли выделенный текст уже подчеркнутым
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isUnderlined = StyleConstants.isUnderline(attributes);
-
-            // Устанавливаем или снимаем подчеркивание
-            StyleConstants.setUnderline(attr, !isUnderlined);
-            doc.setCharacterAttributes(start, end - start, attr, false);
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
-        }
+        toggleCharacterStyle(StyleConstants.Underline);
     }
 
     private static void toggleStrikethrough() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
-            // Проверяем, является ли выделенный текст уже зачеркнутым
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isStrikethrough = StyleConstants.isStrikeThrough(attributes);
-
-            // Устанавливаем или снимаем зачеркивание
-            StyleConstants.setStrikeThrough(attr, !isStrikethrough);
-            doc.setCharacterAttributes(start, end - start, attr, false);
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
-        }
+        toggleCharacterStyle(StyleConstants.StrikeThrough);
     }
 
     private static void toggleSubscript() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
-            // Проверяем, является ли выделенный текст уже подстрочным
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isSubscript = StyleConstants.isSubscript(attributes);
-
-            // Устанавливаем или снимаем подстрочный стиль
-            StyleConstants.setSubscript(attr, !isSubscript);
-            doc.setCharacterAttributes(start, end - start, attr, false);
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
-        }
+        toggleCharacterStyle(StyleConstants.Subscript);
     }
 
     private static void toggleSuperscript() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
-            // Проверяем, является ли выделенный текст уже надстрочным
-            Element element = doc.getCharacterElement(start);
-            AttributeSet attributes = element.getAttributes();
-            boolean isSuperscript = StyleConstants.isSuperscript(attributes);
-
-            // Устанавливаем или снимаем надстрочный стиль
-            StyleConstants.setSuperscript(attr, !isSuperscript);
-            doc.setCharacterAttributes(start, end - start, attr, false);
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для изменения стиля.");
-        }
+        toggleCharacterStyle(StyleConstants.Superscript);
     }
 
     private static void clearFormatting() {
@@ -895,7 +1153,7 @@ public class Main {
 
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet(); // Пустой набор атрибутов
+            AttributeSet attr = attributePool.getEmptySet(); // Пустой набор атрибутов
             doc.setCharacterAttributes(start, end - start, attr, true);
             JOptionPane.showMessageDialog(frame, "Форматирование очищено.");
         } else {
@@ -919,9 +1177,8 @@ public class Main {
                 // Преобразуем текст в противоположный регистр
                 String transformedText = isUpperCase ? selectedText.toLowerCase() : selectedText.toUpperCase();
 
-                // Заменяем выделенный текст новым
-                doc.remove(start, end - start);
-                doc.insertString(start, transformedText, null);
+                // Заменяем выделенный текст новым; в историю отмены попадает одна правка
+                undoManager.replace(doc, start, end - start, transformedText, null, "Регистр");
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(frame, "Ошибка при изменении регистра.");
             }
@@ -936,8 +1193,6 @@ public class Main {
 
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
             // Получаем текущий размер шрифта выделенного текста
             Element element = doc.getCharacterElement(start);
             AttributeSet attributes = element.getAttributes();
@@ -945,7 +1200,7 @@ public class Main {
 
             // Уменьшаем размер шрифта на 2 пункта, но не менее 2 пунктов
             int newFontSize = Math.max(currentFontSize - 2, 2);
-            StyleConstants.setFontSize(attr, newFontSize);
+            AttributeSet attr = attributePool.of(StyleConstants.FontSize, newFontSize);
 
             // Применяем новый размер шрифта к выделенному тексту
             doc.setCharacterAttributes(start, end - start, attr, false);
@@ -960,8 +1215,6 @@ public class Main {
 
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            SimpleAttributeSet attr = new SimpleAttributeSet();
-
             // Получаем текущий размер шрифта выделенного текста
             Element element = doc.getCharacterElement(start);
             AttributeSet attributes = element.getAttributes();
@@ -969,7 +1222,7 @@ public class Main {
 
             // Увеличиваем размер шрифта на 2 пункта
             int newFontSize = currentFontSize + 2;
-            StyleConstants.setFontSize(attr, newFontSize);
+            AttributeSet attr = attributePool.of(StyleConstants.FontSize, newFontSize);
 
             // Применяем новый размер шрифта к выделенному тексту
             doc.setCharacterAttributes(start, end - start, attr, false);
@@ -979,163 +1232,59 @@ public class Main {
     }
 
     private static void toggleBullets() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            try {
-                // Получаем выделенный текст
-                String selectedText = doc.getText(start, end - start);
-                AttributeSet originalAttributes = doc.getCharacterElement(start).getAttributes();
-
-                // Разделяем текст на строки
-                String[] lines = selectedText.split("\n");
-
-                // Проверяем, все ли строки уже имеют маркер
-                boolean allLinesMarked = true;
-                for (String line : lines) {
-                    if (!line.trim().startsWith("•")) {
-                        allLinesMarked = false;
-                        break;
-                    }
-                }
-
-                // Добавляем или удаляем маркеры
-                StringBuilder modifiedText = new StringBuilder();
-                for (String line : lines) {
-                    if (allLinesMarked) {
-                        // Если все строки с маркерами, удаляем их
-                        modifiedText.append(line.replaceFirst("•\\s*", "")).append("\n");
-                    } else {
-                        // Иначе добавляем маркер
-                        modifiedText.append("• ").append(line).append("\n");
-                    }
-                }
-
-                // Удаляем выделенный текст и вставляем обновленный с сохранением атрибутов
-                doc.remove(start, end - start);
-                doc.insertString(start, modifiedText.toString(), originalAttributes);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(frame, "Ошибка при добавлении маркеров.");
-            }
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для добавления маркеров.");
-        }
+        toggleList(ListFormatter.BULLET, ListFormatter::addBullets, "Маркеры",
+                "Ошибка при добавлении маркеров.", "Пожалуйста, выделите текст для добавления маркеров.");
     }
 
     private static void toggleNumbering() {
-        int start = editorPane.getSelectionStart();
-        int end = editorPane.getSelectionEnd();
-
-        if (start != end) {
-            StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            try {
-                // Получаем выделенный текст
-                String selectedText = doc.getText(start, end - start);
-                AttributeSet originalAttributes = doc.getCharacterElement(start).getAttributes();
-
-                // Разделяем текст на строки
-                String[] lines = selectedText.split("\n");
-
-                // Проверяем, все ли строки уже имеют нумерацию
-                boolean allLinesNumbered = true;
-                for (String line : lines) {
-                    if (!line.trim().matches("^\\d+\\.\\s.*")) {
-                        allLinesNumbered = false;
-                        break;
-                    }
-                }
+        toggleList(ListFormatter.NUMBER, ListFormatter::addNumbers, "Нумерация",
+                "Ошибка при добавлении нумерации.", "Пожалуйста, выделите текст для добавления нумерации.");
+    }
 
-                // Добавляем или удаляем номера
-                StringBuilder modifiedText = new StringBuilder();
-                int lineNumber = 1;
-                for (String line : lines) {
-                    if (allLinesNumbered) {
-                        // Если все строки с номерами, удаляем их
-                        modifiedText.append(line.replaceFirst("^\\d+\\.\\s*", "")).append("\n");
-                    } else {
-                        // Иначе добавляем номер
-                        modifiedText.append(lineNumber).append(". ").append(line).append("\n");
-                        lineNumber++;
-                    }
-                }
+    private static void toggleMultilevelNumbering() {
+        toggleList(ListFormatter.MULTILEVEL_NUMBER, ListFormatter::addMultilevelNumbers, "Многоуровневая нумерация",
+                "Ошибка при добавлении многоуровневой нумерации.",
+                "Пожалуйста, выделите текст для добавления многоуровневой нумерации.");
+    }
 
-                // Удаляем выделенный текст и вставляем обновленный
-                doc.remove(start, end - start);
-                doc.insertString(start, modifiedText.toString(), originalAttributes);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(frame, "Ошибка при добавлении нумерации.");
-            }
-        } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для добавления нумерации.");
-        }
+    // Правка списка в абзацах выделения
+    private interface ListEdit {
+        void apply(StyledDocument doc, int start, int end) throws BadLocationException;
     }
 
-    private static void toggleMultilevelNumbering() {
+    // Если все абзацы выделения уже размечены - снимает разметку, иначе добавляет.
+    // Меняются только начала абзацев, все правки отменяются одним шагом.
+    private static void toggleList(Pattern marker, ListEdit add, String name, String error, String noSelection) {
         int start = editorPane.getSelectionStart();
         int end = editorPane.getSelectionEnd();
 
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
             try {
-                // Получаем выделенный текст
-                String selectedText = doc.getText(start, end - start);
-                AttributeSet originalAttributes = doc.getCharacterElement(start).getAttributes();
-
-                // Разделяем текст на строки
-                String[] lines = selectedText.split("\n");
-
-                // Проверяем, все ли строки уже имеют многоуровневую нумерацию
-                boolean allLinesNumbered = true;
-                for (String line : lines) {
-                    if (!line.trim().matches("^\\d+(\\.\\d+)*\\.\\s+.*")) {
-                        allLinesNumbered = false;
-                        break;
-                    }
-                }
-
-                // Добавляем или удаляем многоуровневую нумерацию
-                StringBuilder modifiedText = new StringBuilder();
-                for (String line : lines) {
-                    int indentLevel = countLeadingTabsOrSpaces(line);
-                    if (allLinesNumbered) {
-                        // Если все строки уже пронумерованы, удаляем номера
-                        modifiedText.append(line.replaceFirst("^\\d+(\\.\\d+)*\\.\\s*", "")).append("\n");
-                    } else {
-                        // Генерируем номер для текущего уровня отступа
-                        String numbering = generateNumbering(indentLevel);
-                        modifiedText.append(numbering).append(" ").append(line.trim()).append("\n");
-                    }
+                boolean marked = ListFormatter.allMarked(doc, start, end, marker);
+                BoundedUndoManager.Batch edit = new BoundedUndoManager.Batch(name, Main::runBatchEdit);
+                undoManager.addEdit(edit);
+                try {
+                    runBatchEdit(() -> {
+                        try {
+                            if (marked) {
+                                ListFormatter.removeMarkers(doc, start, end, marker);
+                            } else {
+                                add.apply(doc, start, end);
+                            }
+                        } catch (BadLocationException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                } finally {
+                    edit.end();
                 }
-
-                // Удаляем выделенный текст и вставляем обновленный
-                doc.remove(start, end - start);
-                doc.insertString(start, modifiedText.toString(), originalAttributes);
             } catch (Exception e) {
-                JOptionPane.showMessageDialog(frame, "Ошибка при добавлении многоуровневой нумерации.");
+                JOptionPane.showMessageDialog(frame, error);
             }
         } else {
-            JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для добавления многоуровневой нумерации.");
-        }
-    }
-
-    // Функция для подсчета количества начальных пробелов или табуляций
-    private static int countLeadingTabsOrSpaces(String line) {
-        int count = 0;
-        while (count < line.length() && (line.charAt(count) == ' ' || line.charAt(count) == '\t')) {
-            count++;
+            JOptionPane.showMessageDialog(frame, noSelection);
         }
-        return count;
-    }
-
-    // Функция для генерации нумерации в зависимости от уровня отступа
-    private static String generateNumbering(int level) {
-        StringBuilder numbering = new StringBuilder();
-        for (int i = 1; i <= level + 1; i++) {
-            numbering.append(i).append(".");
-        }
-        return numbering.toString();
     }
 
     private static void applyBackgroundFill() {
@@ -1146,10 +1295,8 @@ public class Main {
 
             if (start != end) {
                 StyledDocument doc = (StyledDocument) editorPane.getDocument();
-                SimpleAttributeSet attr = new SimpleAttributeSet();
-
                 // Устанавливаем цвет фона
-                StyleConstants.setBackground(attr, newColor);
+                AttributeSet attr = attributePool.of(StyleConstants.Background, newColor);
                 doc.setCharacterAttributes(start, end - start, attr, false);
             } else {
                 JOptionPane.showMessageDialog(frame, "Пожалуйста, выделите текст для применения заливки.");
@@ -1163,13 +1310,13 @@ public class Main {
         int end = editorPane.getSelectionEnd();
         if (start != end) {
             StyledDocument doc = (StyledDocument) editorPane.getDocument();
-            MutableAttributeSet attributes = new SimpleAttributeSet();
+            AttributeSet attributes = attributePool.getEmptySet();
 
             if (fontFamily != null) {
-                StyleConstants.setFontFamily(attributes, fontFamily);
+                attributes = attributePool.addAttribute(attributes, StyleConstants.FontFamily, fontFamily);
             }
             if (fontSize != -1) {
-                StyleConstants.setFontSize(attributes, fontSize);
+                attributes = attributePool.addAttribute(attributes, StyleConstants.FontSize, fontSize);
             }
 
             doc.setCharacterAttributes(start, end - start, attributes, false);
@@ -1191,7 +1338,6 @@ public class Main {
         toolBar.add(createMenuButton("Сохранить", e -> saveFile(false)));
         toolBar.add(createMenuButton("Сохранить как", e -> saveAsFile()));
         toolBar.add(createMenuButton("Печать", e -> printFile()));
-        editorPane.getDocument().addUndoableEditListener(undoManager);
         toolBar.add(createMenuButton("Отменить", e -> {
             if (undoManager.canUndo()) undoManager.undo();
         }));
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Текст файла, отображённого в память через FileChannel.map. Символы декодируются
+// на лету, в куче хранится только разреженный индекс блоков (для UTF-8), поэтому
+// расход памяти не зависит от размера файла. Файл не сканируется при открытии:
+// index() продлевает известную часть текста кусками в фоновом потоке, а length()
+// возвращает длину уже проиндексированной части.
+final class MappedText {
+    private static final int SEGMENT_SHIFT = 30; // Файл отображается кусками по 1 ГБ
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int BLOCK_SHIFT = 12;   // Для UTF-8 запоминаем начало каждого блока из 4096 символов
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final MappedByteBuffer[] segments;
+    private final long byteLength;
+    private final char[] table;    // Таблица декодирования для однобайтовых кодировок, null для UTF-8
+
+    // Проиндексированная часть: символы и байты; пишется потоком index(), читается под блокировкой
+    private int length = 0;
+    private long indexedBytes = 0;
+
+    // UTF-8: символьное и байтовое смещения начала каждого блока
+    private int[] blockChars = new int[16];
+    private long[] blockBytes = new long[16];
+    private int blocks = 1;
+
+    // Позиция, на которой остановилось последнее чтение: последовательное чтение не декодирует блок заново
+    private int cursorChar = -1;
+    private long cursorByte;
+
+    private MappedText(MappedByteBuffer[] segments, long byteLength, Charset charset) throws IOException {
+        this.segments = segments;
+        this.byteLength = byteLength;
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            table = null;
+        } else if (charset.newEncoder().maxBytesPerChar() == 1.0f) {
+            table = decodeTable(charset);
+            if (byteLength > Integer.MAX_VALUE - 1) {
+                throw new IOException("Файл слишком большой для просмотра");
+            }
+        } else {
+            throw new IOException("Кодировка " + charset.name() + " не поддерживается в режиме просмотра");
+        }
+    }
+
+    static MappedText open(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, 1L << SEGMENT_SHIFT));
+            }
+            // Отображение остаётся действительным и после закрытия канала
+            return new MappedText(segments, size, charset);
+        }
+    }
+
+    synchronized int length() {
+        return length;
+    }
+
+    long byteLength() {
+        return byteLength;
+    }
+
+    synchronized long indexedBytes() {
+        return indexedBytes;
+    }
+
+    synchronized boolean isComplete() {
+        return indexedBytes == byteLength;
+    }
+
+    // Копирует символы [pos, pos + len) проиндексированной части в dst
+    synchronized void getChars(int pos, char[] dst, int dstOffset, int len) {
+        if (len <= 0) {
+            return;
+        }
+        if (table != null) {
+            for (int i = 0; i < len; i++) {
+                dst[dstOffset + i] = table[byteAt(pos + (long) i) & 0xFF];
+            }
+            return;
+        }
+
+        int charPos;
+        long bytePos;
+        if (cursorChar >= 0 && cursorChar <= pos && pos - cursorChar < (1 << BLOCK_SHIFT)) {
+            charPos = cursorChar;
+            bytePos = cursorByte;
+        } else {
+            int block = Math.min(pos >>> BLOCK_SHIFT, blocks - 1);
+            if (blockChars[block] > pos) {
+                block--;
+            }
+            charPos = blockChars[block];
+            bytePos = blockBytes[block];
+        }
+
+        int end = pos + len;
+        while (charPos < end) {
+            long decoded = decodeUtf8(bytePos);
+            int codePoint = (int) decoded;
+            bytePos += decoded >>> 32;
+            if (codePoint >= 0x10000) {
+                if (charPos >= pos) {
+                    dst[dstOffset + charPos - pos] = Character.highSurrogate(codePoint);
+                }
+                charPos++;
+                if (charPos < end && charPos >= pos) {
+                    dst[dstOffset + charPos - pos] = Character.lowSurrogate(codePoint);
+                }
+                charPos++;
+                if (charPos > end) {
+                    return; // Остановились посреди суррогатной пары - курсор не запоминаем
+                }
+            } else {
+                if (charPos >= pos) {
+                    dst[dstOffset + charPos - pos] = (char) codePoint;
+                }
+                charPos++;
+            }
+        }
+        cursorChar = charPos;
+        cursorByte = bytePos;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    // Декодирует один символ UTF-8: младшие 32 бита - кодовая точка, старшие - длина в байтах.
+    // Некорректная последовательность даёт U+FFFD.
+    private long decodeUtf8(long pos) {
+        int b0 = byteAt(pos) & 0xFF;
+        if (b0 < 0x80) {
+            return (1L << 32) | b0;
+        }
+        int need;
+        int min;
+        int max;
+        int codePoint;
+        if (b0 >= 0xC2 && b0 <= 0xDF) {
+            need = 1;
+            codePoint = b0 & 0x1F;
+            min = 0x80;
+            max = 0xBF;
+        } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+            need = 2;
+            codePoint = b0 & 0x0F;
+            min = b0 == 0xE0 ? 0xA0 : 0x80; // Без избыточных форм
+            max = b0 == 0xED ? 0x9F : 0xBF; // Без суррогатов
+        } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+            need = 3;
+            codePoint = b0 & 0x07;
+            min = b0 == 0xF0 ? 0x90 : 0x80;
+            max = b0 == 0xF4 ? 0x8F : 0xBF;
+        } else {
+            return (1L << 32) | REPLACEMENT;
+        }
+        for (int i = 1; i <= need; i++) {
+            // Как и CharsetDecoder, заменяем одним U+FFFD всю корректную часть оборванной последовательности
+            if (pos + i >= byteLength) {
+                return ((long) i << 32) | REPLACEMENT;
+            }
+            int b = byteAt(pos + i) & 0xFF;
+            if (b < (i == 1 ? min : 0x80) || b > (i == 1 ? max : 0xBF)) {
+                return ((long) i << 32) | REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        return ((long) (need + 1) << 32) | codePoint;
+    }
+
+    // Продлевает проиндексированную часть примерно на maxChars символов и возвращает
+    // смещения переводов строки в добавленной части: документ расставляет по ним начала
+    // строк, не декодируя текст ещё раз. Вызывается одним фоновым потоком; для UTF-8
+    // декодирует продолжение и запоминает начала блоков, символы до length() при этом
+    // читаются как обычно
+    int[] index(int maxChars) throws IOException {
+        long pos;
+        long chars;
+        long nextBlock;
+        synchronized (this) {
+            pos = indexedBytes;
+            chars = length;
+            nextBlock = (long) blocks << BLOCK_SHIFT;
+        }
+        int[] newlines = new int[256];
+        int found = 0;
+        if (table != null) {
+            long end = Math.min(byteLength, pos + maxChars);
+            for (long i = pos; i < end; i++) {
+                if (table[byteAt(i) & 0xFF] == '\n') {
+                    if (found == newlines.length) {
+                        newlines = Arrays.copyOf(newlines, found * 2);
+                    }
+                    newlines[found++] = (int) i;
+                }
+            }
+            synchronized (this) {
+                indexedBytes = end;
+                length = (int) end;
+            }
+            return Arrays.copyOf(newlines, found);
+        }
+        // Новые начала блоков копятся отдельно и добавляются в индекс вместе с длиной
+        int[] newChars = new int[maxChars / (1 << BLOCK_SHIFT) + 2];
+        long[] newBytes = new long[newChars.length];
+        int added = 0;
+        long limit = chars + maxChars;
+        while (pos < byteLength && chars < limit) {
+            if (chars >= nextBlock) {
+                newChars[added] = (int) chars;
+                newBytes[added] = pos;
+                added++;
+                nextBlock += 1 << BLOCK_SHIFT;
+            }
+            long decoded = decodeUtf8(pos);
+            int codePoint = (int) decoded;
+            if (codePoint == '\n') {
+                if (found == newlines.length) {
+                    newlines = Arrays.copyOf(newlines, found * 2);
+                }
+                newlines[found++] = (int) chars;
+            }
+            pos += decoded >>> 32;
+            chars += codePoint >= 0x10000 ? 2 : 1;
+            if (chars > Integer.MAX_VALUE - 1) {
+                throw new IOException("Файл слишком большой для просмотра");
+            }
+        }
+        synchronized (this) {
+            if (blocks + added > blockChars.length) {
+                int capacity = Math.max(blocks + added, blockChars.length * 2);
+                blockChars = Arrays.copyOf(blockChars, capacity);
+                blockBytes = Arrays.copyOf(blockBytes, capacity);
+            }
+            System.arraycopy(newChars, 0, blockChars, blocks, added);
+            System.arraycopy(newBytes, 0, blockBytes, blocks, added);
+            blocks += added;
+            indexedBytes = pos;
+            length = (int) chars;
+        }
+        return Arrays.copyOf(newlines, found);
+    }
+
+    private static char[] decodeTable(Charset charset) {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            bytes[i] = (byte) i;
+        }
+        char[] result = new char[256];
+        try {
+            CharBuffer decoded = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .replaceWith(String.valueOf(REPLACEMENT))
+                    .decode(ByteBuffer.wrap(bytes));
+            decoded.get(result);
+        } catch (IOException e) {
+            for (int i = 0; i < 256; i++) {
+                result[i] = (char) i;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+
+// Подсветка всех вхождений поиска без объекта на каждое вхождение. Смещения берутся
+// прямо из SearchIndex, а рисуются только вхождения, попадающие в видимую область,
+// поэтому число совпадений не влияет на стоимость отрисовки и правки.
+final class MatchHighlighter extends DefaultHighlighter {
+    private final Highlighter.HighlightPainter painter;
+    private JTextComponent component;
+    private SearchIndex matches;
+
+    MatchHighlighter(Color color) {
+        painter = new DefaultHighlighter.DefaultHighlightPainter(color);
+    }
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        component = null;
+    }
+
+    // Задаёт вхождения для подсветки, null убирает подсветку
+    void setMatches(SearchIndex matches) {
+        this.matches = matches;
+        if (component != null) {
+            component.repaint();
+        }
+    }
+
+    SearchIndex getMatches() {
+        return matches;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        if (matches != null && component != null && matches.getDocument() == component.getDocument() && matches.size() > 0) {
+            paintVisibleMatches(g);
+        }
+        super.paint(g);
+    }
+
+    private void paintVisibleMatches(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = component.getVisibleRect();
+        }
+        int p0 = component.viewToModel2D(new Point(clip.x, clip.y));
+        int p1 = component.viewToModel2D(new Point(clip.x + clip.width, clip.y + clip.height));
+        if (p0 < 0 || p1 < 0) {
+            return;
+        }
+
+        Insets insets = component.getInsets();
+        Rectangle bounds = new Rectangle(insets.left, insets.top,
+                component.getWidth() - insets.left - insets.right,
+                component.getHeight() - insets.top - insets.bottom);
+
+        // Двоичным поиском находим первое вхождение, задевающее видимую область
+        int docLength = component.getDocument().getLength();
+        for (int i = matches.firstIndexEndingAfter(p0); i < matches.size(); i++) {
+            int start = matches.get(i);
+            if (start > p1) {
+                break;
+            }
+            int end = Math.min(matches.getEnd(i), docLength);
+            if (end > start) {
+                painter.paint(g, start, end, bounds, component);
+            }
+        }
+    }
+}
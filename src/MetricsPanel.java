@@ -0,0 +1,92 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.Map;
+
+// Показатели отзывчивости в строке состояния: время обработки событий EDT, число зависаний,
+// самое медленное действие и сколько запросов обновления строки состояния объединено,
+// раз в секунду. "Подробнее" показывает таблицу по всем действиям. Включается настройкой
+// metricsPanel=true.
+final class MetricsPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Действие", "Вызовов", "Среднее, мс", "p50, мс", "p99, мс", "Макс., мс"};
+
+    private final JLabel summaryLabel = new JLabel();
+
+    MetricsPanel() {
+        super(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        add(summaryLabel);
+        JButton detailsButton = new JButton("Подробнее");
+        detailsButton.addActionListener(e -> showDetails());
+        add(detailsButton);
+        new Timer(1000, e -> refresh()).start();
+        refresh();
+    }
+
+    private void refresh() {
+        StringBuilder text = new StringBuilder();
+        EdtMonitor monitor = EdtMonitor.get();
+        if (monitor != null) {
+            LatencyHistogram events = monitor.getDispatchTimes();
+            text.append(String.format("EDT: p50 %.1f мс, p99 %.1f мс, макс. %.0f мс | Зависаний: %d",
+                    events.getPercentileMillis(0.5), events.getPercentileMillis(0.99),
+                    events.getMaxMillis(), monitor.getStallCount()));
+        }
+
+        String slowest = null;
+        double slowestMillis = 0;
+        for (Map.Entry<String, LatencyHistogram> entry : ActionMetrics.snapshot().entrySet()) {
+            double p99 = entry.getValue().getPercentileMillis(0.99);
+            if (slowest == null || p99 > slowestMillis) {
+                slowest = entry.getKey();
+                slowestMillis = p99;
+            }
+        }
+        if (slowest != null) {
+            text.append(text.length() > 0 ? " | " : "")
+                    .append(String.format("Медленнее всего: %s (p99 %.1f мс)", slowest, slowestMillis));
+        }
+        UpdateScheduler status = Main.statusUpdates;
+        text.append(text.length() > 0 ? " | " : "")
+                .append(String.format("Строка состояния: запросов %d, объединено %d",
+                        status.getRequestCount(), status.getCoalescedCount()));
+        summaryLabel.setText(text.toString());
+    }
+
+    private void showDetails() {
+        DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column == 0 ? String.class : column == 1 ? Long.class : Double.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        EdtMonitor monitor = EdtMonitor.get();
+        if (monitor != null) {
+            model.addRow(row("Все события EDT", monitor.getDispatchTimes()));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : ActionMetrics.snapshot().entrySet()) {
+            model.addRow(row(entry.getKey(), entry.getValue()));
+        }
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(700, 300));
+        JOptionPane.showMessageDialog(this, scrollPane, "Показатели отзывчивости", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static Object[] row(String name, LatencyHistogram histogram) {
+        return new Object[]{name, histogram.getCount(), round(histogram.getMeanMillis()),
+                round(histogram.getPercentileMillis(0.5)), round(histogram.getPercentileMillis(0.99)),
+                round(histogram.getMaxMillis())};
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 100) / 100.0;
+    }
+}
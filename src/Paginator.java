@@ -0,0 +1,344 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.util.Arrays;
+
+// Разбиение документа на страницы по уже свёрстанным строкам редактора. Страница
+// вмещает imageableHeight формата страницы, пересчитанную в пиксели экрана с тем же
+// масштабом, с которым текст печатается (по ширине страницы). Разрывы хранятся как
+// Position и сдвигаются вместе с текстом. После правки пересчёт идёт от абзаца правки
+// и останавливается, как только новый разрыв совпал со старым за пределами правки:
+// дальше страницы не изменились. Если абзацы редактора верстаются в фоне, подсчёт
+// останавливается на первом ещё не свёрстанном абзаце (кроме абзацев правки - их
+// дорабатывает сам подсчёт), а число страниц за ним оценивается по высоте редактора.
+final class Paginator implements DocumentListener, Printable {
+    private final JTextComponent editor;
+    private Document document;
+    private PageFormat pageFormat;
+
+    private Position[] breaks = new Position[16]; // Начала страниц; breaks[0] - начало документа
+    private int[] tops = new int[16];             // Верх каждой страницы в координатах редактора
+    private int count = 0;
+    private int valid = 0;         // Сколько первых страниц не затронуто правками
+    private Position dirtyEnd;     // Конец последнего изменённого абзаца
+    private int pageHeight = -1;   // Высота страницы в пикселях редактора, для которой посчитаны разрывы
+    private int editorWidth = -1;  // Ширина редактора, для которой посчитаны разрывы
+    private boolean complete = true; // Разрывы посчитаны до конца документа
+
+    Paginator(JTextComponent editor, PageFormat pageFormat) {
+        this.editor = editor;
+        this.pageFormat = pageFormat;
+        setDocument(editor.getDocument());
+        editor.addPropertyChangeListener("document", e -> setDocument(editor.getDocument()));
+        editor.addPropertyChangeListener("font", e -> invalidateAll());
+        // Ширина определяет перенос строк и масштаб печати; высота меняется и от фоновой вёрстки
+        editor.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (editor.getWidth() != editorWidth) {
+                    editorWidth = editor.getWidth();
+                    invalidateAll();
+                }
+            }
+        });
+    }
+
+    private void setDocument(Document newDocument) {
+        if (document != null) {
+            document.removeDocumentListener(this);
+        }
+        document = newDocument;
+        document.addDocumentListener(this);
+        invalidateAll();
+    }
+
+    PageFormat getPageFormat() {
+        return pageFormat;
+    }
+
+    void setPageFormat(PageFormat format) {
+        pageFormat = format;
+        invalidateAll();
+    }
+
+    void invalidateAll() {
+        valid = 0;
+        count = 0;
+        dirtyEnd = null;
+    }
+
+    int getPageCount() {
+        ensure();
+        if (complete) {
+            return count;
+        }
+        // Хвост документа ещё верстается: его страницы оцениваются по высоте редактора
+        int rest = editor.getHeight() - tops[count - 1] - pageHeight;
+        return count + Math.max(0, (rest + pageHeight - 1) / pageHeight);
+    }
+
+    // Номер страницы (с нуля), на которой находится смещение
+    int getPageOfOffset(int offset) {
+        ensure();
+        int page = Math.max(0, lastBreakAtOrBefore(offset, count));
+        if (!complete && page == count - 1) {
+            // За последним посчитанным разрывом страница оценивается по положению абзаца
+            int top = paragraphTop(offset);
+            page += Math.max(0, (top - tops[page]) / pageHeight);
+            page = Math.min(page, getPageCount() - 1);
+        }
+        return page;
+    }
+
+    // Масштаб, в котором строки редактора переносятся на страницу
+    double getScale() {
+        int width = editor.getWidth();
+        return width > 0 ? Math.min(1.0, pageFormat.getImageableWidth() / width) : 1.0;
+    }
+
+    @Override
+    public int print(Graphics graphics, PageFormat format, int pageIndex) {
+        ensure();
+        if (pageIndex >= count) {
+            return NO_SUCH_PAGE;
+        }
+        int top = tops[pageIndex];
+        int bottom = pageIndex + 1 < count ? tops[pageIndex + 1] : editor.getHeight();
+        double scale = getScale();
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.translate(format.getImageableX(), format.getImageableY());
+            g.scale(scale, scale);
+            g.clipRect(0, 0, editor.getWidth(), bottom - top);
+            g.translate(0, -top);
+            Rectangle alloc = rootRect();
+            editor.getUI().getRootView(editor).paint(g, alloc);
+        } finally {
+            g.dispose();
+        }
+        return PAGE_EXISTS;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        invalidate(e.getOffset(), e.getOffset() + e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        invalidate(e.getOffset(), e.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        invalidate(e.getOffset(), e.getOffset() + e.getLength());
+    }
+
+    private void invalidate(int from, int to) {
+        if (count == 0) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        int paragraphStart = root.getElement(root.getElementIndex(from)).getStartOffset();
+        int paragraphEnd = root.getElement(root.getElementIndex(to)).getEndOffset();
+        // Страница, начинающаяся ровно с изменённого абзаца, сохраняет своё место
+        int last = lastBreakAtOrBefore(paragraphStart, count);
+        int keep = last >= 0 && breaks[last].getOffset() == paragraphStart
+                ? firstBreakAt(paragraphStart, last) + 1 : last + 1;
+        valid = Math.max(1, Math.min(valid, keep));
+        try {
+            if (dirtyEnd == null || dirtyEnd.getOffset() < paragraphEnd) {
+                dirtyEnd = document.createPosition(Math.min(paragraphEnd, document.getLength()));
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Досчитывает разрывы от последней неизменённой страницы
+    private void ensure() {
+        int width = editor.getWidth();
+        int height = (int) (pageFormat.getImageableHeight() / getScale());
+        if (height != pageHeight) {
+            pageHeight = height;
+            invalidateAll();
+        }
+        if (count > 0 && valid == count && complete) {
+            return;
+        }
+        if (width <= 0 || height <= 0 || !(document instanceof AbstractDocument)) {
+            // Редактор ещё не свёрстан - считаем документ одной страницей
+            count = 0;
+            addBreak(document.getStartPosition(), 0);
+            valid = count;
+            complete = true;
+            return;
+        }
+        ((AbstractDocument) document).readLock();
+        try {
+            paginate();
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        } finally {
+            ((AbstractDocument) document).readUnlock();
+        }
+    }
+
+    private void paginate() throws BadLocationException {
+        editor.getUI().modelToView2D(editor, 0, Position.Bias.Forward); // Вёрстка под размер, который задаёт сам UI
+        Rectangle alloc = rootRect();
+        View root = editor.getUI().getRootView(editor);
+        View section = root.getView(0);
+        Shape sectionAlloc = root.getChildAllocation(0, alloc);
+
+        // Старый хвост нужен для проверки совпадения разрывов
+        Position[] oldBreaks = count > valid ? Arrays.copyOfRange(breaks, valid, count) : new Position[0];
+        int[] oldTops = count > valid ? Arrays.copyOfRange(tops, valid, count) : new int[0];
+        int stableFrom = dirtyEnd != null ? dirtyEnd.getOffset() : 0;
+        if (valid == 0) {
+            count = 0;
+            addBreak(document.getStartPosition(), alloc.y);
+            valid = 1;
+        }
+        count = valid;
+        int pageTop = tops[count - 1];
+        int from = breaks[count - 1].getOffset();
+        int old = 0;
+        complete = true;
+
+        for (int p = section.getViewIndex(from, Position.Bias.Forward); p >= 0 && p < section.getViewCount(); p++) {
+            View paragraph = section.getView(p);
+            if (section instanceof AsyncSectionView) {
+                AsyncSectionView async = (AsyncSectionView) section;
+                if (!async.isLaidOut(p) && paragraph.getStartOffset() >= stableFrom) {
+                    // Дальше абзацы ждут фоновой вёрстки; подсчёт продолжится при следующем запросе
+                    complete = false;
+                    finish();
+                    return;
+                }
+                async.layout(p);
+            }
+            Shape paragraphAlloc = section.getChildAllocation(p, sectionAlloc);
+            if (paragraphAlloc == null) {
+                continue;
+            }
+            for (int r = 0; r < paragraph.getViewCount(); r++) {
+                View row = paragraph.getView(r);
+                int rowStart = row.getStartOffset();
+                if (rowStart <= from) {
+                    continue;
+                }
+                Shape rowAlloc = paragraph.getChildAllocation(r, paragraphAlloc);
+                if (rowAlloc == null) {
+                    continue;
+                }
+                Rectangle bounds = rowAlloc.getBounds();
+                if (bounds.y + bounds.height <= pageTop + pageHeight || bounds.y <= pageTop) {
+                    continue;
+                }
+                // Строка не помещается - с неё начинается новая страница
+                while (old < oldBreaks.length && oldBreaks[old].getOffset() < rowStart) {
+                    old++;
+                }
+                if (old < oldBreaks.length && oldBreaks[old].getOffset() == rowStart && rowStart > stableFrom) {
+                    // Дальше страницы совпадают со старыми, только сдвинуты по вертикали
+                    int shift = bounds.y - oldTops[old];
+                    for (; old < oldBreaks.length; old++) {
+                        addBreak(oldBreaks[old], oldTops[old] + shift);
+                    }
+                    finish();
+                    return;
+                }
+                addBreak(document.createPosition(rowStart), bounds.y);
+                pageTop = bounds.y;
+            }
+        }
+        finish();
+    }
+
+    private void finish() {
+        valid = count;
+        dirtyEnd = null;
+    }
+
+    // Верх абзаца со смещением offset в координатах редактора, в том числе по оценочной высоте
+    private int paragraphTop(int offset) {
+        if (!(document instanceof AbstractDocument)) {
+            return 0;
+        }
+        ((AbstractDocument) document).readLock();
+        try {
+            Rectangle alloc = rootRect();
+            View section = editor.getUI().getRootView(editor).getView(0);
+            Shape sectionAlloc = editor.getUI().getRootView(editor).getChildAllocation(0, alloc);
+            Shape paragraphAlloc = section.getChildAllocation(section.getViewIndex(offset, Position.Bias.Forward), sectionAlloc);
+            return paragraphAlloc != null ? paragraphAlloc.getBounds().y : 0;
+        } finally {
+            ((AbstractDocument) document).readUnlock();
+        }
+    }
+
+    // Область корневого вида. UI вычитает из ширины ещё и место под каретку, а вид с фоновой
+    // вёрсткой перестраивает абзацы под ширину любой переданной ему области
+    private Rectangle rootRect() {
+        Rectangle alloc = editorRect();
+        View section = editor.getUI().getRootView(editor).getView(0);
+        if (section instanceof AsyncSectionView && ((AsyncSectionView) section).getLayoutWidth() > 0) {
+            alloc.width = Math.round(((AsyncSectionView) section).getLayoutWidth());
+        }
+        return alloc;
+    }
+
+    private Rectangle editorRect() {
+        Insets insets = editor.getInsets();
+        return new Rectangle(insets.left, insets.top,
+                editor.getWidth() - insets.left - insets.right, editor.getHeight() - insets.top - insets.bottom);
+    }
+
+    private void addBreak(Position position, int top) {
+        if (count == breaks.length) {
+            breaks = Arrays.copyOf(breaks, count * 2);
+            tops = Arrays.copyOf(tops, count * 2);
+        }
+        breaks[count] = position;
+        tops[count] = top;
+        count++;
+    }
+
+    // Индекс последнего разрыва не дальше offset среди первых n или -1
+    private int lastBreakAtOrBefore(int offset, int n) {
+        int low = 0;
+        int high = n - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (breaks[mid].getOffset() <= offset) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    // Первый из разрывов, совпадающих с offset (после удаления текста их может быть несколько)
+    private int firstBreakAt(int offset, int last) {
+        int i = last;
+        while (i > 0 && breaks[i - 1].getOffset() == offset) {
+            i--;
+        }
+        return i;
+    }
+}
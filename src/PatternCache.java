@@ -0,0 +1,31 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Кэш скомпилированных регулярных выражений. Ключ - выражение вместе с флагами,
+// вытесняется давно не использованный шаблон, поэтому повторный поиск из истории
+// не компилирует выражение заново.
+final class PatternCache {
+    private static final int CAPACITY = 32;
+
+    private static final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private PatternCache() {
+    }
+
+    // Скомпилированный шаблон; бросает PatternSyntaxException для неверного выражения
+    static synchronized Pattern get(String expression, int flags) {
+        String key = flags + ":" + expression;
+        Pattern pattern = patterns.get(key);
+        if (pattern == null) {
+            pattern = Pattern.compile(expression, flags);
+            patterns.put(key, pattern);
+        }
+        return pattern;
+    }
+}
@@ -0,0 +1,428 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Содержимое документа в виде таблицы кусков: исходный текст берётся из отображённого
+// файла и не копируется, вставленный текст дописывается в буфер добавлений, а сам
+// документ описывается списком кусков (источник, начало, длина). Память в куче
+// растёт только с количеством правок.
+final class PieceTableContent implements AbstractDocument.Content {
+    // Уведомления об изменении текста, в том числе при отмене и повторе правок
+    interface Listener {
+        void inserted(int offset, int length, int newlines);
+
+        void removed(int offset, int length, int newlines);
+    }
+
+    private static final int ORIGINAL = 0;
+    private static final int ADDED = 1;
+    private static final int PARTIAL_LIMIT = 64 * 1024; // Максимум символов исходного файла за один частичный getChars
+
+    private final MappedText original;
+    private int originalLength = 0; // Сколько исходного текста уже вошло в таблицу
+    private char[] added = new char[1024];
+    private int addedLength = 0;
+
+    // Куски документа: источник, начало в источнике и длина
+    private int[] source = new int[16];
+    private int[] start = new int[16];
+    private int[] size = new int[16];
+    private int pieceCount = 0;
+    private int length = 0;
+
+    // Кусок, найденный последним: последовательный доступ не перебирает таблицу с начала
+    private int cachedPiece = 0;
+    private int cachedPieceOffset = 0;
+
+    private final ArrayList<WeakReference<Mark>> marks = new ArrayList<>();
+    private final char[] scratch = new char[8192];
+    private Listener listener;
+
+    PieceTableContent(MappedText original) {
+        this.original = original;
+        originalLength = original.length();
+        if (originalLength > 0) {
+            appendPiece(ORIGINAL, 0, originalLength);
+        }
+        // Как и GapContent, содержимое всегда заканчивается неявным переводом строки
+        added[addedLength++] = '\n';
+        appendPiece(ADDED, 0, 1);
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    int getPieceCount() {
+        return pieceCount;
+    }
+
+    // Добавляет часть исходного текста, проиндексированную после прошлого вызова, перед
+    // завершающим переводом строки и возвращает её длину; newlines - число переводов строки
+    // в ней, уже посчитанное при индексации. Пока файл индексируется, документ не правят,
+    // поэтому продлевается последний кусок исходного текста
+    synchronized int appendOriginal(int newlines) {
+        int from = originalLength;
+        int count = original.length() - from;
+        if (count <= 0) {
+            return 0;
+        }
+        originalLength += count;
+        int where = length - 1;
+        int index = splitAt(where);
+        if (index > 0 && source[index - 1] == ORIGINAL && start[index - 1] + size[index - 1] == from) {
+            size[index - 1] += count;
+        } else {
+            insertSlots(index, 1);
+            source[index] = ORIGINAL;
+            start[index] = from;
+            size[index] = count;
+        }
+        length += count;
+        resetCache();
+        updateMarksForInsert(where, count);
+        if (listener != null) {
+            listener.inserted(where, count, newlines);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Неверная позиция", offset);
+        }
+        Mark mark = new Mark(offset);
+        marks.add(new WeakReference<>(mark));
+        return mark;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Неверная позиция вставки", where);
+        }
+        int len = str.length();
+        if (addedLength + len > added.length) {
+            added = Arrays.copyOf(added, Math.max(addedLength + len, added.length * 2));
+        }
+        str.getChars(0, len, added, addedLength);
+        int addedStart = addedLength;
+        addedLength += len;
+
+        int[] pieces = {ADDED, addedStart, len};
+        paste(where, pieces, true);
+        return new InsertEdit(where, pieces, len);
+    }
+
+    @Override
+    public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Неверный диапазон удаления", where);
+        }
+        int[] pieces = cut(where, nitems);
+        return new RemoveEdit(where, pieces, nitems);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Неверный диапазон", where);
+        }
+        int index = findPiece(where);
+        if (index < pieceCount) {
+            int pieceEnd = cachedPieceOffset + size[index];
+            if (txt.isPartialReturn()) {
+                len = Math.min(len, pieceEnd - where);
+                if (source[index] == ORIGINAL) {
+                    len = Math.min(len, PARTIAL_LIMIT);
+                }
+            }
+            if (source[index] == ADDED && where + len <= pieceEnd) {
+                // Буфер добавлений только дописывается, поэтому его можно отдать без копирования
+                txt.array = added;
+                txt.offset = start[index] + where - cachedPieceOffset;
+                txt.count = len;
+                return;
+            }
+        }
+        char[] chars = new char[len];
+        copyChars(where, chars, 0, len);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    // Копирует символы [where, where + len) в dst без создания промежуточных объектов
+    synchronized void copyChars(int where, char[] dst, int dstOffset, int len) {
+        while (len > 0) {
+            int index = findPiece(where);
+            int inPiece = where - cachedPieceOffset;
+            int n = Math.min(len, size[index] - inPiece);
+            if (source[index] == ADDED) {
+                System.arraycopy(added, start[index] + inPiece, dst, dstOffset, n);
+            } else {
+                original.getChars(start[index] + inPiece, dst, dstOffset, n);
+            }
+            where += n;
+            dstOffset += n;
+            len -= n;
+        }
+    }
+
+    // Количество переводов строки в диапазоне
+    synchronized int countNewlines(int where, int len) {
+        int count = 0;
+        while (len > 0) {
+            int n = Math.min(len, scratch.length);
+            copyChars(where, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == '\n') {
+                    count++;
+                }
+            }
+            where += n;
+            len -= n;
+        }
+        return count;
+    }
+
+    // Вставляет куски в позицию where. Набор текста подряд продлевает последний кусок буфера добавлений.
+    private void paste(int where, int[] pieces, boolean extendTyping) {
+        int len = 0;
+        for (int i = 2; i < pieces.length; i += 3) {
+            len += pieces[i];
+        }
+        int index = splitAt(where);
+        if (extendTyping && pieces.length == 3 && index > 0 && source[index - 1] == ADDED
+                && start[index - 1] + size[index - 1] == pieces[1]) {
+            size[index - 1] += pieces[2];
+        } else {
+            int count = pieces.length / 3;
+            insertSlots(index, count);
+            for (int i = 0; i < count; i++) {
+                source[index + i] = pieces[i * 3];
+                start[index + i] = pieces[i * 3 + 1];
+                size[index + i] = pieces[i * 3 + 2];
+            }
+        }
+        length += len;
+        resetCache();
+        updateMarksForInsert(where, len);
+        if (listener != null) {
+            listener.inserted(where, len, countNewlines(where, len));
+        }
+    }
+
+    // Вырезает диапазон и возвращает его куски, чтобы правку можно было отменить без копии текста
+    private int[] cut(int where, int len) {
+        int newlines = countNewlines(where, len);
+        int first = splitAt(where);
+        int last = splitAt(where + len);
+        int count = last - first;
+        int[] pieces = new int[count * 3];
+        for (int i = 0; i < count; i++) {
+            pieces[i * 3] = source[first + i];
+            pieces[i * 3 + 1] = start[first + i];
+            pieces[i * 3 + 2] = size[first + i];
+        }
+        removeSlots(first, count);
+        length -= len;
+        resetCache();
+        updateMarksForRemove(where, len);
+        if (listener != null) {
+            listener.removed(where, len, newlines);
+        }
+        return pieces;
+    }
+
+    private int findPiece(int offset) {
+        int index = cachedPiece;
+        int pieceOffset = cachedPieceOffset;
+        while (index > 0 && offset < pieceOffset) {
+            index--;
+            pieceOffset -= size[index];
+        }
+        while (index < pieceCount && offset >= pieceOffset + size[index]) {
+            pieceOffset += size[index];
+            index++;
+        }
+        cachedPiece = index;
+        cachedPieceOffset = pieceOffset;
+        return index;
+    }
+
+    // Гарантирует границу кусков в offset и возвращает индекс куска, начинающегося там
+    private int splitAt(int offset) {
+        int index = findPiece(offset);
+        if (index == pieceCount || cachedPieceOffset == offset) {
+            return index;
+        }
+        int cut = offset - cachedPieceOffset;
+        insertSlots(index + 1, 1);
+        source[index + 1] = source[index];
+        start[index + 1] = start[index] + cut;
+        size[index + 1] = size[index] - cut;
+        size[index] = cut;
+        return index + 1;
+    }
+
+    private void appendPiece(int pieceSource, int pieceStart, int pieceSize) {
+        insertSlots(pieceCount, 1);
+        source[pieceCount - 1] = pieceSource;
+        start[pieceCount - 1] = pieceStart;
+        size[pieceCount - 1] = pieceSize;
+        length += pieceSize;
+    }
+
+    private void insertSlots(int index, int count) {
+        if (pieceCount + count > source.length) {
+            int capacity = Math.max(pieceCount + count, source.length * 2);
+            source = Arrays.copyOf(source, capacity);
+            start = Arrays.copyOf(start, capacity);
+            size = Arrays.copyOf(size, capacity);
+        }
+        int tail = pieceCount - index;
+        System.arraycopy(source, index, source, index + count, tail);
+        System.arraycopy(start, index, start, index + count, tail);
+        System.arraycopy(size, index, size, index + count, tail);
+        pieceCount += count;
+    }
+
+    private void removeSlots(int index, int count) {
+        int tail = pieceCount - index - count;
+        System.arraycopy(source, index + count, source, index, tail);
+        System.arraycopy(start, index + count, start, index, tail);
+        System.arraycopy(size, index + count, size, index, tail);
+        pieceCount -= count;
+    }
+
+    private void resetCache() {
+        cachedPiece = 0;
+        cachedPieceOffset = 0;
+    }
+
+    // Позиции сдвигаются так же, как в StringContent: позиция 0 остаётся на месте
+    private void updateMarksForInsert(int offset, int len) {
+        if (offset == 0) {
+            offset = 1;
+        }
+        for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext(); ) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= offset) {
+                mark.offset += len;
+            }
+        }
+    }
+
+    private void updateMarksForRemove(int offset, int len) {
+        int end = offset + len;
+        for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext(); ) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= end) {
+                mark.offset -= len;
+            } else if (mark.offset >= offset) {
+                mark.offset = offset;
+            }
+        }
+    }
+
+    private static final class Mark implements Position {
+        int offset;
+
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    // Отмена вставки вырезает её куски, повтор вставляет их обратно
+    private final class InsertEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int offset;
+        private final int[] pieces;
+        private final int length;
+
+        InsertEdit(int offset, int[] pieces, int length) {
+            this.offset = offset;
+            this.pieces = pieces;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                cut(offset, length);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                paste(offset, pieces, false);
+            }
+        }
+    }
+
+    private final class RemoveEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int offset;
+        private final int[] pieces;
+        private final int length;
+
+        RemoveEdit(int offset, int[] pieces, int length) {
+            this.offset = offset;
+            this.pieces = pieces;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                paste(offset, pieces, false);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                cut(offset, length);
+            }
+        }
+    }
+}
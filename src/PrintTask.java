@@ -0,0 +1,155 @@
+import javax.print.DocFlavor;
+import javax.print.StreamPrintService;
+import javax.print.StreamPrintServiceFactory;
+import javax.swing.JTextPane;
+import javax.swing.SwingWorker;
+import javax.swing.border.Border;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import javax.swing.text.StyledEditorKit;
+import java.awt.*;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterAbortException;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Печать в фоне. На EDT снимается только копия текста и структуры элементов документа,
+// дальше рабочий поток собирает из неё отдельный документ, верстает его в невидимом
+// редакторе той же ширины и шрифта, разбивает на страницы тем же Paginator и отдаёт
+// страницы PrinterJob по одной. Если задан файл, страницы пишутся в него в формате
+// PostScript через StreamPrintService, и принтер не нужен.
+final class PrintTask extends SwingWorker<Boolean, Void> {
+    private final PrinterJob job;
+    private final PageFormat pageFormat;
+    private final File output;
+
+    // Снимок редактора
+    private final DefaultStyledDocument.ElementSpec[] specs;
+    private final int width;
+    private final Font font;
+    private final Border border;
+
+    private volatile int pageCount = 0;
+
+    // Вызывается на EDT
+    PrintTask(JTextComponent editor, PrinterJob job, PageFormat pageFormat, File output) throws BadLocationException {
+        this.job = job;
+        this.pageFormat = pageFormat;
+        this.output = output;
+        this.specs = snapshot(editor.getDocument());
+        this.width = editor.getWidth();
+        this.font = editor.getFont();
+        this.border = editor.getBorder();
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    // Отменяет печать, в том числе уже отправленное задание
+    void stop() {
+        job.cancel();
+        cancel(false);
+    }
+
+    @Override
+    protected Boolean doInBackground() throws PrinterException, IOException, BadLocationException {
+        JTextPane pane = new JTextPane();
+        pane.setEditorKit(new StyledEditorKit());
+        FormattedDocument document = new FormattedDocument();
+        document.load(specs);
+        pane.setDocument(document);
+        pane.setFont(font);
+        pane.setBorder(border);
+        pane.setSize(width, 1);
+        pane.setSize(width, pane.getPreferredSize().height);
+
+        Paginator paginator = new Paginator(pane, pageFormat);
+        pageCount = paginator.getPageCount();
+        if (isCancelled()) {
+            return false;
+        }
+
+        job.setPrintable((graphics, format, pageIndex) -> {
+            if (isCancelled()) {
+                return Printable.NO_SUCH_PAGE;
+            }
+            setProgress(Math.min(100, pageIndex * 100 / Math.max(1, pageCount)));
+            return paginator.print(graphics, format, pageIndex);
+        }, pageFormat);
+
+        OutputStream stream = null;
+        try {
+            if (output != null) {
+                stream = new FileOutputStream(output);
+                job.setPrintService(postScriptService(stream));
+            }
+            job.print();
+        } catch (PrinterAbortException e) {
+            return false;
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+        setProgress(100);
+        return !isCancelled();
+    }
+
+    private static StreamPrintService postScriptService(OutputStream stream) throws PrinterException {
+        String mimeType = DocFlavor.BYTE_ARRAY.POSTSCRIPT.getMimeType();
+        StreamPrintServiceFactory[] factories = StreamPrintServiceFactory.lookupStreamPrintServiceFactories(
+                DocFlavor.SERVICE_FORMATTED.PRINTABLE, mimeType);
+        if (factories.length == 0) {
+            throw new PrinterException("Печать в PostScript недоступна");
+        }
+        return factories[0].getPrintService(stream);
+    }
+
+    // Каждый элемент получает свой кусок текста (ElementSpec копирует переданный массив целиком);
+    // наборы атрибутов документа неизменяемы и передаются как есть. Последний абзац
+    // остаётся без закрывающего тега, как ждёт FormattedDocument.load().
+    private static DefaultStyledDocument.ElementSpec[] snapshot(Document document) throws BadLocationException {
+        int length = document.getLength();
+        Segment segment = new Segment();
+        List<DefaultStyledDocument.ElementSpec> specs = new ArrayList<>();
+        Element root = document.getDefaultRootElement();
+        specs.add(new DefaultStyledDocument.ElementSpec(root.getAttributes().copyAttributes(),
+                DefaultStyledDocument.ElementSpec.StartTagType));
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            specs.add(new DefaultStyledDocument.ElementSpec(paragraph.getAttributes().copyAttributes(),
+                    DefaultStyledDocument.ElementSpec.StartTagType));
+            for (int j = 0; j < paragraph.getElementCount(); j++) {
+                Element leaf = paragraph.getElement(j);
+                // Завершающий перевод строки документа уже есть в новом документе
+                int start = leaf.getStartOffset();
+                int end = Math.min(leaf.getEndOffset(), length);
+                if (end > start) {
+                    document.getText(start, end - start, segment);
+                    char[] text = Arrays.copyOfRange(segment.array, segment.offset, segment.offset + segment.count);
+                    AttributeSet attributes = leaf.getAttributes().copyAttributes();
+                    specs.add(new DefaultStyledDocument.ElementSpec(attributes, DefaultStyledDocument.ElementSpec.ContentType,
+                            text, 0, text.length));
+                }
+            }
+            if (i + 1 < root.getElementCount()) {
+                specs.add(new DefaultStyledDocument.ElementSpec(null, DefaultStyledDocument.ElementSpec.EndTagType));
+            }
+        }
+        return specs.toArray(new DefaultStyledDocument.ElementSpec[0]);
+    }
+}
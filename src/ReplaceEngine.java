@@ -0,0 +1,150 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+
+// Замена всех вхождений правками документа вместо пересборки текста через setText.
+// Вхождения находятся за один проход, а заменяются с конца к началу, поэтому смещения
+// ещё не обработанных вхождений не сдвигаются. Каждая замена затрагивает только свой
+// абзац, а вставленный текст получает атрибуты заменённого.
+final class ReplaceEngine {
+    private ReplaceEngine() {
+    }
+
+    // Вхождения для замены по возрастанию и без перекрытий. Текст замены хранится
+    // для каждого вхождения, только если он ссылается на группы регулярного выражения.
+    static final class Matches {
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private String[] replacements;
+        private int count = 0;
+
+        int size() {
+            return count;
+        }
+
+        private void add(int start, int end, String replacement) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                if (replacements != null) {
+                    replacements = Arrays.copyOf(replacements, count * 2);
+                }
+            }
+            starts[count] = start;
+            ends[count] = end;
+            if (replacements != null) {
+                replacements[count] = replacement;
+            }
+            count++;
+        }
+    }
+
+    // Находит вхождения запроса; replacement нужен, чтобы подставить группы регулярного выражения
+    static Matches findMatches(Document document, SearchQuery query, String replacement) {
+        Matches matches = new Matches();
+        if (query.isLiteral()) {
+            SearchIndex index = new SearchIndex(document, query);
+            index.dispose();
+            int end = 0;
+            for (int i = 0; i < index.size(); i++) {
+                if (index.get(i) >= end) {
+                    matches.add(index.get(i), index.getEnd(i), null);
+                    end = index.getEnd(i);
+                }
+            }
+            return matches;
+        }
+
+        boolean expand = query.isRegex() && (replacement.indexOf('$') >= 0 || replacement.indexOf('\\') >= 0);
+        if (expand) {
+            matches.replacements = new String[matches.starts.length];
+        }
+        // Как и в SearchIndex, выражение применяется к каждому абзацу отдельно
+        Matcher matcher = query.getPattern().matcher(new DocumentCharSequence(document));
+        StringBuilder text = new StringBuilder();
+        Element root = document.getDefaultRootElement();
+        int length = document.getLength();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            matcher.region(paragraph.getStartOffset(), Math.min(paragraph.getEndOffset() - 1, length));
+            while (matcher.find()) {
+                if (matcher.end() == matcher.start()) {
+                    continue;
+                }
+                String expanded = null;
+                if (expand) {
+                    text.setLength(0);
+                    expandReplacement(matcher, replacement, text);
+                    expanded = text.toString();
+                }
+                matches.add(matcher.start(), matcher.end(), expanded);
+            }
+        }
+        return matches;
+    }
+
+    // Подставляет $n, ${name} и экранирование \ так же, как Matcher.appendReplacement
+    private static void expandReplacement(Matcher matcher, String replacement, StringBuilder out) {
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\' && i < replacement.length()) {
+                out.append(replacement.charAt(i++));
+            } else if (c == '$' && i < replacement.length()) {
+                String group;
+                if (replacement.charAt(i) == '{') {
+                    int close = replacement.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Не закрыта ссылка на группу");
+                    }
+                    group = matcher.group(replacement.substring(i + 1, close));
+                    i = close + 1;
+                } else {
+                    int number = Character.digit(replacement.charAt(i), 10);
+                    if (number < 0 || number > matcher.groupCount()) {
+                        throw new IllegalArgumentException("Нет группы " + replacement.charAt(i));
+                    }
+                    i++;
+                    // Как в Matcher: берём следующую цифру, пока такая группа существует
+                    while (i < replacement.length()) {
+                        int digit = Character.digit(replacement.charAt(i), 10);
+                        if (digit < 0 || number * 10 + digit > matcher.groupCount()) {
+                            break;
+                        }
+                        number = number * 10 + digit;
+                        i++;
+                    }
+                    group = matcher.group(number);
+                }
+                if (group != null) {
+                    out.append(group);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    // Заменяет найденные вхождения на replacement (или на подставленный для каждого вхождения текст)
+    static void replaceAll(Document document, Matches matches, String replacement) throws BadLocationException {
+        StyledDocument styled = document instanceof StyledDocument ? (StyledDocument) document : null;
+        for (int i = matches.count - 1; i >= 0; i--) {
+            int pos = matches.starts[i];
+            String text = matches.replacements != null ? matches.replacements[i] : replacement;
+            // Атрибуты берём у первого символа вхождения до его удаления
+            AttributeSet attributes = null;
+            if (styled != null) {
+                Element run = styled.getCharacterElement(pos);
+                attributes = run.getAttributes().copyAttributes();
+            }
+            document.remove(pos, matches.ends[i] - pos);
+            if (!text.isEmpty()) {
+                document.insertString(pos, text, attributes);
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+
+// Индекс вхождений строки поиска. Вхождения находятся один раз алгоритмом
+// Бойера-Мура-Хорспула прямо по Segment документа без копирования текста, а затем
+// поддерживаются по событиям документа: правка пересканирует только свою окрестность.
+// Переход к следующему или предыдущему вхождению - двоичный поиск по массиву смещений.
+// Регулярные выражения, поиск без учёта регистра и слова целиком выполняются через
+// java.util.regex поверх DocumentCharSequence; такие вхождения не выходят за пределы
+// абзаца, и правка пересканирует только затронутые абзацы.
+final class SearchIndex implements DocumentListener {
+    private final Document document;
+    private final SearchQuery query;
+    private final char[] pattern;
+    private final int[] shift = new int[256]; // Таблица сдвигов по младшему байту символа
+    private final Matcher matcher;           // null для обычной строки
+
+    private int[] starts = new int[64]; // Начала вхождений по возрастанию
+    private int[] ends = new int[64];   // Концы вхождений, тоже по возрастанию
+    private int count = 0;
+
+    private final Segment segment = new Segment();
+    private final Segment boundarySegment = new Segment();
+    private final DocumentCharSequence chars;
+    private int[] foundStarts = new int[16]; // Временные буферы для пересканирования
+    private int[] foundEnds = new int[16];
+    private int foundCount;
+
+    SearchIndex(Document document, SearchQuery query) {
+        this.document = document;
+        this.query = query;
+        this.pattern = query.getText().toCharArray();
+        segment.setPartialReturn(true);
+
+        if (query.isLiteral()) {
+            matcher = null;
+            chars = null;
+            int m = pattern.length;
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                shift[pattern[i] & 0xFF] = m - 1 - i;
+            }
+        } else {
+            chars = new DocumentCharSequence(document);
+            matcher = query.getPattern().matcher(chars);
+        }
+
+        foundCount = 0;
+        scan(0, document.getLength());
+        starts = Arrays.copyOf(foundStarts, Math.max(foundStarts.length, 16));
+        ends = Arrays.copyOf(foundEnds, starts.length);
+        count = foundCount;
+        document.addDocumentListener(this);
+    }
+
+    // Отключает индекс от документа
+    void dispose() {
+        document.removeDocumentListener(this);
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    SearchQuery getQuery() {
+        return query;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int get(int index) {
+        return starts[index];
+    }
+
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    // Первое вхождение, начинающееся после offset, или -1
+    int next(int offset) {
+        int index = firstIndexAtOrAfter(offset + 1);
+        return index < count ? starts[index] : -1;
+    }
+
+    // Последнее вхождение, начинающееся до offset, или -1
+    int previous(int offset) {
+        int index = firstIndexAtOrAfter(offset) - 1;
+        return index >= 0 ? starts[index] : -1;
+    }
+
+    // Конец вхождения, начинающегося в start, или start, если такого нет
+    int endOf(int start) {
+        int index = firstIndexAtOrAfter(start);
+        return index < count && starts[index] == start ? ends[index] : start;
+    }
+
+    // Индекс первого вхождения с началом не меньше offset
+    int firstIndexAtOrAfter(int offset) {
+        return lowerBound(starts, offset);
+    }
+
+    // Индекс первого вхождения, заканчивающегося после offset
+    int firstIndexEndingAfter(int offset) {
+        return lowerBound(ends, offset + 1);
+    }
+
+    private int lowerBound(int[] keys, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (matcher == null) {
+            // Вхождения, через которые прошла вставка, пропадают; последующие сдвигаются
+            int from = offset - pattern.length + 1;
+            update(from, offset, length, from, offset + length + pattern.length - 1);
+        } else {
+            int from = paragraphStart(offset);
+            int to = paragraphEnd(offset + length);
+            update(from, to - length, length, from, to);
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (matcher == null) {
+            int from = offset - pattern.length + 1;
+            update(from, offset + length, -length, from, offset + pattern.length - 1);
+        } else {
+            int from = paragraphStart(offset);
+            int to = paragraphEnd(offset);
+            update(from, to + length, -length, from, to);
+        }
+    }
+
+    private int paragraphStart(int offset) {
+        Element root = document.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(offset)).getStartOffset();
+    }
+
+    private int paragraphEnd(int offset) {
+        Element root = document.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(offset)).getEndOffset();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Изменение атрибутов не влияет на текст
+    }
+
+    // Удаляет вхождения с началом в [from, to) (до правки), сдвигает последующие на delta
+    // и пересканирует [scanFrom, scanTo) (после правки)
+    private void update(int from, int to, int delta, int scanFrom, int scanTo) {
+        int first = firstIndexAtOrAfter(from);
+        int last = firstIndexAtOrAfter(to);
+        for (int i = last; i < count; i++) {
+            starts[i] += delta;
+            ends[i] += delta;
+        }
+
+        foundCount = 0;
+        if (chars != null) {
+            chars.invalidate();
+        }
+        scan(Math.max(0, scanFrom), Math.min(document.getLength(), scanTo));
+
+        int newCount = count - (last - first) + foundCount;
+        if (newCount > starts.length) {
+            int capacity = Math.max(newCount, starts.length * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(starts, last, starts, first + foundCount, count - last);
+        System.arraycopy(ends, last, ends, first + foundCount, count - last);
+        System.arraycopy(foundStarts, 0, starts, first, foundCount);
+        System.arraycopy(foundEnds, 0, ends, first, foundCount);
+        count = newCount;
+    }
+
+    // Находит все вхождения внутри [from, to) и складывает их в foundStarts/foundEnds
+    private void scan(int from, int to) {
+        if (matcher != null) {
+            scanParagraphs(from, to);
+            return;
+        }
+        int m = pattern.length;
+        int pos = from;
+        try {
+            while (to - pos >= m) {
+                document.getText(pos, to - pos, segment);
+                int n = segment.count;
+                search(segment.array, segment.offset, n, pos);
+
+                int boundary = pos + n;
+                if (boundary >= to) {
+                    break;
+                }
+                // Вхождения, пересекающие границу куска, ищем в небольшом окне вокруг неё
+                int windowFrom = Math.max(pos, boundary - m + 1);
+                int windowTo = Math.min(to, boundary + m - 1);
+                if (windowTo - windowFrom >= m) {
+                    document.getText(windowFrom, windowTo - windowFrom, boundarySegment);
+                    search(boundarySegment.array, boundarySegment.offset, boundarySegment.count, windowFrom);
+                }
+                pos = boundary;
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Бойер-Мур-Хорспул по массиву символов; base - смещение array[offset] в документе
+    private void search(char[] array, int offset, int n, int base) {
+        int m = pattern.length;
+        int last = m - 1;
+        char lastChar = pattern[last];
+        int i = 0;
+        while (i <= n - m) {
+            char c = array[offset + i + last];
+            if (c == lastChar) {
+                int j = 0;
+                while (j < last && array[offset + i + j] == pattern[j]) {
+                    j++;
+                }
+                if (j == last) {
+                    addFound(base + i, base + i + m);
+                }
+            }
+            i += shift[c & 0xFF];
+        }
+    }
+
+    // Регулярное выражение применяется к каждому абзацу в [from, to) отдельно, без перевода строки
+    private void scanParagraphs(int from, int to) {
+        Element root = document.getDefaultRootElement();
+        int index = root.getElementIndex(from);
+        int length = document.getLength();
+        while (index < root.getElementCount()) {
+            Element paragraph = root.getElement(index++);
+            int start = paragraph.getStartOffset();
+            if (start >= to || start > length) {
+                break;
+            }
+            int end = Math.min(paragraph.getEndOffset() - 1, length);
+            matcher.region(start, end);
+            while (matcher.find()) {
+                // Пустые совпадения нечего подсвечивать и не к чему переходить
+                if (matcher.end() > matcher.start()) {
+                    addFound(matcher.start(), matcher.end());
+                }
+            }
+        }
+    }
+
+    private void addFound(int start, int end) {
+        if (foundCount == foundStarts.length) {
+            foundStarts = Arrays.copyOf(foundStarts, foundCount * 2);
+            foundEnds = Arrays.copyOf(foundEnds, foundCount * 2);
+        }
+        foundStarts[foundCount] = start;
+        foundEnds[foundCount] = end;
+        foundCount++;
+    }
+}
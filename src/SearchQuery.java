@@ -0,0 +1,67 @@
+import java.util.regex.Pattern;
+
+// Параметры поиска: строка и режимы регулярного выражения, учёта регистра и слова целиком
+final class SearchQuery {
+    private final String text;
+    private final boolean regex;
+    private final boolean matchCase;
+    private final boolean wholeWord;
+
+    SearchQuery(String text, boolean regex, boolean matchCase, boolean wholeWord) {
+        this.text = text;
+        this.regex = regex;
+        this.matchCase = matchCase;
+        this.wholeWord = wholeWord;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    boolean isRegex() {
+        return regex;
+    }
+
+    boolean isMatchCase() {
+        return matchCase;
+    }
+
+    boolean isWholeWord() {
+        return wholeWord;
+    }
+
+    // Обычная строка с учётом регистра ищется без регулярных выражений
+    boolean isLiteral() {
+        return !regex && matchCase && !wholeWord;
+    }
+
+    // Шаблон запроса из кэша; бросает PatternSyntaxException для неверного выражения
+    Pattern getPattern() {
+        String expression = regex ? text : Pattern.quote(text);
+        if (wholeWord) {
+            // Граница слова та же, что и при замене: соседний символ не буква и не цифра
+            expression = "(?<![\\p{L}\\p{Nd}])(?:" + expression + ")(?![\\p{L}\\p{Nd}])";
+        }
+        int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return PatternCache.get(expression, flags);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SearchQuery)) {
+            return false;
+        }
+        SearchQuery other = (SearchQuery) o;
+        return text.equals(other.text) && regex == other.regex && matchCase == other.matchCase && wholeWord == other.wholeWord;
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode() * 8 + (regex ? 4 : 0) + (matchCase ? 2 : 0) + (wholeWord ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
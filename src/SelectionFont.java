@@ -0,0 +1,52 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+// Шрифт и размер выделенного текста для списков на панели форматирования. Внутри
+// одного элемента атрибуты одинаковы, поэтому проверяется один элемент на участок, и
+// обход сразу переходит к концу участка; как только и шрифты, и размеры оказались
+// разными, дальше можно не смотреть.
+final class SelectionFont {
+    final String family; // null, если в выделении разные шрифты
+    final Integer size;  // null, если в выделении разные размеры
+
+    private SelectionFont(String family, Integer size) {
+        this.family = family;
+        this.size = size;
+    }
+
+    static SelectionFont of(StyledDocument document, int start, int end) {
+        String currentFont = null;
+        int currentFontSize = -1;
+        boolean multipleFonts = false;
+        boolean multipleSizes = false;
+
+        for (int i = start; i < end; ) {
+            Element element = document.getCharacterElement(i);
+            AttributeSet attributes = element.getAttributes();
+            i = Math.max(element.getEndOffset(), i + 1);
+
+            // Проверка шрифта
+            String font = StyleConstants.getFontFamily(attributes);
+            if (currentFont == null) {
+                currentFont = font;
+            } else if (!currentFont.equals(font)) {
+                multipleFonts = true;
+            }
+
+            // Проверка размера шрифта
+            int fontSize = StyleConstants.getFontSize(attributes);
+            if (currentFontSize == -1) {
+                currentFontSize = fontSize;
+            } else if (currentFontSize != fontSize) {
+                multipleSizes = true;
+            }
+
+            if (multipleFonts && multipleSizes) {
+                break; // Дальнейшие проверки не нужны, так как уже выявлены разные значения
+            }
+        }
+        return new SelectionFont(multipleFonts ? null : currentFont, multipleSizes ? null : currentFontSize);
+    }
+}
@@ -0,0 +1,93 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Время до первого символа для бенчмарка запуска и записи архива AppCDS. Запуск с
+// -Deditor.startupProbe=<файл>: как только редактор получил фокус, в очередь событий
+// ставится нажатие клавиши; когда символ оказался в документе, время с запуска процесса
+// печатается, записывается в файл (если он указан) и процесс завершается. Символ проходит
+// тот же путь, что и набранный с клавиатуры.
+final class StartupProbe {
+    static final String PROPERTY = "editor.startupProbe";
+    private static final int FOCUS_TIMEOUT = 30000;
+
+    private StartupProbe() {
+    }
+
+    static boolean isEnabled() {
+        return System.getProperty(PROPERTY) != null;
+    }
+
+    static void typeAndExit(JTextComponent editor) {
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                finish(millisSinceLaunch());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        Timer timeout = new Timer(FOCUS_TIMEOUT, e -> {
+            System.err.println("Редактор не получил фокус ввода за " + FOCUS_TIMEOUT / 1000 + " с");
+            System.exit(1);
+        });
+        timeout.setRepeats(false);
+        timeout.start();
+
+        SwingUtilities.invokeLater(() -> {
+            if (editor.isFocusOwner()) {
+                type(editor);
+            } else {
+                editor.addFocusListener(new FocusAdapter() {
+                    @Override
+                    public void focusGained(FocusEvent e) {
+                        editor.removeFocusListener(this);
+                        type(editor);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void type(JTextComponent editor) {
+        Toolkit.getDefaultToolkit().getSystemEventQueue().postEvent(new KeyEvent(editor, KeyEvent.KEY_TYPED,
+                System.currentTimeMillis(), 0, KeyEvent.VK_UNDEFINED, 'x'));
+    }
+
+    // С запуска процесса, включая старт JVM; если ОС его не сообщает - с запуска JVM
+    private static long millisSinceLaunch() {
+        return ProcessHandle.current().info().startInstant()
+                .map(start -> System.currentTimeMillis() - start.toEpochMilli())
+                .orElseGet(() -> ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    private static void finish(long millis) {
+        System.out.println("Время до первого символа: " + millis + " мс");
+        String result = System.getProperty(PROPERTY);
+        if (!result.isEmpty()) {
+            try {
+                Files.write(Paths.get(result), Long.toString(millis).getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.exit(0);
+    }
+}
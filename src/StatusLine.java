@@ -0,0 +1,28 @@
+// Тексты строки состояния редактора. Бенчмарк строки состояния собирает их теми же
+// методами, чтобы замер шёл по тому же пути, что и Main.updateStatus.
+final class StatusLine {
+    private StatusLine() {
+    }
+
+    // Счётчики документа и служебные показатели: история отмены, пул атрибутов, кодировка
+    static String summary(DocumentStatistics statistics, BoundedUndoManager undoManager, AttributePool attributePool,
+                          TextEncoding encoding) {
+        return statistics.summary() +
+                String.format(" | История отмены: %.1f МБ | Наборы атрибутов: %d (%.1f КБ, попаданий %.0f%%) | Кодировка: %s",
+                        undoManager.getRetainedBytes() / (1024.0 * 1024.0),
+                        attributePool.getSetCount(),
+                        attributePool.getRetainedBytes() / 1024.0,
+                        attributePool.getHitRate() * 100,
+                        encoding);
+    }
+
+    // Номер страницы под кареткой, с единицы
+    static String page(int page, int pageCount) {
+        return "Страница: " + page + " из " + pageCount;
+    }
+
+    // Строка и столбец каретки, с единицы
+    static String position(int line, int column) {
+        return "Стр: " + line + ", Кол: " + column;
+    }
+}
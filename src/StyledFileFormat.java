@@ -0,0 +1,537 @@
+import javax.swing.*;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledDocument;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Собственный формат документа редактора (*.ted): текст вместе с форматированием.
+// После заголовка идут таблица различных наборов атрибутов, участки текста (длина и
+// номер набора) и абзацы (сколько подряд и номер набора) в виде varint, в конце сам
+// текст в UTF-8 с '\n' между строками. Запись и чтение идут через буфер FileChannel;
+// при чтении из участков сразу собирается структура элементов, и документ создаётся
+// одним вызовом create() вместо вставки по участкам.
+final class StyledFileFormat {
+    static final String EXTENSION = "ted";
+
+    private static final int MAGIC = 0x54454431; // "TED1"
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    // Типы значений атрибутов
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte COLOR = 4;
+    private static final byte FLOAT = 5;
+
+    // Сохраняемые атрибуты; в файле атрибут записан номером в этом массиве, поэтому новые только в конец
+    static final Object[] KEYS = {
+            StyleConstants.FontFamily, StyleConstants.FontSize, StyleConstants.Bold, StyleConstants.Italic,
+            StyleConstants.Underline, StyleConstants.StrikeThrough, StyleConstants.Subscript, StyleConstants.Superscript,
+            StyleConstants.Foreground, StyleConstants.Background,
+            StyleConstants.Alignment, StyleConstants.FirstLineIndent, StyleConstants.LeftIndent, StyleConstants.RightIndent,
+            StyleConstants.LineSpacing, StyleConstants.SpaceAbove, StyleConstants.SpaceBelow
+    };
+
+    private StyledFileFormat() {
+    }
+
+    static boolean accepts(File file) {
+        return file.getName().toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    // Фоновая загрузка: файл читается и разбирается вне EDT, документ заполняется на EDT,
+    // пока фоновый поток ждёт. Ошибка заполнения, как и ошибка чтения, достаётся get()
+    static final class Loader extends FileLoader {
+        private final FormattedDocument document;
+
+        Loader(File file, FormattedDocument document) {
+            super(file, document, StandardCharsets.UTF_8);
+            this.document = document;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            DefaultStyledDocument.ElementSpec[] specs = read(getFile());
+            setProgress(100);
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        document.load(specs);
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Загрузка прервана");
+            } catch (InvocationTargetException e) {
+                throw new IOException("Файл документа повреждён: " + getFile().getName(), e.getCause());
+            }
+            return null;
+        }
+
+        @Override
+        protected void done() {
+        }
+    }
+
+    // Форматирование документа: снимается на EDT вместе с текстом, записывается в фоне
+    static final class Styles {
+        private final List<AttributeSet> table = new ArrayList<>();
+        private final Map<AttributeSet, Integer> indices = new HashMap<>();
+        private int[] runs = new int[64];       // Пары: длина участка, номер набора
+        private int runCount = 0;
+        private int[] paragraphs = new int[64]; // Пары: число абзацев подряд, номер набора
+        private int paragraphCount = 0;
+
+        private int index(AttributeSet attributes) {
+            // Наборы документа неизменяемы и одинаковы для одинакового форматирования
+            AttributeSet key = attributes.copyAttributes();
+            Integer index = indices.get(key);
+            if (index == null) {
+                index = table.size();
+                table.add(key);
+                indices.put(key, index);
+            }
+            return index;
+        }
+
+        private void addRun(int length, int style) {
+            if (runCount * 2 == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[runCount * 2] = length;
+            runs[runCount * 2 + 1] = style;
+            runCount++;
+        }
+
+        private void addParagraph(int style) {
+            if (paragraphCount > 0 && paragraphs[paragraphCount * 2 - 1] == style) {
+                paragraphs[paragraphCount * 2 - 2]++;
+                return;
+            }
+            if (paragraphCount * 2 == paragraphs.length) {
+                paragraphs = Arrays.copyOf(paragraphs, paragraphs.length * 2);
+            }
+            paragraphs[paragraphCount * 2] = 1;
+            paragraphs[paragraphCount * 2 + 1] = style;
+            paragraphCount++;
+        }
+    }
+
+    // Участки и абзацы документа; вызывается на EDT
+    static Styles captureStyles(StyledDocument document) {
+        Styles styles = new Styles();
+        document.render(() -> {
+            int length = document.getLength();
+            Element root = document.getDefaultRootElement();
+            for (int i = 0; i < root.getElementCount(); i++) {
+                Element paragraph = root.getElement(i);
+                styles.addParagraph(styles.index(paragraph.getAttributes()));
+                for (int j = 0; j < paragraph.getElementCount(); j++) {
+                    Element leaf = paragraph.getElement(j);
+                    // Завершающий перевод строки документа не сохраняется
+                    int end = Math.min(leaf.getEndOffset(), length);
+                    if (end > leaf.getStartOffset()) {
+                        styles.addRun(end - leaf.getStartOffset(), styles.index(leaf.getAttributes()));
+                    }
+                }
+            }
+        });
+        return styles;
+    }
+
+    // Записывает text документа с форматированием styles
+    static void write(File file, CharSequence text, Styles styles) throws IOException {
+        AtomicFileWriter.write(file, channel -> {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putVarint(text.length());
+            out.putVarint(styles.table.size());
+            for (AttributeSet attributes : styles.table) {
+                writeAttributes(out, attributes);
+            }
+            out.putVarint(styles.runCount);
+            for (int i = 0; i < styles.runCount * 2; i++) {
+                out.putVarint(styles.runs[i]);
+            }
+            out.putVarint(styles.paragraphCount);
+            for (int i = 0; i < styles.paragraphCount * 2; i++) {
+                out.putVarint(styles.paragraphs[i]);
+            }
+            out.flush();
+            AtomicFileWriter.encode(channel, text, "\n", StandardCharsets.UTF_8);
+        });
+    }
+
+    // Читает файл в описание элементов для FormattedDocument.load(); можно вызывать вне EDT
+    static DefaultStyledDocument.ElementSpec[] read(File file) throws IOException {
+        return read(file, AttributePool.SHARED);
+    }
+
+    // То же для документа со своим пулом атрибутов: наборы берутся из pool
+    static DefaultStyledDocument.ElementSpec[] read(File file, AttributePool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Файл не является документом редактора: " + file.getName());
+            }
+            // Размеры проверяются по остатку файла до выделения памяти: в UTF-8 на символ
+            // приходится хотя бы байт, на набор атрибутов - байт, на участок и абзац - два
+            int length = in.getCount(1);
+            AttributeSet[] table = new AttributeSet[in.getCount(1)];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = readAttributes(in);
+            }
+            int[] runs = in.getVarints(in.getCount(2) * 2);
+            int[] paragraphs = in.getVarints(in.getCount(2) * 2);
+            char[] text = in.getText(length);
+            return toSpecs(text, table, runs, paragraphs, pool);
+        } catch (DamagedException | IndexOutOfBoundsException e) {
+            throw new IOException("Файл документа повреждён: " + file.getName(), e);
+        }
+    }
+
+    // Абзац за абзацем: начало абзаца, его участки, конец абзаца; последний абзац не закрывается
+    private static DefaultStyledDocument.ElementSpec[] toSpecs(char[] text, AttributeSet[] table, int[] runs,
+                                                              int[] paragraphs, AttributePool pool) throws IOException {
+        AttributeSet base = pool.getStyle(StyleContext.DEFAULT_STYLE);
+        AttributeSet[] characterStyles = new AttributeSet[table.length];
+        AttributeSet[] paragraphStyles = new AttributeSet[table.length];
+
+        List<DefaultStyledDocument.ElementSpec> specs = new ArrayList<>(runs.length / 2 + paragraphs.length + 1);
+        specs.add(new DefaultStyledDocument.ElementSpec(null, DefaultStyledDocument.ElementSpec.StartTagType));
+        int offset = 0;
+        int run = 0;
+        int paragraph = 0;
+        int sameParagraphs = 0;
+        while (true) {
+            if (sameParagraphs == 0) {
+                sameParagraphs = paragraphs[paragraph * 2];
+                paragraph++;
+                if (sameParagraphs <= 0) {
+                    throw new DamagedException("Пустая группа абзацев");
+                }
+            }
+            sameParagraphs--;
+            int style = paragraphs[paragraph * 2 - 1];
+            if (paragraphStyles[style] == null) {
+                // Стиль документа по умолчанию не сохраняется, абзацы получают его обратно
+                paragraphStyles[style] = pool.addAttribute(table[style], StyleConstants.ResolveAttribute, base);
+            }
+            specs.add(new DefaultStyledDocument.ElementSpec(paragraphStyles[style],
+                    DefaultStyledDocument.ElementSpec.StartTagType));
+            boolean closed = false;
+            while (run < runs.length && !closed) {
+                int length = runs[run];
+                style = runs[run + 1];
+                run += 2;
+                if (length <= 0 || length > text.length - offset) {
+                    throw new DamagedException("Участок за пределами текста");
+                }
+                if (characterStyles[style] == null) {
+                    characterStyles[style] = pool.intern(table[style]);
+                }
+                specs.add(new TextSpec(characterStyles[style], text, offset, length));
+                offset += length;
+                closed = text[offset - 1] == '\n';
+            }
+            if (!closed) {
+                break;
+            }
+            specs.add(new DefaultStyledDocument.ElementSpec(null, DefaultStyledDocument.ElementSpec.EndTagType));
+        }
+        if (offset != text.length || run != runs.length || paragraph * 2 != paragraphs.length || sameParagraphs != 0) {
+            throw new DamagedException("Участки и абзацы не совпадают с текстом документа");
+        }
+        return specs.toArray(new DefaultStyledDocument.ElementSpec[0]);
+    }
+
+    private static void writeAttributes(Output out, AttributeSet attributes) throws IOException {
+        int count = 0;
+        for (Object key : KEYS) {
+            if (attributes.isDefined(key)) {
+                count++;
+            }
+        }
+        out.putVarint(count);
+        for (int i = 0; i < KEYS.length; i++) {
+            Object value = attributes.getAttribute(KEYS[i]);
+            if (!attributes.isDefined(KEYS[i])) {
+                continue;
+            }
+            out.putVarint(i);
+            if (value instanceof String) {
+                out.putByte(STRING);
+                out.putString((String) value);
+            } else if (value instanceof Integer) {
+                out.putByte(INTEGER);
+                out.putInt((Integer) value);
+            } else if (value instanceof Boolean) {
+                out.putByte(BOOLEAN);
+                out.putByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Color) {
+                out.putByte(COLOR);
+                out.putInt(((Color) value).getRGB());
+            } else if (value instanceof Float) {
+                out.putByte(FLOAT);
+                out.putInt(Float.floatToIntBits((Float) value));
+            } else {
+                throw new IOException("Неподдерживаемое значение атрибута " + KEYS[i] + ": " + value);
+            }
+        }
+    }
+
+    private static AttributeSet readAttributes(Input in) throws IOException {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        for (int count = in.getVarint(); count > 0; count--) {
+            int index = in.getVarint();
+            if (index >= KEYS.length) {
+                throw new DamagedException("Неизвестный атрибут: " + index);
+            }
+            Object key = KEYS[index];
+            byte type = in.getByte();
+            switch (type) {
+                case STRING:
+                    attributes.addAttribute(key, in.getString());
+                    break;
+                case INTEGER:
+                    attributes.addAttribute(key, in.getInt());
+                    break;
+                case BOOLEAN:
+                    attributes.addAttribute(key, in.getByte() != 0);
+                    break;
+                case COLOR:
+                    attributes.addAttribute(key, new Color(in.getInt(), true));
+                    break;
+                case FLOAT:
+                    attributes.addAttribute(key, Float.intBitsToFloat(in.getInt()));
+                    break;
+                default:
+                    throw new DamagedException("Неизвестный тип значения атрибута: " + type);
+            }
+        }
+        return attributes;
+    }
+
+    // Участок текста, ссылающийся на общий массив текста файла: ElementSpec с текстом
+    // копирует переданный массив целиком, а create() читает только getArray() и getOffset()
+    static final class TextSpec extends DefaultStyledDocument.ElementSpec {
+        private final char[] text;
+        private final int offset;
+
+        TextSpec(AttributeSet attributes, char[] text, int offset, int length) {
+            super(attributes, ContentType, length);
+            this.text = text;
+            this.offset = offset;
+        }
+
+        @Override
+        public char[] getArray() {
+            return text;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    // Буферизованная запись чисел и строк в канал
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        // Неотрицательное число по 7 бит, старший бит байта - признак продолжения
+        void putVarint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    // Нарушена структура файла, в отличие от ошибки чтения с диска
+    private static final class DamagedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DamagedException(String message) {
+            super(message);
+        }
+    }
+
+    // Буферизованное чтение из канала; буфер дочитывается, когда в нём не хватает байт
+    private static final class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private boolean endOfInput = false;
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (bytes > buffer.capacity()) {
+                throw new DamagedException("Слишком длинная запись в файле документа");
+            }
+            buffer.compact();
+            while (buffer.position() < bytes && !endOfInput) {
+                endOfInput = channel.read(buffer) < 0;
+            }
+            buffer.flip();
+            if (buffer.remaining() < bytes) {
+                throw new DamagedException("Неожиданный конец файла документа");
+            }
+        }
+
+        byte getByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        int getVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = getByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    if (value < 0) {
+                        break; // Пятый байт задел знаковый бит: такое число записать нельзя
+                    }
+                    return value;
+                }
+            }
+            throw new DamagedException("Неверное число в файле документа");
+        }
+
+        // Число записей, каждая из которых занимает не меньше bytesEach байт до конца файла
+        int getCount(int bytesEach) throws IOException {
+            int count = getVarint();
+            if (count > remaining() / bytesEach) {
+                throw new DamagedException("Число записей больше, чем помещается в файле: " + count);
+            }
+            return count;
+        }
+
+        // Байт до конца файла, включая ещё не разобранные в буфере
+        private long remaining() throws IOException {
+            return channel.size() - channel.position() + buffer.remaining();
+        }
+
+        int[] getVarints(int count) throws IOException {
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = getVarint();
+            }
+            return values;
+        }
+
+        String getString() throws IOException {
+            int length = getVarint();
+            ensure(length);
+            String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        // Текст до конца файла. Редактор пишет только правильный UTF-8, поэтому неверная
+        // последовательность байт - повреждение, в том числе обрезанный последний символ
+        char[] getText(int length) throws IOException {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            char[] text = new char[length];
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = decoder.decode(buffer, chars, endOfInput);
+                if (result.isError()) {
+                    throw new DamagedException("Неверная последовательность UTF-8 в тексте документа");
+                }
+                if (result.isOverflow()) {
+                    throw new DamagedException("Текст длиннее, чем указано в заголовке документа");
+                }
+                if (endOfInput) {
+                    break;
+                }
+                buffer.compact();
+                endOfInput = channel.read(buffer) < 0;
+                buffer.flip();
+            }
+            decoder.flush(chars);
+            if (chars.hasRemaining()) {
+                throw new DamagedException("Текст короче, чем указано в заголовке документа");
+            }
+            return text;
+        }
+    }
+}
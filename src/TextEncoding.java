@@ -0,0 +1,164 @@
+import javax.swing.text.Document;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Кодировка текстового файла: набор символов и признак BOM в начале. Определяется по
+// первому блоку файла: сначала BOM, затем старшие байты UTF-16 без BOM (0x00 у латиницы
+// и знаков, 0x04 у кириллицы) через один, затем проверка корректности UTF-8. Файл, не
+// являющийся UTF-8, считается CP1251, если его старшие байты в основном попадают на
+// русские буквы этой кодировки. Управляющие байты в тексте не встречаются, поэтому блок
+// с ними не признаётся ни UTF-8, ни CP1251. Кодировка запоминается в свойстве документа
+// и используется при сохранении, как и разделитель строк.
+final class TextEncoding {
+    static final String PROPERTY = "textEncoding"; // Свойство документа с кодировкой его файла
+    static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+
+    private static final double CYRILLIC_SHARE = 0.8;   // Доля букв среди старших байтов для CP1251
+    private static final double UTF16_HIGH_SHARE = 0.7;  // Доля старших байтов UTF-16 на чётных или нечётных местах
+    private static final double UTF16_STRAY_SHARE = 0.1; // Больше таких байтов на других местах быть не может
+
+    final Charset charset;
+    final boolean bom;
+
+    TextEncoding(Charset charset, boolean bom) {
+        this.charset = charset;
+        this.bom = bom;
+    }
+
+    // Длина BOM в байтах для этой кодировки
+    int bomLength() {
+        if (!bom) {
+            return 0;
+        }
+        return StandardCharsets.UTF_8.equals(charset) ? 3 : 2;
+    }
+
+    // Кодировка файла документа или fallback для нового документа
+    static TextEncoding of(Document document, Charset fallback) {
+        Object property = document.getProperty(PROPERTY);
+        return property instanceof TextEncoding ? (TextEncoding) property : new TextEncoding(fallback, false);
+    }
+
+    // Определяет кодировку по байтам от position до limit; буфер не сдвигается
+    static TextEncoding detect(ByteBuffer head, Charset fallback) {
+        int start = head.position();
+        int length = head.remaining();
+        int b0 = length > 0 ? head.get(start) & 0xFF : -1;
+        int b1 = length > 1 ? head.get(start + 1) & 0xFF : -1;
+        int b2 = length > 2 ? head.get(start + 2) & 0xFF : -1;
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            return new TextEncoding(StandardCharsets.UTF_8, true);
+        }
+        if (b0 == 0xFE && b1 == 0xFF) {
+            return new TextEncoding(StandardCharsets.UTF_16BE, true);
+        }
+        if (b0 == 0xFF && b1 == 0xFE) {
+            return new TextEncoding(StandardCharsets.UTF_16LE, true);
+        }
+
+        // В UTF-16 латиница, цифры и знаки дают старший байт 0x00, русские буквы - 0x04;
+        // младший байт таких символов почти никогда не 0x00 и не 0x04
+        int evenHigh = 0;
+        int oddHigh = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (isUtf16High(head.get(start + i))) {
+                evenHigh++;
+            }
+            if (isUtf16High(head.get(start + i + 1))) {
+                oddHigh++;
+            }
+        }
+        int pairs = length / 2;
+        if (pairs > 0 && evenHigh >= pairs * UTF16_HIGH_SHARE && oddHigh <= pairs * UTF16_STRAY_SHARE) {
+            return new TextEncoding(StandardCharsets.UTF_16BE, false);
+        }
+        if (pairs > 0 && oddHigh >= pairs * UTF16_HIGH_SHARE && evenHigh <= pairs * UTF16_STRAY_SHARE) {
+            return new TextEncoding(StandardCharsets.UTF_16LE, false);
+        }
+
+        if (hasControlBytes(head, start, start + length)) {
+            return new TextEncoding(fallback, false);
+        }
+        if (isUtf8(head, start, start + length)) {
+            // Чистый ASCII совместим с UTF-8; русский текст, набранный позже, тоже сохранится
+            return new TextEncoding(StandardCharsets.UTF_8, false);
+        }
+        return new TextEncoding(looksLikeCp1251(head, start, start + length) ? WINDOWS_1251 : fallback, false);
+    }
+
+    private static boolean isUtf16High(byte b) {
+        return b == 0x00 || b == 0x04;
+    }
+
+    // Управляющие символы C0, кроме табуляции, перевода строки, возврата каретки и перевода страницы
+    private static boolean hasControlBytes(ByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = bytes.get(i);
+            if (b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Последовательность, оборванная концом блока, ошибкой не считается
+    private static boolean isUtf8(ByteBuffer bytes, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int b = bytes.get(i) & 0xFF;
+            int extra;
+            int min;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                extra = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                extra = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                extra = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            int codePoint = b & (0x3F >> extra);
+            int j = 1;
+            for (; j <= extra && i + j < to; j++) {
+                int c = bytes.get(i + j) & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3F);
+            }
+            if (j > extra && (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF))) {
+                return false; // Избыточная запись, суррогат или выход за пределы Юникода
+            }
+            i += extra + 1;
+        }
+        return true;
+    }
+
+    // Буквы CP1251: А-я в 0xC0-0xFF, Ё и ё в 0xA8 и 0xB8
+    private static boolean looksLikeCp1251(ByteBuffer bytes, int from, int to) {
+        int high = 0;
+        int letters = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes.get(i) & 0xFF;
+            if (b >= 0x80) {
+                high++;
+                if (b >= 0xC0 || b == 0xA8 || b == 0xB8) {
+                    letters++;
+                }
+            }
+        }
+        return high > 0 && letters >= high * CYRILLIC_SHARE;
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom ? " (BOM)" : "");
+    }
+}
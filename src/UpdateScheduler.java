@@ -0,0 +1,44 @@
+import javax.swing.*;
+
+// Объединяет частые запросы обновления интерфейса в одно. Первый запрос запускает
+// таймер, следующие до его срабатывания только учитываются, поэтому обновление
+// выполняется не чаще одного раза за интервал и не позже чем через интервал.
+final class UpdateScheduler {
+    private final Runnable action;
+    private final Timer timer;
+
+    private long requests = 0; // Всего запросов обновления
+    private long updates = 0;  // Выполненных обновлений
+
+    UpdateScheduler(int delay, Runnable action) {
+        this.action = action;
+        timer = new Timer(delay, e -> run());
+        timer.setRepeats(false);
+    }
+
+    void setDelay(int delay) {
+        timer.setInitialDelay(delay);
+    }
+
+    // Запрашивает обновление; вызывается из потока EDT
+    void request() {
+        requests++;
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    private void run() {
+        updates++;
+        action.run();
+    }
+
+    long getRequestCount() {
+        return requests;
+    }
+
+    // Запросы, которые были объединены с другими и не вызвали отдельного обновления
+    long getCoalescedCount() {
+        return requests - updates;
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.DefaultStyledDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Оценка памяти истории ведётся нарастающим итогом: правки добавляют свою оценку,
+// вытесненные и отброшенные - вычитают, а пакет учитывается один раз при закрытии
+class BoundedUndoManagerTest {
+    private static final long EDIT = 160 + 2; // Правка документа с одним символом
+
+    @Test
+    void groupsTypingIntoWords() throws Exception {
+        DefaultStyledDocument document = new DefaultStyledDocument();
+        BoundedUndoManager undoManager = new BoundedUndoManager(1 << 20);
+        document.addUndoableEditListener(undoManager);
+        for (char c : "одно другое".toCharArray()) {
+            document.insertString(document.getLength(), String.valueOf(c), null);
+        }
+        assertEquals(11 * EDIT, undoManager.getRetainedBytes());
+        undoManager.undo();
+        assertEquals("одно ", document.getText(0, document.getLength()));
+        undoManager.undo();
+        assertEquals("", document.getText(0, document.getLength()));
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    void countsBatchOnceWhenEnded() throws Exception {
+        DefaultStyledDocument document = new DefaultStyledDocument();
+        BoundedUndoManager undoManager = new BoundedUndoManager(1 << 20);
+        document.addUndoableEditListener(undoManager);
+        BoundedUndoManager.Batch batch = new BoundedUndoManager.Batch("Пакет", Runnable::run);
+        undoManager.addEdit(batch);
+        for (int i = 0; i < 100; i++) {
+            document.insertString(0, "ab", null);
+        }
+        assertEquals(0, undoManager.getRetainedBytes());
+        batch.end();
+        assertEquals(100 * (160 + 4), undoManager.getRetainedBytes());
+        undoManager.undo();
+        assertEquals(0, document.getLength());
+    }
+
+    @Test
+    void trimsOldestEditsAndForgetsRedoBranch() throws Exception {
+        DefaultStyledDocument document = new DefaultStyledDocument();
+        long limit = 10 * (160 + 20);
+        BoundedUndoManager undoManager = new BoundedUndoManager(limit);
+        document.addUndoableEditListener(undoManager);
+        for (int i = 0; i < 50; i++) {
+            document.insertString(0, "0123456789", null);
+        }
+        assertEquals(limit, undoManager.getRetainedBytes());
+
+        undoManager.undo();
+        undoManager.undo();
+        document.insertString(0, "x", null);
+        assertFalse(undoManager.canRedo());
+        assertEquals(limit - 2 * (160 + 20) + EDIT, undoManager.getRetainedBytes());
+
+        undoManager.discardAllEdits();
+        assertEquals(0, undoManager.getRetainedBytes());
+        assertTrue(document.getLength() > 0);
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Правки, записанные в журнал, проигрываются поверх сохранённого файла и дают тот же
+// документ: текст, атрибуты вставленных и изменённых участков и атрибуты абзацев
+class EditJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysTextAndFormatting() throws Exception {
+        File target = directory.resolve("document.txt").toFile();
+        Files.write(target.toPath(), new byte[0]);
+
+        FormattedDocument edited = new FormattedDocument();
+        EditJournal journal = new EditJournal(target);
+        journal.start(false);
+        edited.addDocumentListener(recorder(journal));
+
+        SimpleAttributeSet inserted = new SimpleAttributeSet();
+        StyleConstants.setBold(inserted, true);
+        StyleConstants.setForeground(inserted, new Color(200, 0, 0));
+        edited.insertString(0, "Первая строка\nвторая строка\nx²", inserted);
+        edited.insertString(6, "новая ", null);
+        edited.setCharacterAttributes(0, 3, attribute(StyleConstants.StrikeThrough, true), false);
+        edited.setCharacterAttributes(edited.getLength() - 1, 1, attribute(StyleConstants.Superscript, true), false);
+        edited.setCharacterAttributes(20, 4, attribute(StyleConstants.Subscript, true), false);
+        edited.setCharacterAttributes(8, 4, attribute(StyleConstants.Bold, false), true);
+        SimpleAttributeSet paragraph = new SimpleAttributeSet();
+        StyleConstants.setAlignment(paragraph, StyleConstants.ALIGN_CENTER);
+        StyleConstants.setLeftIndent(paragraph, 12f);
+        edited.setParagraphAttributes(22, 0, paragraph, false);
+        edited.remove(1, 2);
+        journal.close(false);
+
+        EditJournal recovered = new EditJournal(target);
+        assertTrue(recovered.hasRecovery());
+        FormattedDocument replayed = new FormattedDocument();
+        recovered.replay(replayed);
+        recovered.close(true);
+
+        assertEquals(edited.getText(0, edited.getLength()), replayed.getText(0, replayed.getLength()));
+        Element editedRoot = edited.getDefaultRootElement();
+        Element replayedRoot = replayed.getDefaultRootElement();
+        assertEquals(editedRoot.getElementCount(), replayedRoot.getElementCount());
+        for (int i = 0; i < editedRoot.getElementCount(); i++) {
+            assertSameAttributes(editedRoot.getElement(i).getAttributes(), replayedRoot.getElement(i).getAttributes(), "Абзац " + i);
+        }
+        for (int offset = 0; offset < edited.getLength(); offset++) {
+            assertSameAttributes(edited.getCharacterElement(offset).getAttributes(),
+                    replayed.getCharacterElement(offset).getAttributes(), "Символ " + offset);
+        }
+        assertEquals(StyleConstants.ALIGN_CENTER, StyleConstants.getAlignment(replayed.getParagraphElement(22).getAttributes()));
+    }
+
+    private static DocumentListener recorder(EditJournal journal) {
+        return new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                journal.record(e);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                journal.record(e);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                journal.record(e);
+            }
+        };
+    }
+
+    private static AttributeSet attribute(Object key, Object value) {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        attributes.addAttribute(key, value);
+        return attributes;
+    }
+
+    // Сравнение по каждому ключу, который журнал сохраняет, и по набору заданных ключей
+    private static void assertSameAttributes(AttributeSet expected, AttributeSet actual, String where) throws BadLocationException {
+        for (Object key : StyledFileFormat.KEYS) {
+            assertEquals(expected.isDefined(key), actual.isDefined(key), where + ", задан " + key);
+            assertEquals(expected.getAttribute(key), actual.getAttribute(key), where + ", " + key);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Element;
+import javax.swing.undo.UndoManager;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Документ просмотра больших файлов: индекс строк строится по мере индексации файла,
+// а события правок сообщают настоящие диапазоны строк
+class LargeFileDocumentTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void growsWhileFileIsIndexed() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append("Строка ").append(i).append(i % 7 == 0 ? " 😀" : "").append(i % 100 == 0 ? "x".repeat(300) : "").append('\n');
+        }
+        text.append("последняя строка без перевода");
+        // Куски меньше и больше CHECKPOINT_LINES строк
+        checkProgressive(text.toString(), StandardCharsets.UTF_8, 300);
+        checkProgressive(text.toString(), StandardCharsets.UTF_8, 5000);
+        checkProgressive(text.toString().replace("😀", "?"), Charset.forName("windows-1251"), 777);
+    }
+
+    private void checkProgressive(String expected, Charset charset, int chunk) throws Exception {
+        Path file = directory.resolve("large.txt");
+        Files.write(file, expected.getBytes(charset));
+        MappedText text = MappedText.open(file, charset);
+        text.index(1000);
+        LargeFileDocument document = new LargeFileDocument(new PieceTableContent(text));
+        int knownLines = document.getDefaultRootElement().getElementCount();
+        assertTrue(knownLines < 100, "До индексации известно только начало файла: " + knownLines);
+
+        List<DocumentEvent> events = new ArrayList<>();
+        document.addDocumentListener(collector(events));
+        while (!text.isComplete()) {
+            document.appendOriginal(text.index(chunk));
+        }
+        assertTrue(events.size() > 1, "Файл дописывается кусками");
+
+        assertEquals(expected, document.getText(0, document.getLength()));
+        String[] lines = expected.split("\n", -1);
+        assertEquals(lines.length, document.getLineCount());
+        assertEquals(lines.length, document.getDefaultRootElement().getElementCount());
+        int start = 0;
+        int longest = 0;
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(start, document.getLineStart(i), "Начало строки " + i);
+            assertEquals(i, document.getLineOfOffset(start));
+            start += lines[i].length() + 1;
+            longest = Math.max(longest, lines[i].length());
+        }
+        assertEquals(longest, document.getMaxLineLength());
+    }
+
+    @Test
+    void reportsChangedLineRanges() throws Exception {
+        Path file = directory.resolve("lines.txt");
+        Files.write(file, "a\nbb\nccc\ndddd\n".getBytes(StandardCharsets.UTF_8));
+        MappedText text = MappedText.open(file, StandardCharsets.UTF_8);
+        text.index(Integer.MAX_VALUE / 2);
+        LargeFileDocument document = new LargeFileDocument(new PieceTableContent(text));
+        UndoManager undo = new UndoManager();
+        document.addUndoableEditListener(undo);
+        List<DocumentEvent> events = new ArrayList<>();
+        document.addDocumentListener(collector(events));
+
+        // "bb" -> "b1\n2\n3b": строка 1 заменяется тремя
+        document.insertString(3, "1\n2\n3", null);
+        assertLines(events.get(0), 1, new int[]{2, 5}, new int[]{2, 5, 7, 10});
+
+        // Удаление "ccc\ndd" склеивает строки 4 и 5
+        document.remove(10, 6);
+        assertLines(events.get(1), 4, new int[]{10, 14, 19}, new int[]{10, 13});
+
+        // Отмена удаления: строки снова разделяются
+        undo.undo();
+        assertLines(events.get(2), 4, new int[]{10, 13}, new int[]{10, 14, 19});
+        assertEquals("a\nb1\n2\n3b\nccc\ndddd\n", document.getText(0, document.getLength()));
+    }
+
+    private static void assertLines(DocumentEvent event, int index, int[] removed, int[] added) {
+        DocumentEvent.ElementChange change = event.getChange(event.getDocument().getDefaultRootElement());
+        assertNotNull(change);
+        assertEquals(index, change.getIndex());
+        assertBounds(removed, change.getChildrenRemoved());
+        assertBounds(added, change.getChildrenAdded());
+    }
+
+    private static void assertBounds(int[] bounds, Element[] lines) {
+        assertEquals(bounds.length - 1, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(bounds[i], lines[i].getStartOffset());
+            assertEquals(bounds[i + 1], lines[i].getEndOffset());
+        }
+    }
+
+    private static DocumentListener collector(List<DocumentEvent> events) {
+        return new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                events.add(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,278 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Запись документа в *.ted и чтение обратно: текст, участки и абзацы должны совпасть
+// с исходным документом, а повреждённый файл - давать IOException, а не другое исключение
+class StyledFileFormatTest {
+    private static final int MAGIC = 0x54454431;
+
+    // Абзацные атрибуты; остальные ключи StyledFileFormat.KEYS - атрибуты символов
+    private static final Object[] PARAGRAPH_KEYS = {
+            StyleConstants.Alignment, StyleConstants.FirstLineIndent, StyleConstants.LeftIndent,
+            StyleConstants.RightIndent, StyleConstants.LineSpacing, StyleConstants.SpaceAbove, StyleConstants.SpaceBelow
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void emptyDocument() throws Exception {
+        FormattedDocument document = new FormattedDocument();
+        assertSameDocument(document, roundTrip(document));
+    }
+
+    @Test
+    void emptyLastParagraph() throws Exception {
+        FormattedDocument document = document("первая строка\nвторая строка\n");
+        document.setCharacterAttributes(0, 6, attribute(StyleConstants.Bold, true), false);
+        FormattedDocument loaded = roundTrip(document);
+        assertEquals(3, loaded.getDefaultRootElement().getElementCount());
+        assertSameDocument(document, loaded);
+    }
+
+    @Test
+    void onlyLineBreak() throws Exception {
+        FormattedDocument document = document("\n");
+        FormattedDocument loaded = roundTrip(document);
+        assertEquals(2, loaded.getDefaultRootElement().getElementCount());
+        assertSameDocument(document, loaded);
+    }
+
+    @Test
+    void emptyParagraphsInTheMiddle() throws Exception {
+        FormattedDocument document = document("a\n\n\nb");
+        document.setCharacterAttributes(2, 1, attribute(StyleConstants.Italic, true), false);
+        assertSameDocument(document, roundTrip(document));
+    }
+
+    @Test
+    void everyKey() throws Exception {
+        for (Object key : StyledFileFormat.KEYS) {
+            FormattedDocument document = document("abc\ndef\nghi");
+            document.setCharacterAttributes(2, 4, attribute(key, sampleValue(key)), false);
+            FormattedDocument loaded = roundTrip(document);
+            assertEquals(sampleValue(key), loaded.getCharacterElement(3).getAttributes().getAttribute(key), key.toString());
+            assertSameDocument(document, loaded);
+        }
+    }
+
+    @Test
+    void allKeysTogether() throws Exception {
+        FormattedDocument document = document("abc\ndef");
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        for (Object key : StyledFileFormat.KEYS) {
+            attributes.addAttribute(key, sampleValue(key));
+        }
+        document.setCharacterAttributes(1, 5, attributes, false);
+        assertSameDocument(document, roundTrip(document));
+    }
+
+    @Test
+    void paragraphAttributes() throws Exception {
+        FormattedDocument document = document("один\nдва\nтри\nчетыре");
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        for (Object key : PARAGRAPH_KEYS) {
+            attributes.addAttribute(key, sampleValue(key));
+        }
+        document.setParagraphAttributes(5, 6, attributes, false);
+        document.setParagraphAttributes(document.getLength(), 0, attribute(StyleConstants.Alignment, StyleConstants.ALIGN_RIGHT), false);
+        FormattedDocument loaded = roundTrip(document);
+        Element root = loaded.getDefaultRootElement();
+        assertEquals(sampleValue(StyleConstants.LeftIndent), root.getElement(1).getAttributes().getAttribute(StyleConstants.LeftIndent));
+        assertEquals(StyleConstants.ALIGN_RIGHT, StyleConstants.getAlignment(root.getElement(3).getAttributes()));
+        assertSameDocument(document, loaded);
+    }
+
+    @Test
+    void cyrillicAndSupplementaryCharacters() throws Exception {
+        // Смайлик и математическая буква - суррогатные пары, в UTF-8 по 4 байта
+        FormattedDocument document = document("Съешь же ещё этих мягких 😀\n𝔄𝔅 булок");
+        document.setCharacterAttributes(6, 2, attribute(StyleConstants.Underline, true), false);
+        document.setCharacterAttributes(26, 2, attribute(StyleConstants.FontSize, 30), false);
+        FormattedDocument loaded = roundTrip(document);
+        assertEquals(document.getText(0, document.getLength()), loaded.getText(0, loaded.getLength()));
+        assertSameDocument(document, loaded);
+    }
+
+    @Test
+    void notADocument() throws Exception {
+        File file = file(new byte[]{'h', 'e', 'l', 'l', 'o', '\n'});
+        assertThrows(IOException.class, () -> StyledFileFormat.read(file));
+    }
+
+    @Test
+    void truncatedFile() throws Exception {
+        byte[] bytes = bytes(document("строка\nещё строка"));
+        for (int length = 0; length < bytes.length; length++) {
+            assertDamaged(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    void flippedBits() throws Exception {
+        FormattedDocument document = document("ab\ncd");
+        document.setCharacterAttributes(1, 3, attribute(StyleConstants.Bold, true), false);
+        byte[] bytes = bytes(document);
+        for (int i = 0; i < bytes.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] damaged = bytes.clone();
+                damaged[i] ^= 1 << bit;
+                File file = file(damaged);
+                try {
+                    StyledFileFormat.read(file);
+                } catch (IOException e) {
+                    // Повреждение замечено
+                } catch (RuntimeException | Error e) {
+                    fail("Байт " + i + ", бит " + bit + ": " + e);
+                }
+            }
+        }
+    }
+
+    @Test
+    void hugeCounts() throws Exception {
+        // Длина текста, число наборов атрибутов и участков больше самого файла
+        assertDamaged(header(Integer.MAX_VALUE));
+        assertDamaged(header(0, Integer.MAX_VALUE));
+        assertDamaged(header(0, 0, Integer.MAX_VALUE));
+        assertDamaged(header(0, 0, 0, Integer.MAX_VALUE / 2 + 1));
+    }
+
+    @Test
+    void varintOverflow() throws Exception {
+        // Пять байт с установленным знаковым битом и шесть байт подряд с битом продолжения
+        assertDamaged(concat(header(), new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+        assertDamaged(concat(header(), new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}));
+    }
+
+    @Test
+    void runsBeyondText() throws Exception {
+        // Один пустой набор, участок длиннее трёх символов текста
+        assertDamaged(concat(header(3, 1, 0, 1, 10, 0, 1, 1, 0), "abc".getBytes("UTF-8")));
+        // Номер набора за пределами таблицы
+        assertDamaged(concat(header(3, 1, 0, 1, 3, 5, 1, 1, 0), "abc".getBytes("UTF-8")));
+        // Группа из нуля абзацев
+        assertDamaged(concat(header(3, 1, 0, 1, 3, 0, 1, 0, 0), "abc".getBytes("UTF-8")));
+    }
+
+    @Test
+    void unknownAttribute() throws Exception {
+        // Набор из одного атрибута с номером за пределами KEYS
+        assertDamaged(concat(header(1, 1, 1, StyledFileFormat.KEYS.length), new byte[]{1, 1, 1, 1, 0, 1, 1, 0, 'a'}));
+    }
+
+    private FormattedDocument roundTrip(FormattedDocument document) throws Exception {
+        File file = directory.resolve("document." + StyledFileFormat.EXTENSION).toFile();
+        StyledFileFormat.write(file, document.getText(0, document.getLength()), StyledFileFormat.captureStyles(document));
+        FormattedDocument loaded = new FormattedDocument();
+        loaded.load(StyledFileFormat.read(file));
+        return loaded;
+    }
+
+    private byte[] bytes(FormattedDocument document) throws Exception {
+        File file = directory.resolve("source." + StyledFileFormat.EXTENSION).toFile();
+        StyledFileFormat.write(file, document.getText(0, document.getLength()), StyledFileFormat.captureStyles(document));
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private File file(byte[] bytes) throws IOException {
+        File file = directory.resolve("damaged." + StyledFileFormat.EXTENSION).toFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private void assertDamaged(byte[] bytes) throws IOException {
+        File file = file(bytes);
+        assertThrows(IOException.class, () -> StyledFileFormat.read(file));
+    }
+
+    private static FormattedDocument document(String text) throws BadLocationException {
+        FormattedDocument document = new FormattedDocument();
+        document.insertString(0, text, null);
+        return document;
+    }
+
+    private static AttributeSet attribute(Object key, Object value) {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        attributes.addAttribute(key, value);
+        return attributes;
+    }
+
+    // Значение, отличное от значения по умолчанию, в типе, который хранит редактор
+    private static Object sampleValue(Object key) {
+        if (key == StyleConstants.FontFamily) {
+            return "Serif";
+        } else if (key == StyleConstants.FontSize) {
+            return 23;
+        } else if (key == StyleConstants.Alignment) {
+            return StyleConstants.ALIGN_CENTER;
+        } else if (key == StyleConstants.Foreground) {
+            return new Color(10, 20, 30);
+        } else if (key == StyleConstants.Background) {
+            return new Color(200, 100, 50, 128);
+        } else if (Arrays.asList(PARAGRAPH_KEYS).contains(key)) {
+            return 7.5f;
+        }
+        return true; // Начертания
+    }
+
+    // Заголовок файла и varint-числа за ним
+    private static byte[] header(int... varints) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + varints.length * 5);
+        buffer.putInt(MAGIC);
+        for (int value : varints) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    // Текст, абзацы и участки: атрибуты сравниваются по каждому сохраняемому ключу
+    private static void assertSameDocument(FormattedDocument expected, FormattedDocument actual) throws BadLocationException {
+        assertEquals(expected.getText(0, expected.getLength()), actual.getText(0, actual.getLength()));
+        Element expectedRoot = expected.getDefaultRootElement();
+        Element actualRoot = actual.getDefaultRootElement();
+        assertEquals(expectedRoot.getElementCount(), actualRoot.getElementCount(), "Число абзацев");
+        for (int i = 0; i < expectedRoot.getElementCount(); i++) {
+            Element paragraph = expectedRoot.getElement(i);
+            assertEquals(paragraph.getStartOffset(), actualRoot.getElement(i).getStartOffset(), "Начало абзаца " + i);
+            assertSameAttributes(paragraph.getAttributes(), actualRoot.getElement(i).getAttributes(), "Абзац " + i);
+        }
+        for (int offset = 0; offset < expected.getLength(); offset++) {
+            assertSameAttributes(expected.getCharacterElement(offset).getAttributes(),
+                    actual.getCharacterElement(offset).getAttributes(), "Символ " + offset);
+        }
+    }
+
+    private static void assertSameAttributes(AttributeSet expected, AttributeSet actual, String where) {
+        for (Object key : StyledFileFormat.KEYS) {
+            assertEquals(expected.getAttribute(key), actual.getAttribute(key), where + ", " + key);
+        }
+    }
+}
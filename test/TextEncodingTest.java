@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Определение кодировки по первому блоку файла: BOM, UTF-16 без BOM, UTF-8, CP1251
+class TextEncodingTest {
+    private static final Charset FALLBACK = StandardCharsets.ISO_8859_1;
+    private static final String LATIN = "The quick brown fox jumps over the lazy dog, 1234567890.\r\n";
+    private static final String RUSSIAN = "Съешь же ещё этих мягких французских булок, да выпей чаю.\n";
+
+    @Test
+    void byteOrderMarks() {
+        assertDetected(StandardCharsets.UTF_8, true, concat(bytes(0xEF, 0xBB, 0xBF), RUSSIAN.getBytes(StandardCharsets.UTF_8)));
+        assertDetected(StandardCharsets.UTF_16BE, true, concat(bytes(0xFE, 0xFF), RUSSIAN.getBytes(StandardCharsets.UTF_16BE)));
+        assertDetected(StandardCharsets.UTF_16LE, true, concat(bytes(0xFF, 0xFE), LATIN.getBytes(StandardCharsets.UTF_16LE)));
+        // Один BOM без текста
+        assertDetected(StandardCharsets.UTF_16LE, true, bytes(0xFF, 0xFE));
+    }
+
+    @Test
+    void utf16WithoutBomLatin() {
+        assertDetected(StandardCharsets.UTF_16LE, false, LATIN.getBytes(StandardCharsets.UTF_16LE));
+        assertDetected(StandardCharsets.UTF_16BE, false, LATIN.getBytes(StandardCharsets.UTF_16BE));
+    }
+
+    @Test
+    void utf16WithoutBomCyrillic() {
+        // Нулевые байты дают только пробелы и знаки, все остальные байты меньше 0x80
+        assertDetected(StandardCharsets.UTF_16LE, false, RUSSIAN.getBytes(StandardCharsets.UTF_16LE));
+        assertDetected(StandardCharsets.UTF_16BE, false, RUSSIAN.getBytes(StandardCharsets.UTF_16BE));
+        String mixed = "Редактор (editor) — «текст» №1\n";
+        assertDetected(StandardCharsets.UTF_16LE, false, mixed.getBytes(StandardCharsets.UTF_16LE));
+        assertDetected(StandardCharsets.UTF_16BE, false, mixed.getBytes(StandardCharsets.UTF_16BE));
+        // Блок, оборванный посреди символа
+        byte[] bytes = RUSSIAN.getBytes(StandardCharsets.UTF_16LE);
+        assertDetected(StandardCharsets.UTF_16LE, false, Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    void utf8AndCp1251() {
+        assertDetected(StandardCharsets.UTF_8, false, RUSSIAN.getBytes(StandardCharsets.UTF_8));
+        assertDetected(TextEncoding.WINDOWS_1251, false, RUSSIAN.getBytes(TextEncoding.WINDOWS_1251));
+        // Блок, оборванный посреди многобайтового символа UTF-8
+        byte[] bytes = RUSSIAN.getBytes(StandardCharsets.UTF_8);
+        assertDetected(StandardCharsets.UTF_8, false, Arrays.copyOf(bytes, 3));
+    }
+
+    @Test
+    void asciiAndEmpty() {
+        assertDetected(StandardCharsets.UTF_8, false, "plain\ttext\f\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertDetected(StandardCharsets.UTF_8, false, new byte[0]);
+        assertDetected(StandardCharsets.UTF_8, false, bytes('a'));
+    }
+
+    @Test
+    void controlBytesAreNotText() {
+        byte[] withNul = concat(LATIN.getBytes(StandardCharsets.US_ASCII), bytes(0x00, 0x01, 0x1B));
+        assertDetected(FALLBACK, false, withNul);
+        byte[] cp1251 = concat(RUSSIAN.getBytes(TextEncoding.WINDOWS_1251), bytes(0x02));
+        assertDetected(FALLBACK, false, cp1251);
+    }
+
+    @Test
+    void respectsBufferPosition() {
+        byte[] text = RUSSIAN.getBytes(StandardCharsets.UTF_16LE);
+        ByteBuffer buffer = ByteBuffer.wrap(concat(bytes(0xEF, 0xBB, 0xBF), text));
+        buffer.position(3);
+        TextEncoding encoding = TextEncoding.detect(buffer, FALLBACK);
+        assertEquals(StandardCharsets.UTF_16LE, encoding.charset);
+        assertFalse(encoding.bom);
+        assertEquals(3, buffer.position());
+        assertTrue(encoding.toString().startsWith("UTF-16LE"));
+    }
+
+    private static void assertDetected(Charset charset, boolean bom, byte[] bytes) {
+        TextEncoding encoding = TextEncoding.detect(ByteBuffer.wrap(bytes), FALLBACK);
+        assertEquals(charset, encoding.charset, Arrays.toString(Arrays.copyOf(bytes, Math.min(bytes.length, 16))));
+        assertEquals(bom, encoding.bom);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}